@@ -27,6 +27,7 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private final int keyField;
+    private final PageChannel channel;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -41,6 +42,7 @@ public class BTreeFile implements DbFile {
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.channel = new PageChannel(f);
     }
 
     /**
@@ -81,14 +83,12 @@ public class BTreeFile implements DbFile {
      */
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
-        BufferedInputStream bis = null;
 
         try {
-            bis = new BufferedInputStream(new FileInputStream(f));
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
+                int retval = channel.read(pageBuf, 0);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -100,13 +100,8 @@ public class BTreeFile implements DbFile {
                 return p;
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
+                int retval = channel.read(pageBuf, pageOffset(id.getPageNumber()));
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BufferPool.getPageSize()) {
@@ -127,17 +122,14 @@ public class BTreeFile implements DbFile {
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            // Close the file on success or error
-            try {
-                if (bis != null)
-                    bis.close();
-            } catch (IOException ioe) {
-                // Ignore failures closing the file
-            }
         }
     }
 
+    // the root pointer page comes first, then the other pages, numbered from 1
+    private static long pageOffset(int pageNumber) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNumber - 1) * BufferPool.getPageSize();
+    }
+
     /**
      * Write a page to disk.  This should not be called directly but should
      * be called from the BufferPool when pages are flushed to disk
@@ -147,15 +139,10 @@ public class BTreeFile implements DbFile {
     public void writePage(Page page) throws IOException {
         BTreePageId id = (BTreePageId) page.getId();
 
-        byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            channel.writePage(page, 0);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            channel.writePage(page, pageOffset(id.getPageNumber()));
         }
     }
 
@@ -258,6 +245,16 @@ public class BTreeFile implements DbFile {
         return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
     }
 
+    /**
+     * The next function of the iterators' read-ahead. Prefetched pages are
+     * not locked, so the page may have stopped being a leaf meanwhile.
+     *
+     * @return the right sibling of a leaf page, or null
+     */
+    static PageId rightSibling(Page page) {
+        return page instanceof BTreeLeafPage ? ((BTreeLeafPage) page).getRightSiblingId() : null;
+    }
+
     /**
      * Split a leaf page to make room for new tuples and recursively split the parent node
      * as needed to accommodate a new entry. The new entry should have a key matching the key field
@@ -1023,13 +1020,10 @@ public class BTreeFile implements DbFile {
         synchronized (this) {
             if (f.length() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                channel.append(emptyRootPtrData);
+                channel.append(emptyLeafData);
             }
         }
 
@@ -1083,11 +1077,8 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                channel.append(emptyData);
                 emptyPageNo = numPages();
             }
         }
@@ -1117,10 +1108,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        channel.write(BTreePage.createEmptyPageData(), pageOffset(emptyPageNo));
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().discardPage(newPageId);
@@ -1249,6 +1237,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    ReadAhead readAhead;
 
     TransactionId tid;
     BTreeFile f;
@@ -1273,6 +1262,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         BTreePageId root = rootPtr.getRootId();
         curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
         it = curp.iterator();
+        readAhead = new ReadAhead(tid, BTreeFile::rightSibling);
     }
 
     /**
@@ -1291,8 +1281,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
             if (nextp == null) {
                 curp = null;
             } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                curp = (BTreeLeafPage) readAhead.getPage(nextp);
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1334,6 +1323,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     TransactionId tid;
     BTreeFile f;
     IndexPredicate ipred;
+    ReadAhead readAhead;
 
     /**
      * Constructor for this iterator
@@ -1363,6 +1353,28 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
         }
         it = curp.iterator();
+        readAhead = new ReadAhead(tid, this::nextLeaf);
+    }
+
+    /**
+     * @return the leaf the scan reads after page, or null if the scan ends
+     *         in page, so that read-ahead stops at the last leaf the scan
+     *         reads; null too if page has stopped being a leaf, as for
+     *         {@link BTreeFile#rightSibling}
+     */
+    private PageId nextLeaf(Page page) {
+        if (!(page instanceof BTreeLeafPage)) {
+            return null;
+        }
+        if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.LESS_THAN
+                || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
+            Iterator<Tuple> last = ((BTreeLeafPage) page).reverseIterator();
+            if (last.hasNext() && !last.next().getField(f.keyField()).compare(
+                    ipred.getOp() == Op.LESS_THAN ? Op.LESS_THAN : Op.LESS_THAN_OR_EQ, ipred.getField())) {
+                return null;
+            }
+        }
+        return BTreeFile.rightSibling(page);
     }
 
     /**
@@ -1397,8 +1409,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             if (nextp == null) {
                 return null;
             } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                curp = (BTreeLeafPage) readAhead.getPage(nextp);
                 it = curp.iterator();
             }
         }
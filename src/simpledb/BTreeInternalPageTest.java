@@ -8,11 +8,13 @@ import simpledb.systemtest.SystemTestUtil;
 
 //import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -188,6 +190,23 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 			assertFalse(page.isSlotUsed(i));
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.getPageData(), into an array and into a buffer
+	 */
+	@Test public void getPageData() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+		ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize() + 8);
+		buf.position(8);
+		page.getPageData(buf);
+		assertEquals(BufferPool.getPageSize() + 8, buf.position());
+		byte[] fromBuffer = new byte[BufferPool.getPageSize()];
+		buf.position(8);
+		buf.get(fromBuffer);
+		assertArrayEquals(EXAMPLE_DATA, fromBuffer);
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.isDirty()
 	 */
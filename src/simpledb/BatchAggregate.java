@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * BatchAggregate is the batch counterpart of {@link Aggregate}, for MIN,
+ * MAX, SUM, AVG and COUNT of an INT_TYPE field (COUNT of any field), with
+ * or without grouping. It gives the rows of each batch their group numbers
+ * first, then updates the groups in a loop over the aggregate column; INT
+ * group keys are found through an {@link IntHashMap}, without boxing.
+ * <p>
+ * The results are the same as Aggregate's: SUM wraps around as an int
+ * does, AVG is the int quotient of the sum and the count, and an ungrouped
+ * aggregate over no rows returns no rows.
+ */
+public class BatchAggregate implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final int capacity;
+    private final TupleDesc td;
+
+    private transient IntHashMap intGroups;
+    private transient HashMap<Field, Integer> groups;
+    // the key, value and count of each group, in order of first appearance
+    private transient int[] intKeys;
+    private transient Field[] keys;
+    private transient int[] values;
+    private transient int[] counts;
+    private transient int numGroups;
+    private transient int[] groupOf;
+    private transient ColumnBatch out;
+    private transient int nextGroup;
+
+    /**
+     * @param child  the child operator
+     * @param afield the field to aggregate
+     * @param gfield the field to group by, or {@link Aggregator#NO_GROUPING}
+     * @param aop    the aggregate to compute
+     * @throws IllegalArgumentException if aop is not supported for the
+     *                                  type of afield
+     */
+    public BatchAggregate(BatchOpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childTd = child.getTupleDesc();
+        switch (aop) {
+            case MIN: case MAX: case SUM: case AVG:
+                if (childTd.getFieldType(afield) != Type.INT_TYPE) {
+                    throw new IllegalArgumentException(aop + " needs an INT_TYPE field");
+                }
+                break;
+            case COUNT:
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported aggregate " + aop);
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.capacity = ColumnBatch.DEFAULT_CAPACITY;
+        String name = aop + "(" + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING) {
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{name});
+        } else {
+            td = new TupleDesc(new Type[]{childTd.getFieldType(gfield), Type.INT_TYPE},
+                    new String[]{childTd.getFieldName(gfield), name});
+        }
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        aggregate();
+        out = new ColumnBatch(td, capacity);
+    }
+
+    private void aggregate() throws DbException, TransactionAbortedException {
+        intGroups = new IntHashMap(64);
+        groups = new HashMap<>();
+        intKeys = new int[64];
+        keys = new Field[64];
+        values = new int[64];
+        counts = new int[64];
+        numGroups = 0;
+        nextGroup = 0;
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            add(batch);
+        }
+    }
+
+    private void add(ColumnBatch batch) {
+        int selected = batch.numSelected();
+        if (groupOf == null || groupOf.length < selected) {
+            groupOf = new int[Math.max(selected, capacity)];
+        }
+        findGroups(batch, selected);
+        for (int i = 0; i < selected; i++) {
+            counts[groupOf[i]]++;
+        }
+        if (aop == Aggregator.Op.COUNT) {
+            return;
+        }
+        int[] column = batch.getInts(afield);
+        switch (aop) {
+            case MIN:
+                for (int i = 0; i < selected; i++) {
+                    int g = groupOf[i];
+                    values[g] = Math.min(values[g], column[batch.row(i)]);
+                }
+                break;
+            case MAX:
+                for (int i = 0; i < selected; i++) {
+                    int g = groupOf[i];
+                    values[g] = Math.max(values[g], column[batch.row(i)]);
+                }
+                break;
+            default:
+                for (int i = 0; i < selected; i++) {
+                    values[groupOf[i]] += column[batch.row(i)];
+                }
+        }
+    }
+
+    /**
+     * Sets groupOf[i] to the group of the i-th selected row of the batch,
+     * adding groups for keys not seen before.
+     */
+    private void findGroups(ColumnBatch batch, int selected) {
+        if (gfield == Aggregator.NO_GROUPING) {
+            if (numGroups == 0) {
+                newGroup();
+            }
+            Arrays.fill(groupOf, 0, selected, 0);
+            return;
+        }
+        int[] intColumn = batch.getInts(gfield);
+        if (intColumn != null) {
+            for (int i = 0; i < selected; i++) {
+                int key = intColumn[batch.row(i)];
+                int g = intGroups.get(key);
+                if (g < 0) {
+                    g = newGroup();
+                    intKeys[g] = key;
+                    intGroups.put(key, g);
+                }
+                groupOf[i] = g;
+            }
+            return;
+        }
+        Field[] column = batch.getFields(gfield);
+        for (int i = 0; i < selected; i++) {
+            Field key = column[batch.row(i)];
+            Integer g = groups.get(key);
+            if (g == null) {
+                g = newGroup();
+                keys[g] = key;
+                groups.put(key, g);
+            }
+            groupOf[i] = g;
+        }
+    }
+
+    private int newGroup() {
+        if (numGroups == counts.length) {
+            int grown = counts.length * 2;
+            intKeys = Arrays.copyOf(intKeys, grown);
+            keys = Arrays.copyOf(keys, grown);
+            values = Arrays.copyOf(values, grown);
+            counts = Arrays.copyOf(counts, grown);
+        }
+        int g = numGroups++;
+        values[g] = aop == Aggregator.Op.MIN ? Integer.MAX_VALUE
+                : aop == Aggregator.Op.MAX ? Integer.MIN_VALUE : 0;
+        counts[g] = 0;
+        return g;
+    }
+
+    private int result(int g) {
+        switch (aop) {
+            case COUNT:
+                return counts[g];
+            case AVG:
+                return values[g] / counts[g];
+            default:
+                return values[g];
+        }
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (nextGroup >= numGroups) {
+            return null;
+        }
+        int n = Math.min(capacity, numGroups - nextGroup);
+        int valueColumn = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        int[] results = out.getInts(valueColumn);
+        for (int i = 0; i < n; i++) {
+            results[i] = result(nextGroup + i);
+        }
+        if (valueColumn == 1) {
+            if (out.getInts(0) != null) {
+                System.arraycopy(intKeys, nextGroup, out.getInts(0), 0, n);
+            } else {
+                System.arraycopy(keys, nextGroup, out.getFields(0), 0, n);
+            }
+        }
+        nextGroup += n;
+        out.setSize(n);
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        nextGroup = 0;
+    }
+
+    public void close() {
+        child.close();
+        out = null;
+        intGroups = null;
+        groups = null;
+        keys = null;
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch counterpart of {@link Filter}. It narrows the
+ * selection vector of each batch of its child to the rows that pass the
+ * predicate; comparing an INT_TYPE column with an int constant is a loop
+ * over the column's int[].
+ */
+public class BatchFilter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchOpIterator child;
+
+    /**
+     * @param p     the predicate to filter rows with
+     * @param child the child operator
+     */
+    public BatchFilter(Predicate p, BatchOpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            filter(batch);
+            if (batch.numSelected() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private void filter(ColumnBatch batch) {
+        int[] values = batch.getInts(p.getField());
+        if (values != null && p.getOperand() instanceof IntField && p.getOp() != Predicate.Op.LIKE) {
+            filterInts(batch, values, ((IntField) p.getOperand()).getValue());
+            return;
+        }
+        int[] sel = batch.selectionBuffer();
+        int n = 0;
+        int selected = batch.numSelected();
+        for (int i = 0; i < selected; i++) {
+            int row = batch.row(i);
+            if (batch.getField(row, p.getField()).compare(p.getOp(), p.getOperand())) {
+                sel[n++] = row;
+            }
+        }
+        batch.select(sel, n);
+    }
+
+    private void filterInts(ColumnBatch batch, int[] values, int operand) {
+        int[] sel = batch.selectionBuffer();
+        int n = 0;
+        int selected = batch.numSelected();
+        switch (p.getOp()) {
+            case EQUALS:
+                for (int i = 0; i < selected; i++) {
+                    int row = batch.row(i);
+                    if (values[row] == operand) {
+                        sel[n++] = row;
+                    }
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < selected; i++) {
+                    int row = batch.row(i);
+                    if (values[row] != operand) {
+                        sel[n++] = row;
+                    }
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < selected; i++) {
+                    int row = batch.row(i);
+                    if (values[row] > operand) {
+                        sel[n++] = row;
+                    }
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < selected; i++) {
+                    int row = batch.row(i);
+                    if (values[row] >= operand) {
+                        sel[n++] = row;
+                    }
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < selected; i++) {
+                    int row = batch.row(i);
+                    if (values[row] < operand) {
+                        sel[n++] = row;
+                    }
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < selected; i++) {
+                    int row = batch.row(i);
+                    if (values[row] <= operand) {
+                        sel[n++] = row;
+                    }
+                }
+                break;
+            default:
+                throw new IllegalStateException("unexpected operator " + p.getOp());
+        }
+        batch.select(sel, n);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
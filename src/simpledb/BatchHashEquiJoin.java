@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.util.HashMap;
+
+/**
+ * BatchHashEquiJoin is the batch counterpart of {@link HashEquiJoin}. It
+ * copies all the rows of child1 into one column batch and chains the rows
+ * with equal join keys through an int[], the head of each chain found by
+ * key in an {@link IntHashMap} (or a HashMap for keys that are not
+ * INT_TYPE); it then probes with the batches of child2, writing each
+ * matching pair into an output batch column by column.
+ * <p>
+ * Unlike HashEquiJoin, which builds its table in chunks of child1, the
+ * whole of child1 is held in memory.
+ */
+public class BatchHashEquiJoin implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final BatchOpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int capacity;
+
+    private transient ColumnBatch build;
+    private transient IntHashMap intHeads;
+    private transient HashMap<Field, Integer> heads;
+    // the next build row with the same key, or -1
+    private transient int[] chain;
+    private transient ColumnBatch out;
+    // the probe batch, its next selected row, and the next build row that
+    // matches the row before that, or -1
+    private transient ColumnBatch probe;
+    private transient int probeNext;
+    private transient int match;
+
+    /**
+     * @param p      the predicate to join on; its operator must be EQUALS
+     * @param child1 the rows to build the hash table from
+     * @param child2 the rows to probe it with
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("a hash join needs an EQUALS predicate");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.capacity = ColumnBatch.DEFAULT_CAPACITY;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        buildTable();
+        out = new ColumnBatch(comboTD, capacity);
+        probe = null;
+        match = -1;
+    }
+
+    private void buildTable() throws DbException, TransactionAbortedException {
+        build = new ColumnBatch(child1.getTupleDesc(), capacity);
+        chain = new int[capacity];
+        intHeads = new IntHashMap(capacity);
+        heads = new HashMap<>();
+        int rows = 0;
+        ColumnBatch batch;
+        while ((batch = child1.nextBatch()) != null) {
+            int selected = batch.numSelected();
+            build.ensureCapacity(rows + selected);
+            for (int i = 0; i < selected; i++) {
+                build.copyRow(rows + i, batch, batch.row(i), 0);
+            }
+            rows += selected;
+            build.setSize(rows);
+        }
+        if (chain.length < rows) {
+            chain = new int[rows];
+        }
+        int[] keys = build.getInts(pred.getField1());
+        if (keys != null) {
+            for (int row = 0; row < rows; row++) {
+                chain[row] = intHeads.put(keys[row], row);
+            }
+        } else {
+            Field[] fieldKeys = build.getFields(pred.getField1());
+            for (int row = 0; row < rows; row++) {
+                Integer previous = heads.put(fieldKeys[row], row);
+                chain[row] = previous == null ? -1 : previous;
+            }
+        }
+    }
+
+    /**
+     * @return the first build row whose key equals the join field of the
+     *         probe row, or -1
+     */
+    private int firstMatch(int row) {
+        int[] keys = probe.getInts(pred.getField2());
+        if (keys != null && build.getInts(pred.getField1()) != null) {
+            return intHeads.get(keys[row]);
+        }
+        Integer head = heads.get(probe.getField(row, pred.getField2()));
+        return head == null ? -1 : head;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        int buildColumns = build.getTupleDesc().numFields();
+        int rows = 0;
+        out.clear();
+        while (rows < capacity) {
+            if (match >= 0) {
+                int probeRow = probe.row(probeNext - 1);
+                out.copyRow(rows, build, match, 0);
+                out.copyRow(rows, probe, probeRow, buildColumns);
+                rows++;
+                match = chain[match];
+                continue;
+            }
+            if (probe == null || probeNext >= probe.numSelected()) {
+                probe = child2.nextBatch();
+                probeNext = 0;
+                if (probe == null) {
+                    break;
+                }
+            }
+            match = firstMatch(probe.row(probeNext++));
+        }
+        out.setSize(rows);
+        return rows > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child2.rewind();
+        probe = null;
+        match = -1;
+    }
+
+    public void close() {
+        child1.close();
+        child2.close();
+        build = null;
+        intHeads = null;
+        heads = null;
+        chain = null;
+        out = null;
+        probe = null;
+    }
+}
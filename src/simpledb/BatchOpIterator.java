@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the batch-at-a-time counterpart of {@link OpIterator}:
+ * each call returns a {@link ColumnBatch} of rows instead of one Tuple, so
+ * that an operator works through a column of ints in a tight loop rather
+ * than making a virtual call and boxing the fields for every row.
+ * <p>
+ * {@link OpIteratorBatchAdapter} and {@link BatchOpIteratorAdapter} connect
+ * the two kinds of operators.
+ */
+public interface BatchOpIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     *
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch. The batch has at least one selected row, and
+     * belongs to the iterator: it stays valid only until the next call,
+     * which may reuse it.
+     *
+     * @return the next batch, or null if the iteration is finished
+     */
+    ColumnBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     *
+     * @throws DbException when rewind is unsupported.
+     */
+    void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of the batches
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    void close();
+}
@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * BatchOpIteratorAdapter returns the rows of a {@link BatchOpIterator} one
+ * tuple at a time, so that a batch plan can feed a tuple-at-a-time operator
+ * or be read like any other OpIterator.
+ */
+public class BatchOpIteratorAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private transient ColumnBatch batch;
+    private transient int next;
+
+    public BatchOpIteratorAdapter(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    public BatchOpIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || next >= batch.numSelected()) {
+            batch = child.nextBatch();
+            next = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.toTuple(batch.row(next++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch counterpart of {@link Project}. Its batches are
+ * views of the chosen columns of its child's, so it copies no values.
+ */
+public class BatchProject implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final int[] columns;
+    private final TupleDesc td;
+    private transient ColumnBatch view;
+
+    /**
+     * @param fieldList the fields of the child's rows to keep, in order
+     * @param child     the child operator
+     */
+    public BatchProject(List<Integer> fieldList, BatchOpIterator child) {
+        this.child = child;
+        this.columns = new int[fieldList.size()];
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        TupleDesc childTd = child.getTupleDesc();
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = fieldList.get(i);
+            types[i] = childTd.getFieldType(columns[i]);
+            names[i] = childTd.getFieldName(columns[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        view = ColumnBatch.view(td);
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch batch = child.nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        view.project(batch, columns);
+        return view;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        view = null;
+    }
+}
@@ -0,0 +1,128 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the batch counterpart of {@link SeqScan}: it reads the
+ * tuples of a heap file a column at a time. For each page it finds the used
+ * slots once, then decodes each column of them in turn, reading INT_TYPE
+ * fields straight off the page into the column's int[] without a Field
+ * for each value.
+ */
+public class BatchSeqScan implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int capacity;
+    private final HeapFile heapFile;
+    private final TupleDesc td;
+
+    private transient ColumnBatch batch;
+    private transient ReadAhead readAhead;
+    private transient int[] slots;
+    // the page being read, and the next slot of it to read
+    private transient HeapPage page;
+    private transient int pageNum;
+    private transient int slot;
+
+    /**
+     * Creates a batch scan over the specified table.
+     *
+     * @param tid        the transaction this scan is running as a part of
+     * @param tableid    the table to scan
+     * @param tableAlias the alias of the table, as for SeqScan
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, ColumnBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of tuples in a batch
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int capacity) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.capacity = capacity;
+        this.heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.td = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = new ColumnBatch(td, capacity);
+        slots = new int[capacity];
+        start();
+    }
+
+    private void start() {
+        BufferRing ring = Database.getBufferPool().ringFor(heapFile.numPages());
+        readAhead = new ReadAhead(tid, heapFile::nextPage, ring);
+        page = null;
+        pageNum = 0;
+        slot = 0;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        int rows = 0;
+        while (rows < capacity) {
+            if (page == null) {
+                if (pageNum >= heapFile.numPages()) {
+                    break;
+                }
+                page = (HeapPage) readAhead.getPage(new HeapPageId(tableid, pageNum));
+                slot = 0;
+            }
+            // the used slots of the page that fit in the batch
+            int n = 0;
+            int numSlots = page.getNumSlots();
+            for (; slot < numSlots && rows + n < capacity; slot++) {
+                if (page.isSlotUsed(slot)) {
+                    slots[n++] = slot;
+                }
+            }
+            for (int c = 0; c < td.numFields(); c++) {
+                int[] ints = batch.getInts(c);
+                if (ints != null) {
+                    for (int i = 0; i < n; i++) {
+                        ints[rows + i] = page.getInt(slots[i], c);
+                    }
+                } else {
+                    Field[] fields = batch.getFields(c);
+                    for (int i = 0; i < n; i++) {
+                        fields[rows + i] = page.getField(slots[i], c);
+                    }
+                }
+            }
+            rows += n;
+            if (slot >= numSlots) {
+                page = null;
+                pageNum++;
+            }
+        }
+        batch.setSize(rows);
+        return rows > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        start();
+    }
+
+    public void close() {
+        batch = null;
+        readAhead = null;
+        page = null;
+    }
+}
@@ -2,11 +2,21 @@ package simpledb;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -15,9 +25,37 @@ import java.util.concurrent.TimeUnit;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. The locks themselves are kept by a
+ * {@link LockManager}, which detects deadlocks instead of timing out.
+ * <p>
+ * The page table is split into partitions keyed by the PageId hash code.
+ * Each partition has its own latch and replacement policy, so a miss only
+ * serializes with other misses on the same partition. Frames are shared:
+ * a partition that runs out of clean pages steals one from another.
+ * <p>
+ * Commits do not write pages (NO FORCE). {@link #commitPages} logs the
+ * changes of the committing transaction and keeps its pages in the pool
+ * as committed but unwritten pages, which are not evicted. A background
+ * cleaner thread writes them in PageId order, so pages of one file are
+ * written in ascending offsets: it wakes when fewer than
+ * {@link #setCleanFraction} of the frames are clean or free, and otherwise
+ * writes behind commits after a short delay. A miss that finds no clean
+ * frame writes the committed pages itself rather than fail; only pages
+ * of running transactions are never written (NO STEAL).
+ * <p>
+ * Scans read ahead through {@link #prefetch}: a pool of I/O threads reads
+ * the pages a {@link ReadAhead} expects next into free or clean frames,
+ * without locking them, so the scan finds them cached when it gets there.
+ * <p>
+ * The pages of a partition, and its replacement policy, are guarded by the
+ * partition's latch; hits read the concurrent page map without it. The
+ * free frame count, the sets of dirtied and unwritten pages and the
+ * statistics are atomic or concurrent. The cleaner thread, whether it was
+ * stopped and the error it stopped on are guarded by cleanerLock, which is also what the cleaner waits on. The
+ * settings a caller may change while the pool is in use, the clean fraction
+ * and the read-ahead limit, are volatile.
  *
- * @Threadsafe, all fields are final
+ * @Threadsafe
  */
 public class BufferPool {
     /**
@@ -34,41 +72,136 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
+    /**
+     * Upper bound on the number of page table partitions used by the
+     * constructors that do not take a partition count.
+     */
+    public static final int DEFAULT_PARTITIONS = 16;
+
+    // smaller pools get fewer partitions so each one keeps a useful number of frames
+    private static final int MIN_FRAMES_PER_PARTITION = 8;
+
+    // how long a miss waits for another partition's latch when stealing a frame
+    private static final long STEAL_WAIT_MILLIS = 50;
+
+    /**
+     * Fraction of the frames the cleaner keeps clean or free unless
+     * {@link #setCleanFraction} is called.
+     */
+    public static final double DEFAULT_CLEAN_FRACTION = 0.25;
+
+    // how long committed pages wait for the cleaner when enough frames are clean
+    private static final long WRITE_BEHIND_MILLIS = 50;
+    // how long an idle cleaner thread lives before it exits
+    private static final long CLEANER_IDLE_MILLIS = 1000;
+
+    /**
+     * The most pages a scan reads ahead unless {@link #setReadAhead} is
+     * called.
+     */
+    public static final int DEFAULT_READ_AHEAD = 32;
+
+    // the frames of the ring of a large scan, at most and at least
+    private static final int RING_PAGES = 32;
+    private static final int MIN_RING_PAGES = 4;
+
+    // I/O threads that read pages ahead of scans
+    private static final int PREFETCH_THREADS = 2;
+    // how long an idle prefetch thread lives before it exits
+    private static final long PREFETCH_IDLE_MILLIS = 1000;
+
     private final int numPages;
-    private ConcurrentHashMap<PageId, Page> bufferPool;
-    private LinkedList<PageId> pageIdCache;
-    private ConcurrentHashMap<PageId, PageLock> pageId2pageLock;
-    private ConcurrentHashMap<TransactionId, TransactionLock> transactionId2hasLock;
+    private final Partition[] partitions;
+    // frames that hold no page yet, shared by all partitions
+    private final AtomicInteger freeFrames;
+    private final LockManager lockManager = new LockManager();
 
-    private static class PageLock {
-        public final Semaphore fifoRw = new Semaphore(1);
-        public final Semaphore rw = new Semaphore(1);
-        public final Semaphore mutex = new Semaphore(1);
-        public volatile int readCount = 0;
+    // pages with committed changes that are not in their file yet
+    private final Set<PageId> unwritten = ConcurrentHashMap.newKeySet();
+    // pages changed by running transactions that are not in unwritten; with
+    // unwritten, counts the frames that cannot be evicted
+    private final Set<PageId> dirtied = ConcurrentHashMap.newKeySet();
+    private final Object cleanerLock = new Object();
+    private Thread cleaner; //protected by cleanerLock; null when not running
+    private boolean cleanerStopped; //protected by cleanerLock
+    // why the cleaner last failed, until a foreground call reports it
+    private IOException cleanerError; //protected by cleanerLock
+    private volatile double cleanFraction = DEFAULT_CLEAN_FRACTION;
+    private final AtomicLong pagesCleaned = new AtomicLong();
+    private final AtomicLong synchronousCleans = new AtomicLong();
 
-    }
+    private final ThreadPoolExecutor prefetcher;
+    private volatile int readAhead = DEFAULT_READ_AHEAD;
+    private final AtomicLong pagesPrefetched = new AtomicLong();
+    private final AtomicLong prefetchRequests = new AtomicLong();
 
-    private static class TransactionLock {
-        TransactionId tid;
-        LinkedList<PageId> pageIdLinkedList = new LinkedList<>();
-        ConcurrentHashMap<PageLock, Permissions> hasLock = new ConcurrentHashMap<>();
+    /**
+     * One slice of the page table. The latch is held while a page of this
+     * partition is read in, evicted, flushed or discarded; hits only use the
+     * concurrent map.
+     */
+    private static class Partition {
+        final int index;
+        final ConcurrentHashMap<PageId, Page> pages = new ConcurrentHashMap<>();
+        final ReentrantLock latch = new ReentrantLock();
+        final ReplacementPolicy policy;
 
-        public TransactionLock(TransactionId tid) {
-            this.tid = tid;
+        Partition(int index, ReplacementPolicy policy) {
+            this.index = index;
+            this.policy = policy;
         }
     }
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages and evicts with
+     * the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ClockReplacementPolicy::new);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param policyFactory creates the replacement policy of each partition,
+     *                      given the number of frames it is expected to hold
+     *                      (e.g. <code>TwoQueueReplacementPolicy::new</code>).
+     */
+    public BufferPool(int numPages, IntFunction<ReplacementPolicy> policyFactory) {
+        this(numPages, Math.max(1, Math.min(DEFAULT_PARTITIONS, numPages / MIN_FRAMES_PER_PARTITION)),
+                policyFactory);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the given
+     * number of page table partitions.
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param numPartitions number of independently latched partitions.
+     * @param policyFactory creates the replacement policy of each partition,
+     *                      given the number of frames it is expected to hold.
+     */
+    public BufferPool(int numPages, int numPartitions, IntFunction<ReplacementPolicy> policyFactory) {
+        if (numPartitions < 1) {
+            throw new IllegalArgumentException("a BufferPool needs at least one partition");
+        }
         this.numPages = numPages;
-        bufferPool = new ConcurrentHashMap<>(numPages);
-        pageIdCache = new LinkedList<>();
-        pageId2pageLock = new ConcurrentHashMap<>();
-        transactionId2hasLock = new ConcurrentHashMap<>();
+        this.freeFrames = new AtomicInteger(numPages);
+        this.partitions = new Partition[numPartitions];
+        int framesPerPartition = (numPages + numPartitions - 1) / numPartitions;
+        for (int i = 0; i < numPartitions; i++) {
+            partitions[i] = new Partition(i, policyFactory.apply(framesPerPartition));
+        }
+        this.prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS,
+                PREFETCH_IDLE_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "BufferPool prefetch");
+                    t.setDaemon(true);
+                    return t;
+                });
+        prefetcher.allowCoreThreadTimeOut(true);
     }
 
     public static int getPageSize() {
@@ -102,107 +235,116 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        //页->页锁
-        pageId2pageLock.putIfAbsent(pid, new PageLock());
-        PageLock pageLock = pageId2pageLock.get(pid);
-        //事务->事务锁集合
-        transactionId2hasLock.putIfAbsent(tid, new TransactionLock(tid));
-        TransactionLock transactionLock = transactionId2hasLock.get(tid);
-        //按需🔒住,先不管中断异常
-        if (perm == Permissions.READ_ONLY) {
-            if (!transactionLock.hasLock.containsKey(pageLock)) {
-                lockInShareMode(transactionLock, pid, pageLock);
-            }
-        } else {
-            lockForUpdate(tid, transactionLock, pid, pageLock);
-        }
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Like {@link #getPage(TransactionId, PageId, Permissions)}, but a miss
+     * reads the page into a frame of ring, taking it from the oldest page
+     * the ring read once the ring is full.
+     *
+     * @param ring the scan's ring, or null to use the whole pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        lockManager.acquire(tid, pid, perm);
         //获得页面
-        if (bufferPool.containsKey(pid)) {
-            return bufferPool.get(pid);
-        } else {
-            synchronized (Database.getBufferPool()) {
-                if (bufferPool.size() < numPages) {
-                    Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                    bufferPool.put(pid, page);
-                    pageIdCache.offer(pid);
+        Partition partition = partitionOf(pid);
+        Page page = partition.pages.get(pid);
+        if (page != null) {
+            partition.policy.pageAccessed(pid);
+            return page;
+        }
+        if (ring != null) {
+            recycle(ring);
+        }
+        for (boolean cleaned = false; ; cleaned = true) {
+            partition.latch.lock();
+            try {
+                page = partition.pages.get(pid);
+                if (page != null) {
+                    partition.policy.pageAccessed(pid);
                     return page;
-                } else {
-                    //discard一个clean页,且不在某个事务执行中(好像可以释放事务执行中的clean页)
-                    for (int i = 0; i < pageIdCache.size(); i++) {
-                        if (bufferPool.get(pageIdCache.get(i)).isDirty() == null) {
-                            PageId poll = pageIdCache.get(i);
-                            discardPage(poll);
-                            return getPage(tid, pid, perm);
-                        }
+                }
+                if (reserveFrame(partition)) {
+                    try {
+                        page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                    } catch (RuntimeException e) {
+                        freeFrames.incrementAndGet();
+                        throw e;
                     }
-                    throw new DbException("All bufferPool pages are dirty!");
+                    partition.pages.put(pid, page);
+                    partition.policy.pageLoaded(pid);
+                    if (ring != null) {
+                        ring.pageLoaded(pid);
+                    }
+                    return page;
                 }
+            } finally {
+                partition.latch.unlock();
+            }
+            if (cleaned || unwritten.isEmpty()) {
+                throw new DbException("All bufferPool pages are dirty!");
+            }
+            // the cleaner fell behind; write the committed pages here
+            synchronousCleans.incrementAndGet();
+            try {
+                cleanPages();
+            } catch (IOException e) {
+                throw new DbException("could not write committed pages: " + e.getMessage());
             }
         }
     }
 
-    private void lockInShareMode(TransactionLock transactionLock, PageId pid, PageLock pageLock) throws TransactionAbortedException {
+    /**
+     * Frees the frame of the oldest page of a full ring, unless the page
+     * may not be evicted; the miss that follows most likely takes it.
+     * Called without a latch, so that it can take the victim's.
+     */
+    private void recycle(BufferRing ring) {
+        PageId victim = ring.nextVictim();
+        if (victim == null) {
+            return;
+        }
+        Partition partition = partitionOf(victim);
+        partition.latch.lock();
         try {
-            pageLock.fifoRw.acquire();
-            pageLock.mutex.acquire();
-            if (pageLock.readCount == 0) {
-                if (!pageLock.rw.tryAcquire(120, TimeUnit.MILLISECONDS)) {
-                    throw new TransactionAbortedException();
-                }
+            Page page = partition.pages.get(victim);
+            if (page != null && page.isDirty() == null && !unwritten.contains(victim)
+                    && !lockManager.isWriteLocked(victim)) {
+                partition.pages.remove(victim);
+                partition.policy.pageRemoved(victim);
+                freeFrames.incrementAndGet();
             }
-            transactionLock.hasLock.put(pageLock, Permissions.READ_ONLY);
-            transactionLock.pageIdLinkedList.add(pid);
-            pageLock.readCount++;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
         } finally {
-            pageLock.mutex.release();
-            pageLock.fifoRw.release();
+            partition.latch.unlock();
         }
     }
 
-    private void lockForUpdate(TransactionId tid, TransactionLock transactionLock, PageId pid, PageLock pageLock) throws TransactionAbortedException {
-        try {
-            pageLock.fifoRw.acquire();
-            if (transactionLock.hasLock.containsKey(pageLock)) {
-                if (transactionLock.hasLock.get(pageLock) != Permissions.READ_WRITE) {
-                    //读锁升级写锁
-                    pageLock.mutex.acquire();
-                    if (--pageLock.readCount == 0) {
-                        pageLock.rw.release();
-                    }
-                    pageLock.mutex.release();
-                    if (!pageLock.rw.tryAcquire(120, TimeUnit.MILLISECONDS)) {
-                        pageLock.mutex.acquire();
-                        pageLock.readCount++;
-                        pageLock.mutex.release();
-                        //1
-                        try {
-                            transactionComplete(tid, false);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                        throw new TransactionAbortedException();
-                    }
-                    transactionLock.hasLock.put(pageLock, Permissions.READ_WRITE);
-                }
-            }
-            if (!transactionLock.hasLock.containsKey(pageLock)) {
-                if (!pageLock.rw.tryAcquire(120, TimeUnit.MILLISECONDS)) {
-                    throw new TransactionAbortedException();
-                    //2
-                }
-                transactionLock.hasLock.put(pageLock, Permissions.READ_WRITE);
-            }
-            if (!transactionLock.pageIdLinkedList.contains(pid)) {
-                transactionLock.pageIdLinkedList.add(pid);
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } finally {
-            //放这里是因为1、2处都要做这个操作，为了统一
-            pageLock.fifoRw.release();
+    /**
+     * Chooses how a scan of a table uses the pool. A table larger than the
+     * pool is scanned through a ring of a few frames, so that the scan does
+     * not evict the pages other queries work with; it would not find its
+     * own pages cached the next time anyway. A smaller table is read into
+     * the pool, to be cached for the next scan.
+     *
+     * @param tablePages the number of pages of the scanned table
+     * @return the ring for the scan, or null if the table is small enough
+     *         to be cached
+     */
+    public BufferRing ringFor(int tablePages) {
+        if (tablePages <= numPages) {
+            return null;
         }
+        return new BufferRing(Math.max(MIN_RING_PAGES, Math.min(RING_PAGES, numPages / 8)));
+    }
+
+    private Partition partitionOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= h >>> 16;
+        h *= 0x9E3779B9;
+        h ^= h >>> 15;
+        return partitions[Math.floorMod(h, partitions.length)];
     }
 
     /**
@@ -215,23 +357,140 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public void releasePage(TransactionId tid, PageId pid) {
-        TransactionLock transactionLock = transactionId2hasLock.get(tid);
-        PageLock pageLock = pageId2pageLock.get(pid);
-        Permissions permissions = transactionLock.hasLock.get(pageLock);
-        if (permissions == Permissions.READ_ONLY) {
-            try {
-                pageLock.mutex.acquire();
-                if (--pageLock.readCount == 0) {
-                    pageLock.rw.release();
+        lockManager.release(tid, pid);
+    }
+
+    /**
+     * Return true if the specified transaction has a lock on the specified page
+     */
+    public boolean holdsLock(TransactionId tid, PageId p) {
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * @return the lock manager holding the page locks of this pool
+     */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    /**
+     * @return true if the page is in the buffer pool
+     */
+    public boolean isCached(PageId pid) {
+        return partitionOf(pid).pages.containsKey(pid);
+    }
+
+    /**
+     * Sets the most pages a scan reads ahead; 0 turns read-ahead off. A
+     * scan never reads ahead more than a quarter of the pool, so that it
+     * does not evict the pages it prefetched before it gets to them.
+     */
+    public void setReadAhead(int maxPages) {
+        readAhead = maxPages;
+    }
+
+    /**
+     * @return the most pages a scan may read ahead in this pool
+     */
+    public int getReadAhead() {
+        return Math.min(readAhead, numPages / 4);
+    }
+
+    /**
+     * @return the number of pages read into the pool by {@link #prefetch}
+     */
+    public long getPagesPrefetched() {
+        return pagesPrefetched.get();
+    }
+
+    /**
+     * @return the number of {@link #prefetch} calls, which unlike the pages
+     *         they read does not depend on how far they get before the scan
+     *         that asked for them catches up
+     */
+    public long getPrefetchRequests() {
+        return prefetchRequests.get();
+    }
+
+    /**
+     * Reads up to count pages into the pool on an I/O thread, starting
+     * with first and following next from each page to the one after it.
+     * Pages that are cached already are only followed. No locks are taken:
+     * a page that is not cached has no changes that are not in its file.
+     * Stops early when no frame holds a clean page.
+     *
+     * @param first the first page to read
+     * @param count the most pages to read
+     * @param next  gives the page after a page, or null at the end
+     * @return the page after the last one read, or null if there is none
+     *         or the prefetch stopped early
+     */
+    public Future<PageId> prefetch(PageId first, int count, Function<Page, PageId> next) {
+        return prefetch(first, count, next, null);
+    }
+
+    /**
+     * Like {@link #prefetch(PageId, int, Function)}, but reads the pages
+     * into frames of a scan's ring.
+     *
+     * @param ring the scan's ring, or null to use the whole pool
+     */
+    public Future<PageId> prefetch(PageId first, int count, Function<Page, PageId> next, BufferRing ring) {
+        prefetchRequests.incrementAndGet();
+        return prefetcher.submit(() -> {
+            PageId pid = first;
+            for (int i = 0; i < count && pid != null; i++) {
+                Page page = cachePage(pid, ring);
+                if (page == null) {
+                    return null;
                 }
-                pageLock.mutex.release();
-                transactionLock.hasLock.remove(pageLock);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                pid = next.apply(page);
             }
-        } else {
-            transactionLock.hasLock.remove(pageLock);
-            pageLock.rw.release();
+            return pid;
+        });
+    }
+
+    /**
+     * Reads a page into the pool if it is not there, like a miss of
+     * getPage but without locking it or waiting for frames.
+     *
+     * @return the cached page, or null if it could not be read
+     */
+    private Page cachePage(PageId pid, BufferRing ring) {
+        Partition partition = partitionOf(pid);
+        Page page = partition.pages.get(pid);
+        if (page != null) {
+            return page;
+        }
+        if (ring != null) {
+            recycle(ring);
+        }
+        partition.latch.lock();
+        try {
+            page = partition.pages.get(pid);
+            if (page != null) {
+                return page;
+            }
+            if (!reserveFrame(partition)) {
+                return null;
+            }
+            try {
+                page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            } catch (RuntimeException e) {
+                // the table or the page went away; the scan will find out
+                freeFrames.incrementAndGet();
+                return null;
+            }
+            partition.pages.put(pid, page);
+            partition.policy.pageLoaded(pid);
+            if (ring != null) {
+                ring.pageLoaded(pid);
+            }
+            pagesPrefetched.incrementAndGet();
+            return page;
+        } finally {
+            partition.latch.unlock();
         }
     }
 
@@ -247,50 +506,87 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * A commit logs the changes of the transaction (see {@link #commitPages})
+     * and, if it logged any or the transaction began in the log, a COMMIT
+     * record, and returns once the log is durable past it; the pages are
+     * written by the cleaner later, and recovery redoes them if they are not.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws IOException if the cleaner failed to write committed pages
+     *         since this was last reported; a commit then fails before
+     *         anything of tid is logged, so tid can still be aborted
      */
     public void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
-        if (transactionId2hasLock.containsKey(tid)) {
-            TransactionLock transactionLock = transactionId2hasLock.get(tid);
-            if (commit) {
-                for (Map.Entry<PageLock, Permissions> next : transactionLock.hasLock.entrySet()) {
-                    PageLock pageLock = next.getKey();
-                    if (next.getValue() == Permissions.READ_ONLY) {
-                        try {
-                            pageLock.mutex.acquire();
-                            if (--pageLock.readCount == 0) {
-                                pageLock.rw.release();
-                            }
-                            pageLock.mutex.release();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    if (next.getValue() == Permissions.READ_WRITE) {
-                        for (PageId nextPageId : transactionLock.pageIdLinkedList) {
-                            flushPage(nextPageId);
-                        }
-                        pageLock.rw.release();
-                    }
-                }
-                transactionId2hasLock.remove(tid);
-            } else {
-                for (PageId next : transactionLock.pageIdLinkedList) {
-                    Page page = bufferPool.get(next);
+        if (commit) {
+            rethrowCleanerError();
+            LogFile log = Database.getLogFile();
+            if (commitPages(tid) || log.isActive(tid)) {
+                log.logCommit(tid);
+            }
+        } else {
+            for (PageId next : lockManager.lockedPages(tid)) {
+                Partition partition = partitionOf(next);
+                partition.latch.lock();
+                try {
+                    dirtied.remove(next);
+                    Page page = partition.pages.get(next);
                     if (page != null) {
-                        bufferPool.put(next, bufferPool.get(next).getBeforeImage());
+                        Page before = page.getBeforeImage();
+                        partition.pages.put(next, before);
+                        Database.getCatalog().getDatabaseFile(next.getTableId()).pageRolledBack(before);
                     }
-                    //这样写会有线程安全问题
-//                    if (bufferPool.containsKey(next)) {
-//                        bufferPool.put(next, bufferPool.get(next).getBeforeImage());
-//                    }
+                } finally {
+                    partition.latch.unlock();
                 }
             }
-            transactionComplete(tid, true);
         }
+        lockManager.releaseAll(tid);
+    }
+
+    /**
+     * Logs the changes tid made to the pages in the pool, then keeps the
+     * pages as committed pages for the cleaner to write: their before
+     * images become the committed versions and they are marked clean, but
+     * they are not evicted until they are written. Must be called before
+     * the COMMIT record of tid is logged, as
+     * {@link #transactionComplete(TransactionId, boolean)} does.
+     *
+     * @param tid the committing transaction
+     * @return true if any change was logged
+     */
+    public boolean commitPages(TransactionId tid) throws IOException {
+        // the log is not written under a latch, see flushPages
+        ArrayList<Page> dirty = new ArrayList<>();
+        for (PageId pid : lockManager.lockedPages(tid)) {
+            Page page = partitionOf(pid).pages.get(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                dirty.add(page);
+            }
+        }
+        if (dirty.isEmpty()) {
+            return false;
+        }
+        LogFile log = Database.getLogFile();
+        for (Page page : dirty) {
+            log.logWrite(tid, page.getBeforeImage(), page);
+        }
+        for (Page page : dirty) {
+            Partition partition = partitionOf(page.getId());
+            partition.latch.lock();
+            try {
+                unwritten.add(page.getId());
+                dirtied.remove(page.getId());
+                page.setBeforeImage();
+                page.markDirty(false, null);
+            } finally {
+                partition.latch.unlock();
+            }
+        }
+        wakeCleaner();
+        return true;
     }
 
     /**
@@ -313,6 +609,24 @@ public class BufferPool {
         ArrayList<Page> arrayList = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
         for (Page p : arrayList) {
             p.markDirty(true, tid);
+            cacheDirtied(p);
+        }
+    }
+
+    /**
+     * Add many tuples to the specified table on behalf of transaction tid,
+     * through {@link DbFile#insertTuples}. Every page that was dirtied is
+     * marked dirty once, however many of the tuples went to it.
+     *
+     * @param tid     the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples  the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        for (Page p : Database.getCatalog().getDatabaseFile(tableId).insertTuples(tid, tuples)) {
+            p.markDirty(true, tid);
+            cacheDirtied(p);
         }
     }
 
@@ -334,6 +648,37 @@ public class BufferPool {
         ArrayList<Page> dirtyPages = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
         for (Page p : dirtyPages) {
             p.markDirty(true, tid);
+            cacheDirtied(p);
+        }
+    }
+
+    /**
+     * Makes page the cached version of its id, in case the version the
+     * operation changed was evicted or replaced meanwhile, and counts it
+     * as dirtied unless it is counted as unwritten already.
+     */
+    private void cacheDirtied(Page page) throws DbException {
+        PageId pid = page.getId();
+        Partition partition = partitionOf(pid);
+        partition.latch.lock();
+        try {
+            if (!unwritten.contains(pid)) {
+                dirtied.add(pid);
+            }
+            if (partition.pages.get(pid) == page) {
+                return;
+            }
+            if (partition.pages.get(pid) == null) {
+                if (!reserveFrame(partition)) {
+                    throw new DbException("All bufferPool pages are dirty!");
+                }
+                partition.pages.put(pid, page);
+                partition.policy.pageLoaded(pid);
+            } else {
+                partition.pages.put(pid, page);
+            }
+        } finally {
+            partition.latch.unlock();
         }
     }
 
@@ -347,9 +692,28 @@ public class BufferPool {
      * are removed from the cache so they can be reused safely
      */
     public void discardPage(PageId pid) {
-        synchronized (Database.getBufferPool()) {
-            bufferPool.remove(pid);
-            pageIdCache.remove(pid);
+        discardPage(pid, Database.getLogFile().lastUpdateLsn());
+    }
+
+    /**
+     * Removes a page from the buffer pool that has every change logged up
+     * to the given LSN in its file.
+     */
+    private void discardPage(PageId pid, long writtenLsn) {
+        Partition partition = partitionOf(pid);
+        partition.latch.lock();
+        try {
+            if (partition.pages.remove(pid) != null) {
+                partition.policy.pageRemoved(pid);
+                freeFrames.incrementAndGet();
+            }
+            dirtied.remove(pid);
+            if (unwritten.remove(pid)) {
+                // the caller wrote the page itself or no longer needs it
+                Database.getLogFile().pageWritten(pid, writtenLsn);
+            }
+        } finally {
+            partition.latch.unlock();
         }
     }
 
@@ -358,14 +722,71 @@ public class BufferPool {
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        Page page = bufferPool.get(pid);
-        //page != null 判断很关键
-        if (page != null && page.isDirty() != null) {
-            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
-            //page.markDirty(false, null);
-            //因为要discard了，就没必要markClean了
-            discardPage(pid);
+    private void flushPage(PageId pid) throws IOException {
+        flushPages(Collections.singleton(pid));
+    }
+
+    /**
+     * Flushes the dirty pages among pids to disk, write-ahead: an UPDATE
+     * record is logged for each of them and the log is forced once before
+     * the first page is written. Each page is then reported to the log as
+     * written, which takes it out of the log's dirty page table.
+     */
+    private void flushPages(Collection<PageId> pids) throws IOException {
+        // the log is not written under a latch: the log takes latches
+        // itself while it holds its lock, when it rolls pages back
+        ArrayList<Page> dirty = new ArrayList<>();
+        ArrayList<TransactionId> dirtiers = new ArrayList<>();
+        ArrayList<PageId> toWrite = new ArrayList<>();
+        for (PageId pid : pids) {
+            Partition partition = partitionOf(pid);
+            partition.latch.lock();
+            try {
+                Page page = partition.pages.get(pid);
+                TransactionId dirtier = page == null ? null : page.isDirty();
+                if (dirtier != null) {
+                    dirty.add(page);
+                    dirtiers.add(dirtier);
+                }
+                if (dirtier != null || unwritten.contains(pid)) {
+                    toWrite.add(pid);
+                }
+            } finally {
+                partition.latch.unlock();
+            }
+        }
+        if (toWrite.isEmpty()) {
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        for (int i = 0; i < dirty.size(); i++) {
+            log.logWrite(dirtiers.get(i), dirty.get(i).getBeforeImage(), dirty.get(i));
+        }
+        log.force();
+        for (PageId pid : toWrite) {
+            Partition partition = partitionOf(pid);
+            // the changes logged up to here are in the page that is written
+            long lsn = log.lastUpdateLsn();
+            boolean written = false;
+            partition.latch.lock();
+            try {
+                Page page = partition.pages.get(pid);
+                //page != null 判断很关键
+                if (page != null && (page.isDirty() != null || unwritten.contains(pid))) {
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+                    //page.markDirty(false, null);
+                    //因为要discard了，就没必要markClean了
+                    discardPage(pid, lsn);
+                    written = true;
+                }
+            } finally {
+                partition.latch.unlock();
+            }
+            if (written) {
+                // an UPDATE logged since lsn keeps the page in the dirty
+                // page table
+                log.pageWritten(pid, lsn);
+            }
         }
     }
 
@@ -375,11 +796,12 @@ public class BufferPool {
      * break simpledb if running in NO STEAL mode.
      */
     //Test for
-    public synchronized void flushAllPages() throws IOException {
-        for (PageId next : bufferPool.keySet())
-            if ((bufferPool.get(next)).isDirty() != null) {
-                flushPage(next);
-            }
+    public void flushAllPages() throws IOException {
+        ArrayList<PageId> pids = new ArrayList<>();
+        for (Partition partition : partitions) {
+            pids.addAll(partition.pages.keySet());
+        }
+        flushPages(pids);
     }
 
 
@@ -387,13 +809,276 @@ public class BufferPool {
      * Write all pages of the specified transaction to disk.
      */
     //Test for
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        if (transactionId2hasLock.containsKey(tid)) {
-            TransactionLock transactionsLock = transactionId2hasLock.get(tid);
-            for (PageId next : transactionsLock.pageIdLinkedList)
-                if (bufferPool.containsKey(next) && bufferPool.get(next).isDirty() != null) {
-                    flushPage(next);
+    public void flushPages(TransactionId tid) throws IOException {
+        flushPages(lockManager.lockedPages(tid));
+    }
+
+    /**
+     * Makes sure one frame is available for a page that is about to be read
+     * into the given partition, whose latch the caller holds. Takes a free
+     * frame if there is one, otherwise evicts a clean page chosen by the
+     * partition's replacement policy, otherwise steals a clean page from
+     * another partition. Dirty pages are never evicted (NO STEAL).
+     * <p>
+     * Other partitions' latches are only tried for a bounded time, so two
+     * misses stealing from each other's partitions cannot deadlock.
+     *
+     * @return false if no frame holds a clean page
+     */
+    private boolean reserveFrame(Partition partition) {
+        if (takeFreeFrame() || evictFrom(partition)) {
+            return true;
+        }
+        for (int i = 1; i < partitions.length; i++) {
+            Partition other = partitions[(partition.index + i) % partitions.length];
+            boolean latched;
+            try {
+                latched = other.latch.tryLock(STEAL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (latched) {
+                try {
+                    if (evictFrom(other)) {
+                        return true;
+                    }
+                } finally {
+                    other.latch.unlock();
+                }
+            }
+        }
+        // a page may have been discarded meanwhile
+        return takeFreeFrame();
+    }
+
+    private boolean takeFreeFrame() {
+        int free;
+        while ((free = freeFrames.get()) > 0) {
+            if (freeFrames.compareAndSet(free, free - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evicts one clean page of a partition whose latch the caller holds; the
+     * frame is handed over to the caller rather than returned to the free count.
+     * <p>
+     * Clean pages a transaction has locked for writing go last: the
+     * transaction may be changing one before it marks it dirty, and then
+     * has to put it back with {@link #cacheDirtied}.
+     *
+     * @return false if every page of the partition is dirty or unwritten
+     */
+    private boolean evictFrom(Partition partition) {
+        PageId victim = partition.policy.chooseVictim(pid -> {
+            Page page = partition.pages.get(pid);
+            return page == null || (page.isDirty() == null && !unwritten.contains(pid)
+                    && !lockManager.isWriteLocked(pid));
+        });
+        if (victim == null) {
+            victim = partition.policy.chooseVictim(pid -> {
+                Page page = partition.pages.get(pid);
+                return page == null || (page.isDirty() == null && !unwritten.contains(pid));
+            });
+        }
+        if (victim == null) {
+            return false;
+        }
+        partition.pages.remove(victim);
+        return true;
+    }
+
+    /**
+     * Sets the fraction of the frames the cleaner keeps clean or free.
+     * When fewer are, it writes committed pages right away instead of
+     * after the write-behind delay.
+     */
+    public void setCleanFraction(double fraction) {
+        cleanFraction = fraction;
+        wakeCleaner();
+    }
+
+    /**
+     * @return the number of pages the cleaner and synchronous cleans have
+     *         written so far
+     */
+    public long getPagesCleaned() {
+        return pagesCleaned.get();
+    }
+
+    /**
+     * @return the number of committed pages that are not written yet
+     */
+    public int getCleanerBacklog() {
+        return unwritten.size();
+    }
+
+    /**
+     * @return how many times a miss found no clean frame and had to write
+     *         committed pages itself
+     */
+    public long getSynchronousCleans() {
+        return synchronousCleans.get();
+    }
+
+    /**
+     * Writes every committed page that is not written yet, in the calling
+     * thread.
+     *
+     * @throws IOException if the cleaner failed to write pages since the
+     *         last call that reported it, or if writing them fails now
+     */
+    public void flushCommittedPages() throws IOException {
+        rethrowCleanerError();
+        cleanPages();
+    }
+
+    /**
+     * Throws the error the cleaner stopped on, once; the next commit
+     * starts the cleaner again.
+     */
+    private void rethrowCleanerError() throws IOException {
+        IOException e;
+        synchronized (cleanerLock) {
+            e = cleanerError;
+            cleanerError = null;
+        }
+        if (e != null) {
+            throw new IOException("the page cleaner could not write committed pages", e);
+        }
+    }
+
+    /**
+     * Stops the cleaner thread for good; committed pages that were not
+     * written yet stay unwritten. Used when the pool is thrown away.
+     */
+    public void stopCleaner() {
+        Thread running;
+        synchronized (cleanerLock) {
+            cleanerStopped = true;
+            running = cleaner;
+            cleanerLock.notifyAll();
+        }
+        if (running != null) {
+            // not interrupted: that would close the file channels it writes to
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void wakeCleaner() {
+        synchronized (cleanerLock) {
+            if (cleanerStopped || cleanerError != null) {
+                return;
+            }
+            if (cleaner == null) {
+                cleaner = new Thread(this::runCleaner, "BufferPool cleaner");
+                cleaner.setDaemon(true);
+                cleaner.start();
+            }
+            cleanerLock.notifyAll();
+        }
+    }
+
+    private void runCleaner() {
+        try {
+            while (true) {
+                synchronized (cleanerLock) {
+                    long idleSince = System.currentTimeMillis();
+                    while (unwritten.isEmpty() || cleanerStopped) {
+                        long idle = System.currentTimeMillis() - idleSince;
+                        if (idle >= CLEANER_IDLE_MILLIS || cleanerStopped) {
+                            cleaner = null;
+                            return;
+                        }
+                        cleanerLock.wait(CLEANER_IDLE_MILLIS - idle);
+                    }
+                    // write behind, unless clean frames are running out
+                    long deadline = System.currentTimeMillis() + WRITE_BEHIND_MILLIS;
+                    long left;
+                    while (!cleanerStopped && !needsCleaning()
+                            && (left = deadline - System.currentTimeMillis()) > 0) {
+                        cleanerLock.wait(left);
+                    }
+                }
+                try {
+                    cleanPages();
+                } catch (IOException e) {
+                    // the pages stay unwritten; rather than retry at once,
+                    // stop until a foreground call has reported the error
+                    synchronized (cleanerLock) {
+                        cleanerError = e;
+                        cleaner = null;
+                    }
+                    return;
                 }
+            }
+        } catch (InterruptedException e) {
+            synchronized (cleanerLock) {
+                cleaner = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if fewer than cleanFraction of the frames are free or
+     *         hold a page that could be evicted
+     */
+    private boolean needsCleaning() {
+        int clean = numPages - dirtied.size() - unwritten.size();
+        return clean < cleanFraction * numPages;
+    }
+
+    /**
+     * Writes the committed pages that are not written yet, in PageId order.
+     * The log is forced first, since their UPDATE records may not be
+     * durable yet. A page is share-locked while it is written, so no
+     * transaction changes it meanwhile; pages that a running transaction
+     * has locked for writing are left for a later round.
+     */
+    private void cleanPages() throws IOException {
+        if (unwritten.isEmpty()) {
+            return;
+        }
+        ArrayList<PageId> pids = new ArrayList<>(unwritten);
+        pids.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+        LogFile log = Database.getLogFile();
+        log.force();
+        // a page is share-locked while it is written
+        TransactionId cleanerTid = new TransactionId();
+        for (PageId pid : pids) {
+            if (!lockManager.tryAcquire(cleanerTid, pid, Permissions.READ_ONLY)) {
+                continue;
+            }
+            try {
+                Partition partition = partitionOf(pid);
+                partition.latch.lock();
+                long lsn = log.lastUpdateLsn();
+                try {
+                    Page page = partition.pages.get(pid);
+                    if (page == null) {
+                        unwritten.remove(pid);
+                    } else if (page.isDirty() == null && unwritten.contains(pid)) {
+                        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+                        // not before the write, so the backlog counts it until it is done
+                        unwritten.remove(pid);
+                        pagesCleaned.incrementAndGet();
+                    } else {
+                        continue;
+                    }
+                } finally {
+                    partition.latch.unlock();
+                }
+                log.pageWritten(pid, lsn);
+            } finally {
+                lockManager.release(cleanerTid, pid);
+            }
         }
     }
 }
@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * BufferRing is a small private set of frames a large sequential scan
+ * reads its pages into, as PostgreSQL's buffer access strategies do. Once
+ * the ring is full, each page the scan misses on replaces the oldest page
+ * the ring read, instead of whatever the pool's replacement policy would
+ * evict; a scan of a table much larger than the pool then costs the rest
+ * of the pool nothing. Pages the scan finds cached are used in place and
+ * do not join the ring.
+ * <p>
+ * Get one from {@link BufferPool#ringFor}, and pass it to
+ * {@link BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)}.
+ *
+ * @Threadsafe, read-ahead adds pages from its I/O threads
+ */
+public class BufferRing {
+
+    private final int capacity;
+    private final ArrayDeque<PageId> pages = new ArrayDeque<>();
+
+    /**
+     * @param capacity how many pages the ring holds before it reuses its
+     *                 oldest frame
+     */
+    public BufferRing(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return how many pages the ring holds
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the page whose frame the next page should take, or null if
+     *         the ring is not full yet
+     */
+    synchronized PageId nextVictim() {
+        return pages.size() >= capacity ? pages.poll() : null;
+    }
+
+    /**
+     * Records that a page was read into one of the ring's frames.
+     */
+    synchronized void pageLoaded(PageId pid) {
+        pages.add(pid);
+    }
+}
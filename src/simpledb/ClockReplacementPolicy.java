@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLOCK (second chance) replacement. Frames sit on a circular array with a
+ * reference bit each; a hit only sets the bit, so hits never take a lock.
+ * The clock hand clears bits as it sweeps and stops at the first frame whose
+ * bit is clear and which the filter allows to be evicted.
+ * <p>
+ * Victim selection is amortized O(1): each sweep step either clears a bit
+ * that some earlier hit set, or skips a frame the pool refused to evict.
+ * <p>
+ * The ring starts with one slot per expected frame and doubles if more pages
+ * are loaded, since a BufferPool partition may borrow frames from another.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        volatile boolean referenced = true;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private volatile Frame[] ring;
+    private final ConcurrentHashMap<PageId, Integer> slotOf;
+    private final ArrayDeque<Integer> freeSlots;
+    private int hand = 0;
+
+    /**
+     * @param numPages the number of frames this policy is expected to track
+     */
+    public ClockReplacementPolicy(int numPages) {
+        ring = new Frame[Math.max(numPages, 1)];
+        slotOf = new ConcurrentHashMap<>(ring.length);
+        freeSlots = new ArrayDeque<>(ring.length);
+        for (int i = 0; i < ring.length; i++) {
+            freeSlots.add(i);
+        }
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null) {
+            ring[slot].referenced = true;
+            return;
+        }
+        if (freeSlots.isEmpty()) {
+            int oldLength = ring.length;
+            ring = Arrays.copyOf(ring, oldLength * 2);
+            for (int i = oldLength; i < ring.length; i++) {
+                freeSlots.add(i);
+            }
+        }
+        slot = freeSlots.poll();
+        ring[slot] = new Frame(pid);
+        slotOf.put(pid, slot);
+    }
+
+    public void pageAccessed(PageId pid) {
+        // not synchronized: if the page's slot is freed or reused meanwhile,
+        // the bit goes to a stale frame or to the slot's new page
+        Integer slot = slotOf.get(pid);
+        Frame[] frames = ring;
+        if (slot != null && slot < frames.length) {
+            Frame frame = frames[slot];
+            if (frame != null) {
+                frame.referenced = true;
+            }
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot != null) {
+            ring[slot] = null;
+            freeSlots.add(slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable filter) {
+        // two full turns: the first may only clear reference bits
+        for (int step = 0; step < 2 * ring.length; step++) {
+            Frame frame = ring[hand];
+            int slot = hand;
+            hand = (hand + 1) % ring.length;
+            if (frame == null) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+            if (filter.canEvict(frame.pid)) {
+                ring[slot] = null;
+                slotOf.remove(frame.pid);
+                freeSlots.add(slot);
+                return frame.pid;
+            }
+        }
+        return null;
+    }
+}
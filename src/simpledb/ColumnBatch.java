@@ -0,0 +1,252 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * ColumnBatch holds a batch of rows column by column, for operators that
+ * work a batch at a time ({@link BatchOpIterator}). An INT_TYPE column is an
+ * int[] of the values themselves; a column of any other type is an array of
+ * Fields.
+ * <p>
+ * A batch may carry a selection vector: the rows that are still part of
+ * it, in increasing order. A filter narrows the selection instead of
+ * copying the rows that pass. Read rows through {@link #row}, which maps
+ * the i-th selected row to its index in the column arrays:
+ * <pre>
+ *     int[] values = batch.getInts(0);
+ *     for (int i = 0; i &lt; batch.numSelected(); i++) {
+ *         sum += values[batch.row(i)];
+ *     }
+ * </pre>
+ */
+public class ColumnBatch {
+
+    /**
+     * The number of rows the operators put in a batch.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private int capacity;
+    private final int[][] ints;
+    private final Field[][] fields;
+    private int size;
+    // null while every row is selected
+    private int[] selection;
+    private int selected;
+    private int[] selectionBuffer;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td       the TupleDesc of the rows
+     * @param capacity the number of rows the batch holds
+     */
+    public ColumnBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                fields[i] = new Field[capacity];
+            }
+        }
+    }
+
+    /**
+     * Creates a batch that has no columns of its own yet; see
+     * {@link #project}.
+     */
+    private ColumnBatch(TupleDesc td) {
+        this.td = td;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows in the column arrays, selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no more rows fit
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Sets the number of rows in the column arrays, after writing them
+     * directly, and selects all of them.
+     */
+    public void setSize(int size) {
+        this.size = size;
+        this.selection = null;
+    }
+
+    /**
+     * Empties the batch, for filling it again.
+     */
+    public void clear() {
+        setSize(0);
+    }
+
+    /**
+     * @return the values of an INT_TYPE column
+     */
+    public int[] getInts(int column) {
+        return ints[column];
+    }
+
+    /**
+     * @return the values of a column of another type
+     */
+    public Field[] getFields(int column) {
+        return fields[column];
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int numSelected() {
+        return selection == null ? size : selected;
+    }
+
+    /**
+     * @return the index in the column arrays of the i-th selected row
+     */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * @return a selection vector to fill and pass to {@link #select}; may
+     *         be the one in use, as long as it is filled in increasing order
+     *         from the rows it selects
+     */
+    public int[] selectionBuffer() {
+        if (selectionBuffer == null || selectionBuffer.length < Math.max(size, 1)) {
+            selectionBuffer = new int[Math.max(capacity, size)];
+        }
+        return selectionBuffer;
+    }
+
+    /**
+     * Narrows the batch to the first n rows in the given selection vector.
+     */
+    public void select(int[] selection, int n) {
+        this.selection = selection;
+        this.selected = n;
+    }
+
+    /**
+     * @return the value of a column of a row, as a Field
+     */
+    public Field getField(int row, int column) {
+        return ints[column] != null ? new IntField(ints[column][row]) : fields[column][row];
+    }
+
+    /**
+     * Sets the value of a column of a row.
+     */
+    public void setField(int row, int column, Field f) {
+        if (ints[column] != null) {
+            ints[column][row] = ((IntField) f).getValue();
+        } else {
+            fields[column][row] = f;
+        }
+    }
+
+    /**
+     * Appends a tuple as the last row.
+     */
+    public void add(Tuple t) {
+        int row = size;
+        for (int i = 0; i < ints.length; i++) {
+            setField(row, i, t.getField(i));
+        }
+        setSize(row + 1);
+    }
+
+    /**
+     * Copies a row of another batch into the columns of this one, starting
+     * at the given column.
+     */
+    public void copyRow(int row, ColumnBatch from, int fromRow, int firstColumn) {
+        for (int i = 0; i < from.ints.length; i++) {
+            if (from.ints[i] != null) {
+                ints[firstColumn + i][row] = from.ints[i][fromRow];
+            } else {
+                fields[firstColumn + i][row] = from.fields[i][fromRow];
+            }
+        }
+    }
+
+    /**
+     * @return the row as a Tuple
+     */
+    public Tuple toTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            t.setField(i, getField(row, i));
+        }
+        return t;
+    }
+
+    /**
+     * Makes room for at least the given number of rows, keeping the rows
+     * in the batch.
+     */
+    void ensureCapacity(int rows) {
+        if (rows <= capacity) {
+            return;
+        }
+        int grown = Math.max(rows, capacity * 2);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i] = Arrays.copyOf(ints[i], grown);
+            } else {
+                fields[i] = Arrays.copyOf(fields[i], grown);
+            }
+        }
+        capacity = grown;
+    }
+
+    /**
+     * Makes this batch a view of some of the columns of another one, with
+     * the same rows and selection, without copying them.
+     *
+     * @param from    the batch to take the columns from
+     * @param columns the columns of from, in the order of this batch's
+     */
+    void project(ColumnBatch from, int[] columns) {
+        for (int i = 0; i < columns.length; i++) {
+            ints[i] = from.ints[columns[i]];
+            fields[i] = from.fields[columns[i]];
+        }
+        capacity = from.capacity;
+        size = from.size;
+        selection = from.selection;
+        selected = from.selected;
+    }
+
+    /**
+     * @return a batch with the given TupleDesc for {@link #project} to fill
+     */
+    static ColumnBatch view(TupleDesc td) {
+        return new ColumnBatch(td);
+    }
+}
@@ -55,11 +55,23 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- replace the buffer pool with the given one
+     * and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool pool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
+            // the new pool does not know the old one's committed pages
+            BufferPool old = _instance.get()._bufferpool;
+            old.flushCommittedPages();
+            old.stopCleaner();
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), pool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -68,6 +80,8 @@ public class Database {
             e.printStackTrace();
         } catch (IllegalAccessException e) {
             e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
 //        _instance._bufferpool = new BufferPool(pages);
         return _instance.get()._bufferpool;
@@ -75,6 +89,9 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        // like a crash: committed pages the cleaner has not written are lost,
+        // and LogFile.recover() redoes them from the log
+        _instance.get()._bufferpool.stopCleaner();
         _instance.set(new Database());
     }
 
@@ -43,6 +43,29 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts every tuple of an iterator into the file on behalf of the
+     * specified transaction. The default implementation calls
+     * {@link #insertTuple} once per tuple; files that can fill pages in
+     * bulk override it.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add; their tupledescs must match the file's
+     * @return The pages that were modified, each listed once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public default ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> modified = new LinkedHashMap<>();
+        while (tuples.hasNext()) {
+            for (Page p : insertTuple(tid, tuples.next())) {
+                modified.put(p.getId(), p);
+            }
+        }
+        return new ArrayList<>(modified.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -59,6 +82,15 @@ public interface DbFile {
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Called by the BufferPool when an aborted transaction's changes to a
+     * page of this file have been undone.
+     *
+     * @param page the restored version of the page
+     */
+    public default void pageRolledBack(Page page) {
+    }
+
     /**
      * Returns an iterator over all the tuples stored in this DbFile. The
      * iterator must use {@link BufferPool#getPage}, rather than
@@ -0,0 +1,328 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exchange moves tuples between threads, so that parts of a plan can run
+ * in parallel. Each of its inputs runs on a thread of its own, and sends
+ * its tuples in batches to one or more outputs through
+ * {@link ExchangeQueue}s. There are three variants:
+ * <ul>
+ * <li>{@link #gather} merges the tuples of all inputs into one output;</li>
+ * <li>{@link #repartition} sends each tuple to one of N outputs, chosen by
+ * the hash of one of its fields, so that equal values meet in the same
+ * output;</li>
+ * <li>{@link #broadcast} sends every tuple to each of N outputs.</li>
+ * </ul>
+ * The inputs start when the first output is opened, and stop when the last
+ * one is closed.
+ * <p>
+ * The outputs of a repartition or broadcast are read by different threads
+ * that may wait on each other (the two sides of a partitioned join, say),
+ * so their queues are not bounded, and each output keeps the tuples it has
+ * returned, to return them again on rewind(). A gather output has one
+ * reader; its queue is bounded, and rewind() rewinds the inputs.
+ *
+ * @see ExchangePlanner
+ */
+public class Exchange {
+
+    /**
+     * The number of tuples the inputs send to an output at a time.
+     */
+    public static final int BATCH_SIZE = 256;
+    // the batches a gather output holds per input
+    private static final int GATHER_BATCHES = 4;
+
+    // runs the inputs of exchanges and the workers of parallel scans
+    static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Exchange worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private enum Route {GATHER, REPARTITION, BROADCAST}
+
+    private final OpIterator[] inputs;
+    private final Route route;
+    private final int field;
+    private final Output[] outputs;
+
+    // guarded by this
+    private Run run;
+    private boolean inputsOpen;
+    private int openOutputs;
+
+    /**
+     * The inputs running for the outputs; replaced when a gather rewinds.
+     */
+    private static class Run {
+        final ExchangeQueue[] queues;
+        final List<Future<?>> producers = new ArrayList<>();
+        volatile boolean cancelled;
+
+        Run(ExchangeQueue[] queues) {
+            this.queues = queues;
+        }
+    }
+
+    private Exchange(OpIterator[] inputs, Route route, int field, int outputs) {
+        if (inputs.length == 0) {
+            throw new IllegalArgumentException("an exchange needs at least one input");
+        }
+        this.inputs = inputs;
+        this.route = route;
+        this.field = field;
+        this.outputs = new Output[outputs];
+        for (int i = 0; i < outputs; i++) {
+            this.outputs[i] = new Output(i);
+        }
+    }
+
+    /**
+     * @return one operator returning the tuples of all inputs, in no
+     *         particular order
+     */
+    public static Operator gather(OpIterator... inputs) {
+        return new Exchange(inputs, Route.GATHER, -1, 1).outputs[0];
+    }
+
+    /**
+     * @param field      the field whose hash picks a tuple's output
+     * @param partitions the number of outputs
+     * @return operators that each return the tuples of the inputs whose
+     *         field hashes to them
+     */
+    public static Operator[] repartition(OpIterator[] inputs, int field, int partitions) {
+        return new Exchange(inputs, Route.REPARTITION, field, partitions).outputs.clone();
+    }
+
+    /**
+     * @param consumers the number of outputs
+     * @return operators that each return all tuples of the inputs
+     */
+    public static Operator[] broadcast(OpIterator[] inputs, int consumers) {
+        return new Exchange(inputs, Route.BROADCAST, -1, consumers).outputs.clone();
+    }
+
+    /**
+     * Starts the inputs if they are not running: opens them the first time,
+     * and rewinds them after that.
+     */
+    private synchronized void start() {
+        if (run != null) {
+            return;
+        }
+        ExchangeQueue[] queues = new ExchangeQueue[outputs.length];
+        int capacity = route == Route.GATHER ? inputs.length * GATHER_BATCHES : Integer.MAX_VALUE;
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ExchangeQueue(capacity, inputs.length);
+        }
+        Run r = new Run(queues);
+        boolean rewind = inputsOpen;
+        for (OpIterator input : inputs) {
+            r.producers.add(WORKERS.submit(() -> produce(input, rewind, r)));
+        }
+        inputsOpen = true;
+        run = r;
+    }
+
+    /**
+     * Stops the inputs and waits for their threads to finish.
+     */
+    private synchronized void stop() {
+        if (run == null) {
+            return;
+        }
+        run.cancelled = true;
+        for (ExchangeQueue queue : run.queues) {
+            queue.close();
+        }
+        boolean interrupted = false;
+        for (Future<?> f : run.producers) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        run = null;
+    }
+
+    private synchronized Run currentRun() {
+        return run;
+    }
+
+    private synchronized void outputOpened() {
+        openOutputs++;
+        start();
+    }
+
+    private synchronized void outputClosed() {
+        if (--openOutputs > 0) {
+            return;
+        }
+        stop();
+        if (inputsOpen) {
+            for (OpIterator input : inputs) {
+                input.close();
+            }
+            inputsOpen = false;
+        }
+    }
+
+    private synchronized void restart() {
+        stop();
+        start();
+    }
+
+    /**
+     * The work of one input's thread: reads its tuples and sends them on in
+     * batches.
+     */
+    private void produce(OpIterator input, boolean rewind, Run r) {
+        ExchangeQueue[] queues = r.queues;
+        boolean[] closed = new boolean[queues.length];
+        List<List<Tuple>> batches = new ArrayList<>(queues.length);
+        for (int i = 0; i < queues.length; i++) {
+            batches.add(new ArrayList<>(BATCH_SIZE));
+        }
+        try {
+            if (rewind) {
+                input.rewind();
+            } else {
+                input.open();
+            }
+            while (!r.cancelled && input.hasNext()) {
+                Tuple t = input.next();
+                if (route == Route.BROADCAST) {
+                    // the outputs share the batch; none of them changes it
+                    List<Tuple> batch = batches.get(0);
+                    batch.add(t);
+                    if (batch.size() == BATCH_SIZE) {
+                        for (int i = 0; i < queues.length; i++) {
+                            closed[i] = closed[i] || !queues[i].put(batch);
+                        }
+                        batches.set(0, new ArrayList<>(BATCH_SIZE));
+                    }
+                } else {
+                    int i = route == Route.GATHER ? 0 : partitionOf(t.getField(field), queues.length);
+                    List<Tuple> batch = batches.get(i);
+                    batch.add(t);
+                    if (batch.size() == BATCH_SIZE) {
+                        closed[i] = closed[i] || !queues[i].put(batch);
+                        batches.set(i, new ArrayList<>(BATCH_SIZE));
+                    }
+                }
+            }
+            for (int i = 0; i < queues.length; i++) {
+                List<Tuple> batch = batches.get(route == Route.BROADCAST ? 0 : i);
+                if (!closed[i] && !batch.isEmpty()) {
+                    queues[i].put(batch);
+                }
+                queues[i].producerDone();
+            }
+        } catch (Exception e) {
+            for (ExchangeQueue queue : queues) {
+                queue.fail(e);
+            }
+        }
+    }
+
+    private static int partitionOf(Field f, int partitions) {
+        int h = f.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), partitions);
+    }
+
+    /**
+     * One output of an exchange.
+     */
+    public class Output extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        // the tuples returned so far, for rewinding a repartition or broadcast
+        private final ArrayList<Tuple> spool = new ArrayList<>();
+        private int replay;
+        private Iterator<Tuple> batch;
+
+        Output(int index) {
+            this.index = index;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return inputs[0].getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            spool.clear();
+            replay = 0;
+            batch = null;
+            outputOpened();
+        }
+
+        public void close() {
+            super.close();
+            spool.clear();
+            batch = null;
+            outputClosed();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (route == Route.GATHER) {
+                batch = null;
+                restart();
+            } else {
+                replay = 0;
+            }
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (route != Route.GATHER && replay < spool.size()) {
+                return spool.get(replay++);
+            }
+            while (batch == null || !batch.hasNext()) {
+                Run r = currentRun();
+                if (r == null) {
+                    return null;
+                }
+                List<Tuple> next = r.queues[index].take();
+                if (next == null) {
+                    return null;
+                }
+                batch = next.iterator();
+            }
+            Tuple t = batch.next();
+            if (route != Route.GATHER) {
+                spool.add(t);
+                replay++;
+            }
+            return t;
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+/**
+ * ExchangePlanner rewrites a physical plan to run on several threads, by
+ * inserting {@link Exchange} operators into it.
+ * <p>
+ * A subtree runs partitioned if each of its operators can work on a part
+ * of its input independently of the other parts:
+ * <ul>
+ * <li>a SeqScan is split into equal ranges of pages;</li>
+ * <li>Filter and Project work on each partition of their child;</li>
+ * <li>an equality join (Join, HashEquiJoin or SortMergeJoin) repartitions
+ * both inputs on the join fields, and joins matching partitions; any other
+ * Join or SortMergeJoin joins each partition of its outer input with a
+ * broadcast of the inner one;</li>
+ * <li>an IndexNestedLoopJoin looks up the tuples of each partition of its
+ * outer input in the B+ tree on its own;</li>
+ * <li>a grouped Aggregate repartitions its input on the group field, so
+ * that each group is aggregated in one partition.</li>
+ * </ul>
+ * A partitioned subtree is gathered into one stream below the first
+ * operator that cannot be partitioned (an OrderBy, or an Aggregate without
+ * grouping), which runs on the thread reading the plan.
+ */
+public class ExchangePlanner {
+
+    private final int partitions;
+
+    private ExchangePlanner(int partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * @param plan       the plan to rewrite; its operators may be reused
+     * @param partitions the number of threads each parallel part of the
+     *                   plan runs on
+     * @return the rewritten plan
+     */
+    public static OpIterator parallelize(OpIterator plan, int partitions) {
+        if (partitions <= 1) {
+            return plan;
+        }
+        return new ExchangePlanner(partitions).rewrite(plan);
+    }
+
+    private OpIterator rewrite(OpIterator op) {
+        OpIterator[] parts = partition(op);
+        if (parts != null) {
+            return Exchange.gather(parts);
+        }
+        if (op instanceof Operator) {
+            Operator operator = (Operator) op;
+            OpIterator[] children = operator.getChildren();
+            if (children != null && children.length > 0) {
+                OpIterator[] rewritten = new OpIterator[children.length];
+                for (int i = 0; i < children.length; i++) {
+                    rewritten[i] = rewrite(children[i]);
+                }
+                operator.setChildren(rewritten);
+            }
+        }
+        return op;
+    }
+
+    /**
+     * @return the partitions of the subtree, or null if it cannot be
+     *         partitioned
+     */
+    private OpIterator[] partition(OpIterator op) {
+        if (op instanceof SeqScan) {
+            SeqScan scan = (SeqScan) op;
+            OpIterator[] parts = new OpIterator[partitions];
+            for (int i = 0; i < partitions; i++) {
+                parts[i] = scan.partition(i, partitions);
+            }
+            return parts;
+        }
+        if (op instanceof Filter) {
+            Filter filter = (Filter) op;
+            OpIterator[] parts = partition(filter.getChildren()[0]);
+            if (parts == null) {
+                return null;
+            }
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new Filter(filter.getPredicate(), parts[i]);
+            }
+            return parts;
+        }
+        if (op instanceof Project) {
+            Project project = (Project) op;
+            OpIterator[] parts = partition(project.getChildren()[0]);
+            if (parts == null) {
+                return null;
+            }
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = project.withChild(parts[i]);
+            }
+            return parts;
+        }
+        if (op instanceof HashEquiJoin) {
+            HashEquiJoin join = (HashEquiJoin) op;
+            OpIterator[] children = join.getChildren();
+            JoinPredicate p = join.getJoinPredicate();
+            OpIterator[] left = Exchange.repartition(inputs(children[0]), p.getField1(), partitions);
+            OpIterator[] right = Exchange.repartition(inputs(children[1]), p.getField2(), partitions);
+            OpIterator[] parts = new OpIterator[partitions];
+            for (int i = 0; i < partitions; i++) {
+                parts[i] = new HashEquiJoin(p, left[i], right[i], join.getMemoryBudget());
+            }
+            return parts;
+        }
+        if (op instanceof Join || op instanceof SortMergeJoin) {
+            OpIterator[] children = ((Operator) op).getChildren();
+            JoinPredicate p = op instanceof Join ? ((Join) op).getJoinPredicate()
+                    : ((SortMergeJoin) op).getJoinPredicate();
+            OpIterator[] left;
+            OpIterator[] right;
+            if (p.getOperator() == Predicate.Op.EQUALS) {
+                left = Exchange.repartition(inputs(children[0]), p.getField1(), partitions);
+                right = Exchange.repartition(inputs(children[1]), p.getField2(), partitions);
+            } else {
+                left = partition(children[0]);
+                if (left == null) {
+                    return null;
+                }
+                right = Exchange.broadcast(inputs(children[1]), partitions);
+            }
+            OpIterator[] parts = new OpIterator[partitions];
+            for (int i = 0; i < partitions; i++) {
+                parts[i] = op instanceof Join ? new Join(p, left[i], right[i], ((Join) op).getBlockPages())
+                        : new SortMergeJoin(p, left[i], right[i], ((SortMergeJoin) op).getMemoryBudget());
+            }
+            return parts;
+        }
+        if (op instanceof IndexNestedLoopJoin) {
+            IndexNestedLoopJoin join = (IndexNestedLoopJoin) op;
+            OpIterator[] parts = partition(join.getChildren()[0]);
+            if (parts == null) {
+                return null;
+            }
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = join.withChild(parts[i]);
+            }
+            return parts;
+        }
+        if (op instanceof Aggregate) {
+            Aggregate agg = (Aggregate) op;
+            if (agg.groupField() == Aggregator.NO_GROUPING) {
+                return null;
+            }
+            OpIterator[] groups = Exchange.repartition(inputs(agg.getChildren()[0]), agg.groupField(), partitions);
+            OpIterator[] parts = new OpIterator[partitions];
+            for (int i = 0; i < partitions; i++) {
+                parts[i] = new Aggregate(groups[i], agg.aggregateField(), agg.groupField(), agg.aggregateOp());
+            }
+            return parts;
+        }
+        return null;
+    }
+
+    /**
+     * @return the partitions of the subtree, or the whole subtree as one
+     *         input if it cannot be partitioned
+     */
+    private OpIterator[] inputs(OpIterator op) {
+        OpIterator[] parts = partition(op);
+        return parts != null ? parts : new OpIterator[]{rewrite(op)};
+    }
+}
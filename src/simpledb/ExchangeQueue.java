@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ExchangeQueue hands batches of tuples from the threads that produce them
+ * to the operator that consumes them. It holds a bounded number of
+ * batches: producers that get ahead of the consumer wait for it instead of
+ * filling memory.
+ * <p>
+ * The queue ends once every producer has called {@link #producerDone}. A
+ * producer that fails calls {@link #fail} instead, and the consumer gets
+ * the failure from {@link #take}. A consumer that stops early calls
+ * {@link #close}, after which {@link #put} returns false and the producers
+ * should stop.
+ *
+ * @Threadsafe
+ */
+public class ExchangeQueue {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<List<Tuple>> batches = new ArrayDeque<>();
+    private final int capacity;
+    // guarded by lock
+    private int producers;
+    private Exception failure;
+    private boolean closed;
+
+    /**
+     * @param capacity  the number of batches the queue holds
+     * @param producers the number of producers that will call
+     *                  {@link #producerDone} or {@link #fail}
+     */
+    public ExchangeQueue(int capacity, int producers) {
+        this.capacity = capacity;
+        this.producers = producers;
+    }
+
+    /**
+     * Adds a batch, waiting while the queue is full.
+     *
+     * @return false if the consumer has closed the queue
+     */
+    public boolean put(List<Tuple> batch) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (batches.size() >= capacity && !closed) {
+                notFull.await();
+            }
+            if (closed) {
+                return false;
+            }
+            batches.add(batch);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a producer has put all of its batches.
+     */
+    public void producerDone() {
+        lock.lock();
+        try {
+            producers--;
+            if (producers <= 0) {
+                notEmpty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a producer failed; the consumer gets e from
+     * {@link #take}, and the queue is closed to the other producers.
+     */
+    public void fail(Exception e) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = e;
+            }
+            closed = true;
+            batches.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the next batch, waiting while the queue is empty and a
+     * producer has not finished yet.
+     *
+     * @return the batch, or null once every producer is done
+     * @throws TransactionAbortedException if a producer's transaction was
+     *                                     aborted, or the wait interrupted
+     * @throws DbException                 if a producer failed otherwise
+     */
+    public List<Tuple> take() throws DbException, TransactionAbortedException {
+        lock.lock();
+        try {
+            while (batches.isEmpty() && producers > 0 && failure == null) {
+                notEmpty.await();
+            }
+            if (failure instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) failure;
+            } else if (failure instanceof DbException) {
+                throw (DbException) failure;
+            } else if (failure != null) {
+                DbException e = new DbException("exchange producer failed: " + failure);
+                e.initCause(failure);
+                throw e;
+            }
+            List<Tuple> batch = batches.poll();
+            if (batch != null) {
+                notFull.signal();
+            }
+            return batch;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the queued batches and turns away the producers' next ones.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            batches.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * ExternalSort returns the tuples of its child in ascending order of one
+ * field, holding no more than a memory budget of them at once. It reads
+ * the child a budget at a time, sorting each load and writing it to a
+ * {@link SpillFile} as a sorted run, then merges the runs. If the child
+ * fits in one load, nothing is written and the tuples are returned from
+ * memory. When there are more runs than {@link #MAX_MERGE}, groups of runs
+ * are first merged into longer ones.
+ * <p>
+ * Memory is counted in tuple bytes (TupleDesc.getSize()), as in
+ * HashEquiJoin.
+ */
+public class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The default memory budget, in bytes: the system property
+     * simpledb.sortMemory, or 4 MB.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = Long.getLong("simpledb.sortMemory", 4L << 20);
+    /**
+     * The most runs merged at once.
+     */
+    public static final int MAX_MERGE = 64;
+
+    private OpIterator child;
+    private final int sortField;
+    private final long memoryBudget;
+    private transient TupleComparator comparator;
+
+    private transient ArrayList<Tuple> tuples;
+    private transient int next;
+    private transient List<SpillFile> runs;
+    private transient int spilledRuns;
+    private transient Merge merge;
+
+    /**
+     * Sorts the tuples of child on a field, within the default memory
+     * budget.
+     *
+     * @param child     the tuples to sort
+     * @param sortField the field to sort on, in ascending order
+     */
+    public ExternalSort(OpIterator child, int sortField) {
+        this(child, sortField, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget the bytes of tuples to hold in memory at once
+     */
+    public ExternalSort(OpIterator child, int sortField, long memoryBudget) {
+        this.child = child;
+        this.sortField = sortField;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public int getSortField() {
+        return sortField;
+    }
+
+    /**
+     * @return the number of sorted runs written to disk, counting those
+     *         merged into longer runs; 0 if the child fit in memory
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        sort();
+        super.open();
+    }
+
+    private void sort() throws DbException, TransactionAbortedException {
+        int size = child.getTupleDesc().getSize();
+        comparator = new TupleComparator(sortField, true);
+        tuples = new ArrayList<>();
+        runs = new ArrayList<>();
+        spilledRuns = 0;
+        long memory = 0;
+        while (child.hasNext()) {
+            if (memory + size > memoryBudget && !tuples.isEmpty()) {
+                spillRun();
+                memory = 0;
+            }
+            tuples.add(child.next());
+            memory += size;
+        }
+        if (runs.isEmpty()) {
+            tuples.sort(comparator);
+            next = 0;
+            return;
+        }
+        if (!tuples.isEmpty()) {
+            spillRun();
+        }
+        while (runs.size() > MAX_MERGE) {
+            List<SpillFile> group = new ArrayList<>(runs.subList(0, MAX_MERGE));
+            runs.subList(0, MAX_MERGE).clear();
+            SpillFile merged = new SpillFile(getTupleDesc());
+            Merge m = new Merge(group);
+            Tuple t;
+            while ((t = m.next()) != null) {
+                merged.add(t);
+            }
+            m.close();
+            for (SpillFile run : group) {
+                run.delete();
+            }
+            runs.add(merged);
+            spilledRuns++;
+        }
+        merge = new Merge(runs);
+    }
+
+    private void spillRun() throws DbException {
+        tuples.sort(comparator);
+        SpillFile run = new SpillFile(getTupleDesc());
+        for (Tuple t : tuples) {
+            run.add(t);
+        }
+        runs.add(run);
+        spilledRuns++;
+        tuples.clear();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (merge != null) {
+            return merge.next();
+        }
+        return next < tuples.size() ? tuples.get(next++) : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (merge != null) {
+            merge.close();
+            merge = new Merge(runs);
+        }
+        next = 0;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+            runs = null;
+        }
+        tuples = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+
+    /**
+     * Merges sorted runs, keeping the next tuple of each in a heap.
+     */
+    private class Merge {
+        private final OpIterator[] readers;
+        private final PriorityQueue<Head> heap;
+
+        Merge(List<SpillFile> runs) throws DbException, TransactionAbortedException {
+            readers = new OpIterator[runs.size()];
+            heap = new PriorityQueue<>(Math.max(1, runs.size()));
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = runs.get(i).iterator();
+                readers[i].open();
+                advance(i);
+            }
+        }
+
+        private void advance(int run) throws DbException, TransactionAbortedException {
+            if (readers[run].hasNext()) {
+                heap.add(new Head(readers[run].next(), run));
+            }
+        }
+
+        /**
+         * @return the next tuple, or null if all runs are done
+         */
+        Tuple next() throws DbException, TransactionAbortedException {
+            Head head = heap.poll();
+            if (head == null) {
+                return null;
+            }
+            advance(head.run);
+            return head.tuple;
+        }
+
+        void close() {
+            for (OpIterator reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private class Head implements Comparable<Head> {
+        final Tuple tuple;
+        final int run;
+
+        Head(Tuple tuple, int run) {
+            this.tuple = tuple;
+            this.run = run;
+        }
+
+        public int compareTo(Head other) {
+            int c = comparator.compare(tuple, other.tuple);
+            // earlier runs first, so that equal keys keep their input order
+            return c != 0 ? c : Integer.compare(run, other.run);
+        }
+    }
+}
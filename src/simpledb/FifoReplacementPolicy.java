@@ -0,0 +1,37 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * First-in first-out replacement: evicts the evictable page that has been
+ * resident the longest and ignores hits. This is the order the BufferPool
+ * used before replacement became pluggable; it is kept as a baseline.
+ */
+public class FifoReplacementPolicy implements ReplacementPolicy {
+
+    private final LinkedHashSet<PageId> queue = new LinkedHashSet<>();
+
+    public synchronized void pageLoaded(PageId pid) {
+        queue.add(pid);
+    }
+
+    public void pageAccessed(PageId pid) {
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        queue.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Evictable filter) {
+        Iterator<PageId> it = queue.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
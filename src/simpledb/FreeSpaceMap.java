@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap remembers how many free tuple slots each page of a HeapFile
+ * has, so inserts can go straight to a page with room instead of locking
+ * and reading every page of the file.
+ * <p>
+ * The map keeps two bytes per page: the number of free slots, or
+ * {@link #UNKNOWN} for pages it has not seen yet. It is a hint: inserts
+ * check the page itself under its lock and correct the entry if it was
+ * wrong. The in-memory entries follow every insert, delete
+ * and rollback; the side file (the table's file name plus ".fsm") is updated
+ * whenever a page is written or the table grows, so it describes the pages
+ * as they are on disk.
+ * <p>
+ * The side file starts with the length of the table's file when it was last
+ * written. A map whose length does not match the table, because the table
+ * was recreated or written without it, is dropped on load and rebuilt from
+ * the pages as inserts visit them. Code that rewrites a table behind the
+ * map's back calls {@link #invalidate()}, and code that deletes a table
+ * deletes its {@link #sideFile(File)} too.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Entry of a page whose free space has not been recorded yet. */
+    public static final int UNKNOWN = 0xFFFF;
+
+    private static final int ENTRY_BYTES = 2;
+    private static final int HEADER_BYTES = 8;
+
+    private final File heapFile;
+    private final File file;
+    private final PageChannel channel;
+    private char[] counts; // guarded by this; null until loaded
+    private int cursor = 0; // guarded by this; where the last search ended
+
+    /**
+     * @param heapFile the file of the table; the map is stored next to it
+     */
+    public FreeSpaceMap(File heapFile) {
+        this.heapFile = heapFile;
+        this.file = sideFile(heapFile);
+        this.channel = new PageChannel(file);
+    }
+
+    /**
+     * @return the file the free space map of a heap file is stored in
+     */
+    public static File sideFile(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    private char[] counts(int numPages) throws IOException {
+        if (counts == null) {
+            int stored = storedPages();
+            counts = new char[Math.max(Math.max(numPages, stored), 16)];
+            Arrays.fill(counts, (char) UNKNOWN);
+            if (stored > 0) {
+                byte[] entries = new byte[stored * ENTRY_BYTES];
+                int n = channel.read(entries, HEADER_BYTES) / ENTRY_BYTES;
+                ByteBuffer.wrap(entries).asCharBuffer().get(counts, 0, n);
+            } else if (file.exists()) {
+                // drop a stale map, so a later header does not vouch for its entries
+                channel.truncate(0);
+            }
+        }
+        if (counts.length < numPages) {
+            int oldLength = counts.length;
+            counts = Arrays.copyOf(counts, Math.max(numPages, oldLength * 2));
+            Arrays.fill(counts, oldLength, counts.length, (char) UNKNOWN);
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of pages whose entries the side file holds, or 0 if
+     *         it is missing or was written for a different table file
+     */
+    private int storedPages() throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        byte[] header = new byte[HEADER_BYTES];
+        long length = heapFile.length();
+        if (channel.read(header, 0) < HEADER_BYTES || ByteBuffer.wrap(header).getLong() != length) {
+            return 0;
+        }
+        return (int) (length / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns up to max pages that may have a free slot, starting at the page
+     * where the previous search found one.
+     *
+     * @param numPages the number of pages in the file
+     */
+    public synchronized int[] candidates(int numPages, int max) throws IOException {
+        char[] c = counts(numPages);
+        int[] found = new int[Math.min(max, numPages)];
+        int n = 0;
+        int start = cursor < numPages ? cursor : 0;
+        for (int i = 0; i < numPages && n < found.length; i++) {
+            int pgNo = (start + i) % numPages;
+            if (c[pgNo] != 0) {
+                found[n++] = pgNo;
+            }
+        }
+        if (n > 0) {
+            cursor = found[0];
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    /**
+     * Records the number of free slots of a page.
+     */
+    public synchronized void update(int pgNo, int freeSlots) throws IOException {
+        counts(pgNo + 1)[pgNo] = (char) freeSlots;
+    }
+
+    /**
+     * @return the recorded free slot count of a page, or {@link #UNKNOWN}
+     */
+    public synchronized int get(int pgNo) throws IOException {
+        return counts(pgNo + 1)[pgNo];
+    }
+
+    /**
+     * Records the free slots of a page that has been written to disk, and
+     * writes its entry and the table's new length to the side file.
+     */
+    public synchronized void pageWritten(int pgNo, int freeSlots) throws IOException {
+        update(pgNo, freeSlots);
+        // entries between the end of the side file and this one are written
+        // as UNKNOWN; left as a hole they would read back as full pages
+        long end = Math.max(channel.size() - HEADER_BYTES, 0) / ENTRY_BYTES;
+        int first = (int) Math.min(pgNo, end);
+        ByteBuffer entries = ByteBuffer.allocate((pgNo - first + 1) * ENTRY_BYTES);
+        for (int i = first; i < pgNo; i++) {
+            entries.putChar((char) UNKNOWN);
+        }
+        entries.putChar((char) freeSlots);
+        channel.write(entries.array(), HEADER_BYTES + (long) first * ENTRY_BYTES);
+        writeLength();
+    }
+
+    /**
+     * Records that pages were appended to the table. Their entries stay
+     * {@link #UNKNOWN}; only the table length in the side file changes, so
+     * the map still matches the table on the next load.
+     *
+     * @param numPages the number of pages in the file after the append
+     */
+    public synchronized void pagesAppended(int numPages) throws IOException {
+        counts(numPages);
+        writeLength();
+    }
+
+    private void writeLength() throws IOException {
+        channel.write(ByteBuffer.allocate(HEADER_BYTES).putLong(heapFile.length()).array(), 0);
+    }
+
+    /**
+     * Forgets every entry, in memory and in the side file, after the table's
+     * pages were replaced without the map seeing them.
+     */
+    public synchronized void invalidate() throws IOException {
+        counts = null;
+        cursor = 0;
+        if (file.exists()) {
+            channel.truncate(0);
+        }
+    }
+}
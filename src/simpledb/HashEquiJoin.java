@@ -4,6 +4,32 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. It builds hash tables of the tuples
+ * of child1 and probes them with the tuples of child2, reading each child
+ * once, as long as child1 fits in its memory budget. When child1 does not
+ * fit, the join splits both inputs into partitions by a hash of the join
+ * field. It keeps as many build partitions in memory as fit, and writes
+ * the rest to {@link SpillFile}s, spilling the largest partition whenever
+ * the budget runs out; the probe tuples of a spilled partition are
+ * spilled too. Each pair of spilled partitions is then joined by a nested
+ * HashEquiJoin, which partitions again, with a different hash, if the
+ * partition still does not fit. So the tuples of each input are read from
+ * the child once, and at most once more from a spill file per level of
+ * partitioning.
+ * <p>
+ * Past {@link #MAX_LEVELS} levels (when one key has more tuples than fit
+ * in memory) the join falls back to loading child1 a budget at a time,
+ * rescanning child2 for each load.
+ * <p>
+ * When both join fields are INT_TYPE, each hash table is an {@link IntTable}:
+ * the build tuples go into one array, chained by key through an int[],
+ * with the head of each chain found in an {@link IntHashMap}, so there is
+ * no map entry, boxed key or list per tuple or key.
+ * <p>
+ * Memory is counted in tuple bytes (TupleDesc.getSize()) of the build
+ * tuples held in hash tables; {@link #getPeakMemory} reports the most the
+ * join and its nested joins held at once.
  */
 public class HashEquiJoin extends Operator {
 
@@ -14,6 +40,26 @@ public class HashEquiJoin extends Operator {
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /**
+     * The default memory budget, in bytes: the system property
+     * simpledb.joinMemory, or 4 MB.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = Long.getLong("simpledb.joinMemory", 4L << 20);
+    /**
+     * The number of partitions the inputs are split into when child1 does
+     * not fit in memory.
+     */
+    public static final int PARTITIONS = 16;
+    /**
+     * The levels of partitioning after which the join stops partitioning.
+     */
+    public static final int MAX_LEVELS = 3;
+
+    private final long memoryBudget;
+    // 0 for the join in the plan, 1 + the level of the join that spilled
+    // the partitions a nested join reads
+    private final int level;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -26,9 +72,25 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor with a memory budget.
+     *
+     * @param memoryBudget
+     *            the bytes of child1's tuples to hold in memory at once
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBudget) {
+        this(p, child1, child2, memoryBudget, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBudget, int level) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryBudget = memoryBudget;
+        this.level = level;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -36,6 +98,13 @@ public class HashEquiJoin extends Operator {
         return pred;
     }
 
+    /**
+     * @return the bytes of child1 tuples the join holds in memory at most
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
@@ -50,48 +119,222 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
+    // the in-memory build table of each partition, null once spilled
+    transient private JoinTable[] tables;
+    transient private long[] tableBytes;
+    transient private SpillFile[] buildSpills;
+    transient private SpillFile[] probeSpills;
+    private boolean intTables = true;
+    transient private long memory;
+    transient private long peakMemory;
+    transient private int spilledPartitions;
+    // past MAX_LEVELS: whether child1 has tuples not loaded yet
+    transient private boolean moreToLoad;
+    transient private boolean probeDone;
+    // the join of the spilled partition being read, and the next partition
+    transient private HashEquiJoin spilledJoin;
+    transient private int nextSpilled;
+
+    private int tupleBytes() {
+        return child1.getTupleDesc().getSize();
+    }
+
+    private boolean partitioned() {
+        return level < MAX_LEVELS;
+    }
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    private int partition(Field key) {
+        if (!partitioned()) {
+            return 0;
+        }
+        // murmur3's finalizer, seeded by the level, so that each level
+        // splits the keys of a partition differently
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, PARTITIONS);
+    }
+
+    /**
+     * @return true if the join uses IntTables
+     */
+    boolean intKeys() {
+        return intTables
+                && child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+    }
+
+    /**
+     * Makes the join use HashMaps of Fields even for INT_TYPE keys, for
+     * comparing the two.
+     */
+    void useFieldTables() {
+        intTables = false;
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        int n = partitioned() ? PARTITIONS : 1;
+        tables = new JoinTable[n];
+        for (int i = 0; i < n; i++) {
+            tables[i] = intKeys() ? new IntTable() : new FieldTable();
+        }
+        tableBytes = new long[n];
+        buildSpills = new SpillFile[n];
+        probeSpills = new SpillFile[n];
+        memory = 0;
+        peakMemory = 0;
+        spilledPartitions = 0;
+        spilledJoin = null;
+        nextSpilled = 0;
+        listIt = null;
+        probeDone = false;
+        if (partitioned()) {
+            build();
+        } else {
+            moreToLoad = loadChunk();
+        }
+    }
+
+    /**
+     * Reads child1 into the hash tables, spilling partitions to stay in
+     * the memory budget.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        int size = tupleBytes();
         while (child1.hasNext()) {
             t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            Field key = t1.getField(pred.getField1());
+            int p = partition(key);
+            while (tables[p] != null && memory + size > memoryBudget) {
+                spill(largestTable());
+            }
+            if (tables[p] == null) {
+                buildSpills[p].add(t1);
+                continue;
+            }
+            tables[p].add(key, t1);
+            tableBytes[p] += size;
+            memory += size;
+            peakMemory = Math.max(peakMemory, memory);
+        }
+    }
+
+    private int largestTable() {
+        int largest = -1;
+        for (int i = 0; i < tables.length; i++) {
+            if (tables[i] != null && (largest < 0 || tableBytes[i] > tableBytes[largest])) {
+                largest = i;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+        }
+        return largest;
+    }
+
+    /**
+     * Moves the build tuples of a partition from its hash table to a spill
+     * file.
+     */
+    private void spill(int p) throws DbException {
+        buildSpills[p] = new SpillFile(child1.getTupleDesc());
+        probeSpills[p] = new SpillFile(child2.getTupleDesc());
+        for (Tuple t : tables[p].tuples()) {
+            buildSpills[p].add(t);
+        }
+        tables[p] = null;
+        memory -= tableBytes[p];
+        tableBytes[p] = 0;
+        spilledPartitions++;
+    }
+
+    /**
+     * Past MAX_LEVELS: loads the next budget's worth of child1.
+     *
+     * @return true if any tuples were loaded
+     */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        int size = tupleBytes();
+        tables[0].clear();
+        memory = 0;
+        while (child1.hasNext()) {
+            t1 = child1.next();
+            tables[0].add(t1.getField(pred.getField1()), t1);
+            memory += size;
+            peakMemory = Math.max(peakMemory, memory);
+            if (memory + size > memoryBudget) {
                 return true;
+            }
         }
-        return cnt > 0;
+        return memory > 0;
+    }
 
+    /**
+     * @return the most bytes of build tuples the join held in memory at
+     *         once, counting the nested joins of spilled partitions
+     */
+    public long getPeakMemory() {
+        return peakMemory;
+    }
+
+    /**
+     * @return the number of partitions the join spilled to disk, not
+     *         counting those of nested joins
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        start();
         super.open();
     }
 
+    private void release() {
+        if (spilledJoin != null) {
+            spilledJoin.close();
+            spilledJoin = null;
+        }
+        if (buildSpills != null) {
+            for (int i = 0; i < buildSpills.length; i++) {
+                if (buildSpills[i] != null) {
+                    buildSpills[i].delete();
+                    probeSpills[i].delete();
+                }
+            }
+        }
+        tables = null;
+        buildSpills = null;
+        probeSpills = null;
+        listIt = null;
+    }
+
     public void close() {
         super.close();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        release();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        if (spilledPartitions == 0 && partitioned()) {
+            // the whole of child1 is still in the hash tables
+            child2.rewind();
+            listIt = null;
+            probeDone = false;
+            return;
+        }
+        long peak = peakMemory;
+        release();
         child1.rewind();
         child2.rewind();
+        start();
+        peakMemory = Math.max(peak, peakMemory);
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -131,32 +374,176 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            listIt = null;
+
+            if (!probeDone) {
+                // loop around child2
+                if (child2.hasNext()) {
+                    t2 = child2.next();
+                    Field key = t2.getField(pred.getField2());
+                    int p = partition(key);
+                    if (tables[p] == null) {
+                        probeSpills[p].add(t2);
+                        continue;
+                    }
+                    // if match, create a combined tuple and fill it with the
+                    // values from both tuples
+                    listIt = tables[p].get(key);
+                    continue;
+                }
+                // child2 is done: advance child1
+                if (!partitioned() && moreToLoad) {
+                    moreToLoad = loadChunk();
+                    if (moreToLoad) {
+                        child2.rewind();
+                        continue;
+                    }
+                }
+                probeDone = true;
+            }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+            if (spilledJoin != null) {
+                if (spilledJoin.hasNext()) {
+                    return spilledJoin.next();
+                }
+                peakMemory = Math.max(peakMemory, spilledJoin.getPeakMemory());
+                spilledJoin.close();
+                spilledJoin = null;
+            }
+            if (!joinNextSpilled()) {
+                return null;
+            }
+        }
+    }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+    /**
+     * Starts the nested join of the next spilled partition, after freeing
+     * the hash tables of the partitions kept in memory.
+     *
+     * @return false if there are no spilled partitions left
+     */
+    private boolean joinNextSpilled() throws DbException, TransactionAbortedException {
+        if (spilledPartitions > 0 && memory > 0) {
+            for (int i = 0; i < tables.length; i++) {
+                if (tables[i] != null) {
+                    tables[i].clear();
+                }
+            }
+            memory = 0;
+        }
+        while (nextSpilled < buildSpills.length) {
+            int p = nextSpilled++;
+            if (buildSpills[p] == null || buildSpills[p].size() == 0 || probeSpills[p].size() == 0) {
                 continue;
-            listIt = l.iterator();
+            }
+            spilledJoin = new HashEquiJoin(pred, buildSpills[p].iterator(), probeSpills[p].iterator(),
+                    memoryBudget, level + 1);
+            spilledJoin.open();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The build tuples of one partition, by join key.
+     */
+    private interface JoinTable {
+        void add(Field key, Tuple t);
 
-            return processList();
+        /**
+         * @return the tuples with the key, or null if there are none; the
+         *         iterator may be reused by the next call
+         */
+        Iterator<Tuple> get(Field key);
 
+        Iterable<Tuple> tuples();
+
+        void clear();
+    }
+
+    private static class FieldTable implements JoinTable {
+        private final HashMap<Field, ArrayList<Tuple>> map = new HashMap<>();
+
+        public void add(Field key, Tuple t) {
+            map.computeIfAbsent(key, k -> new ArrayList<>()).add(t);
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        public Iterator<Tuple> get(Field key) {
+            ArrayList<Tuple> list = map.get(key);
+            return list == null ? null : list.iterator();
+        }
+
+        public Iterable<Tuple> tuples() {
+            ArrayList<Tuple> all = new ArrayList<>();
+            for (ArrayList<Tuple> list : map.values()) {
+                all.addAll(list);
+            }
+            return all;
         }
 
-        return null;
+        public void clear() {
+            map.clear();
+        }
+    }
+
+    /**
+     * A JoinTable for INT_TYPE keys. The tuples are kept in the order they
+     * were added in one array; next[row] is the row added before it with
+     * the same key, or -1, and heads maps each key to its last row.
+     */
+    static class IntTable implements JoinTable {
+        private final IntHashMap heads = new IntHashMap(1024);
+        private Tuple[] rows = new Tuple[1024];
+        private int[] next = new int[1024];
+        private int size;
+        private final Chain chain = new Chain();
+
+        public void add(Field key, Tuple t) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                next = Arrays.copyOf(next, size * 2);
+            }
+            rows[size] = t;
+            next[size] = heads.put(((IntField) key).getValue(), size);
+            size++;
+        }
+
+        public Iterator<Tuple> get(Field key) {
+            int head = heads.get(((IntField) key).getValue());
+            if (head < 0) {
+                return null;
+            }
+            chain.row = head;
+            return chain;
+        }
+
+        public Iterable<Tuple> tuples() {
+            return Arrays.asList(rows).subList(0, size);
+        }
+
+        public void clear() {
+            heads.clear();
+            Arrays.fill(rows, 0, size, null);
+            size = 0;
+        }
+
+        private class Chain implements Iterator<Tuple> {
+            int row;
+
+            public boolean hasNext() {
+                return row >= 0;
+            }
+
+            public Tuple next() {
+                Tuple t = rows[row];
+                row = next[row];
+                return t;
+            }
+        }
     }
 
     @Override
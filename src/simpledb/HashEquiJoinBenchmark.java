@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Times the same in-memory HashEquiJoin with IntTables and with HashMaps
+ * of IntFields and prints the best of five runs of each. Not part of the
+ * unit tests; run it with
+ * <pre>
+ * java simpledb.HashEquiJoinBenchmark [rows per side]
+ * </pre>
+ */
+public class HashEquiJoinBenchmark {
+
+    private static TupleIterator randomTuples(int rows, int keys, Random random) {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> tuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(random.nextInt(keys)));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+    private static long time(HashEquiJoin join) throws Exception {
+        long start = System.nanoTime();
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+        }
+        join.close();
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+        Random random = new Random(22);
+        TupleIterator build = randomTuples(rows, rows, random);
+        TupleIterator probe = randomTuples(rows, rows, random);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        long ints = Long.MAX_VALUE;
+        long fields = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            HashEquiJoin fieldJoin = new HashEquiJoin(p, build, probe, Long.MAX_VALUE);
+            fieldJoin.useFieldTables();
+            fields = Math.min(fields, time(fieldJoin));
+            ints = Math.min(ints, time(new HashEquiJoin(p, build, probe, Long.MAX_VALUE)));
+        }
+        System.out.printf("%d x %d rows: HashMap<Field> %.1f ms, IntTable %.1f ms (%.2fx)%n",
+                rows, rows, fields / 1e6, ints / 1e6, (double) fields / ints);
+    }
+}
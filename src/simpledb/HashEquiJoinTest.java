@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  /**
+   * Joins that must match: duplicate keys on both sides, and keys with no
+   * match on either side.
+   */
+  @Test public void intKeys() throws Exception {
+    OpIterator scan1 = TestUtil.createTupleList(2,
+        new int[] { 1, 10,
+                    2, 20,
+                    1, 11,
+                    4, 40,
+                    1, 12 });
+    OpIterator scan2 = TestUtil.createTupleList(2,
+        new int[] { 1, 100,
+                    3, 300,
+                    1, 101,
+                    2, 200 });
+    OpIterator expected = TestUtil.createTupleList(4,
+        new int[] { 1, 10, 1, 100,
+                    1, 11, 1, 100,
+                    1, 12, 1, 100,
+                    1, 10, 1, 101,
+                    1, 11, 1, 101,
+                    1, 12, 1, 101,
+                    2, 20, 2, 200 });
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2);
+    assertTrue(join.intKeys());
+    join.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, join);
+    join.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, join);
+    join.close();
+  }
+
+  @Test public void stringKeysUseFieldTables() throws Exception {
+    OpIterator scan1 = TestUtil.createTupleList(2, new Object[] { 1, "a", 2, "b" });
+    OpIterator scan2 = TestUtil.createTupleList(2, new Object[] { 3, "b" });
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 1), scan1, scan2);
+    assertFalse(join.intKeys());
+    join.open();
+    assertTrue(join.hasNext());
+    Tuple t = join.next();
+    assertEquals(new IntField(2), t.getField(0));
+    assertEquals(new IntField(3), t.getField(2));
+    assertFalse(join.hasNext());
+    join.close();
+  }
+
+  private static TupleIterator randomTuples(int rows, int keys, Random random) {
+    TupleDesc td = Utility.getTupleDesc(2);
+    ArrayList<Tuple> tuples = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(random.nextInt(keys)));
+      t.setField(1, new IntField(i));
+      tuples.add(t);
+    }
+    return new TupleIterator(td, tuples);
+  }
+
+  private static ArrayList<String> run(HashEquiJoin join) throws Exception {
+    ArrayList<String> rows = new ArrayList<>();
+    join.open();
+    while (join.hasNext()) {
+      rows.add(join.next().toString());
+    }
+    join.close();
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * The same in-memory join with IntTables and with HashMaps of IntFields.
+   */
+  @Test public void intTablesMatchFieldTables() throws Exception {
+    Random random = new Random(22);
+    int rows = 5000;
+    TupleIterator build = randomTuples(rows, rows, random);
+    TupleIterator probe = randomTuples(rows, rows, random);
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin fieldJoin = new HashEquiJoin(p, build, probe, Long.MAX_VALUE);
+    fieldJoin.useFieldTables();
+    ArrayList<String> expected = run(fieldJoin);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, run(new HashEquiJoin(p, build, probe, Long.MAX_VALUE)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
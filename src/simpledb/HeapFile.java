@@ -1,10 +1,11 @@
 package simpledb;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -15,13 +16,53 @@ import java.util.NoSuchElementException;
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
  *
+ * <p>
+ * A HeapFile opened in memory-mapped mode reads its pages straight out of a
+ * read-only mapping of the file instead of copying them into a byte array
+ * with a read call. This suits large tables that are mostly scanned. Writes
+ * still go through the BufferPool and the file channel, and the mapping is
+ * extended when the file grows.
+ *
+ * <p>
+ * Inserts find a page with a free slot through the file's
+ * {@link FreeSpaceMap} rather than by locking and reading every page.
+ *
  * @author Sam Madden
  * @see simpledb.HeapPage#HeapPage
  */
 public class HeapFile implements DbFile {
 
+    // a MappedByteBuffer cannot exceed 2 GB, so larger files are mapped in chunks
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+    // how many pages with free space an insert looks up in one go
+    private static final int INSERT_CANDIDATES = 8;
+    // the most pages a bulk insert adds to the file with one write
+    private static final int MAX_EXTENT_PAGES = 64;
+
     private File f;
     private TupleDesc td;
+    private final PageChannel channel;
+    private final boolean memoryMapped;
+    private volatile Mapping mapping;
+    private final FreeSpaceMap freeSpace;
+
+    /**
+     * The mapped pages of the file: chunk i holds pages
+     * [i * chunkPages, (i + 1) * chunkPages), the last chunk maybe fewer.
+     */
+    private static class Mapping {
+        final int pageSize;
+        final int chunkPages;
+        final int numPages;
+        final ByteBuffer[] chunks;
+
+        Mapping(int pageSize, int chunkPages, int numPages, ByteBuffer[] chunks) {
+            this.pageSize = pageSize;
+            this.chunkPages = chunkPages;
+            this.numPages = numPages;
+            this.chunks = chunks;
+        }
+    }
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -30,8 +71,37 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f            the file that stores the on-disk backing store for
+     *                     this heap file.
+     * @param memoryMapped whether pages are read from a memory mapping of
+     *                     the file rather than with read calls.
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         this.f = f;
         this.td = td;
+        this.channel = new PageChannel(f);
+        this.memoryMapped = memoryMapped;
+        this.freeSpace = new FreeSpaceMap(f);
+    }
+
+    /**
+     * @return true if pages are read from a memory mapping of the file
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return the map of the free slots of this file's pages
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpace;
     }
 
     /**
@@ -71,46 +141,68 @@ public class HeapFile implements DbFile {
             throw new IllegalStateException();
         }
         int pageSize = BufferPool.getPageSize();
-        byte[] data = new byte[pageSize];
-        RandomAccessFile randomAccessFile = null;
         try {
-            randomAccessFile = new RandomAccessFile(f, "r");
-            int skip = pid.getPageNumber() * pageSize;
-            randomAccessFile.seek(skip);
-            randomAccessFile.read(data, 0, pageSize);
+            if (memoryMapped) {
+                return new HeapPage((HeapPageId) pid, mappedPage(pid.getPageNumber(), pageSize));
+            }
+            byte[] data = new byte[pageSize];
+            channel.read(data, (long) pid.getPageNumber() * pageSize);
             return new HeapPage((HeapPageId) pid, data);
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (randomAccessFile != null) randomAccessFile.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ByteBuffer mappedPage(int pgNo, int pageSize) throws IOException {
+        Mapping m = mapping;
+        if (m == null || m.pageSize != pageSize || pgNo >= m.numPages) {
+            m = remap(pageSize);
+        }
+        int offset = (pgNo % m.chunkPages) * pageSize;
+        return m.chunks[pgNo / m.chunkPages].duplicate()
+                .position(offset).limit(offset + pageSize).slice();
+    }
+
+    /**
+     * Maps the whole file as it is now. Chunks that were already mapped in
+     * full are kept; the last, partial one is mapped again.
+     */
+    private synchronized Mapping remap(int pageSize) throws IOException {
+        Mapping old = mapping;
+        int pages = numPages();
+        if (old != null && old.pageSize == pageSize && old.numPages >= pages) {
+            return old;
+        }
+        int chunkPages = (int) (MAX_CHUNK_BYTES / pageSize);
+        ByteBuffer[] chunks = new ByteBuffer[(pages + chunkPages - 1) / chunkPages];
+        for (int i = 0; i < chunks.length; i++) {
+            int first = i * chunkPages;
+            int count = Math.min(chunkPages, pages - first);
+            if (old != null && old.pageSize == pageSize && first + count <= old.numPages
+                    && i < old.chunks.length && old.chunks[i].capacity() == count * pageSize) {
+                chunks[i] = old.chunks[i];
+            } else {
+                chunks[i] = channel.map((long) first * pageSize, (long) count * pageSize);
             }
         }
-        throw new IllegalStateException("readPage() in HeapFile unreachable");//Exception
+        mapping = new Mapping(pageSize, chunkPages, pages, chunks);
+        return mapping;
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        int pageNumber = ((HeapPage) page).getId().getPageNumber();
-        byte[] pageData = page.getPageData();
+        int pageNumber = page.getId().getPageNumber();
         //page.gatPageData() is used to serialize
-        RandomAccessFile randomAccessFile = null;
+        channel.writePage(page, (long) pageNumber * BufferPool.getPageSize());
+        freeSpace.pageWritten(pageNumber, ((HeapPage) page).getNumEmptySlots());
+    }
+
+    // see DbFile.java for javadocs
+    public void pageRolledBack(Page page) {
         try {
-            randomAccessFile = new RandomAccessFile(f, "rw");
-            randomAccessFile.seek(pageNumber * BufferPool.getPageSize());
-            randomAccessFile.write(pageData, 0, pageData.length);
+            freeSpace.update(page.getId().getPageNumber(), ((HeapPage) page).getNumEmptySlots());
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (randomAccessFile != null) {
-                    randomAccessFile.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            throw new RuntimeException(e);
         }
     }
 
@@ -118,7 +210,7 @@ public class HeapFile implements DbFile {
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        return (int) f.length() / BufferPool.getPageSize();
+        return (int) (f.length() / BufferPool.getPageSize());
     }
 
 
@@ -126,47 +218,90 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException,IOException, TransactionAbortedException {
         ArrayList<Page> dirtyPage = new ArrayList<>();
-        for (int i = 0; i < numPages(); i++) {
-            Page page = Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
-            if (((HeapPage) page).getNumEmptySlots() > 0) {
-                ((HeapPage) page).insertTuple(t);
-                //这个返回值到底是什么意思呢？被修改的页？
-                dirtyPage.add(page);
-                return dirtyPage;
-            }
+        HeapPage page = pageWithRoom(tid);
+        if (page != null) {
+            page.insertTuple(t);
+            freeSpace.update(page.getId().getPageNumber(), page.getNumEmptySlots());
+            //这个返回值到底是什么意思呢？被修改的页？
+            dirtyPage.add(page);
+            return dirtyPage;
         }
         //如果当前File所Page都满了，就要添加页
         {
-            PageId heapPageId = new HeapPageId(getId(), numPages());
-            Page newHeapPage = null;
-            FileOutputStream fileOutputStream = null;
-            try {
-                newHeapPage = new HeapPage((HeapPageId) heapPageId, HeapPage.createEmptyPageData());
-                fileOutputStream = new FileOutputStream(f, true);
-                fileOutputStream.write(newHeapPage.getPageData(), 0, BufferPool.getPageSize());
-                newHeapPage = Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
-                ((HeapPage) newHeapPage).insertTuple(t);
-                dirtyPage.add(newHeapPage);
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    if (fileOutputStream != null) {
-                        fileOutputStream.close();
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
+            long offset = channel.append(HeapPage.createEmptyPageData());
+            freeSpace.pagesAppended(numPages());
+            PageId heapPageId = new HeapPageId(getId(), (int) (offset / BufferPool.getPageSize()));
+            Page newHeapPage = Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
+            ((HeapPage) newHeapPage).insertTuple(t);
+            freeSpace.update(heapPageId.getPageNumber(), ((HeapPage) newHeapPage).getNumEmptySlots());
+            dirtyPage.add(newHeapPage);
+            return dirtyPage;
+        }
+    }
+
+    /**
+     * Fills pages with free slots one after the other, each with a single
+     * pass over its header, and then grows the file by up to
+     * {@link #MAX_EXTENT_PAGES} empty pages per write.
+     *
+     * @see DbFile#insertTuples
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> dirtyPages = new ArrayList<>();
+        int extent = 1;
+        while (tuples.hasNext()) {
+            HeapPage page = pageWithRoom(tid);
+            if (page == null) {
+                // the new pages are UNKNOWN to the free space map, so the next
+                // round finds them; double the extent while the load goes on
+                channel.append(new byte[extent * BufferPool.getPageSize()]);
+                freeSpace.pagesAppended(numPages());
+                extent = Math.min(extent * 2, MAX_EXTENT_PAGES);
+                continue;
+            }
+            // a page is left with room only when the tuples run out, so no
+            // page is filled twice
+            page.insertTuples(tuples);
+            freeSpace.update(page.getId().getPageNumber(), page.getNumEmptySlots());
+            dirtyPages.add(page);
+        }
+        return dirtyPages;
+    }
+
+    /**
+     * Finds a page with a free slot through the free space map and locks it
+     * for writing.
+     *
+     * @return the page, or null if no page of the file has room
+     */
+    private HeapPage pageWithRoom(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        int[] candidates;
+        while ((candidates = orderCandidates(tid, freeSpace.candidates(numPages(), INSERT_CANDIDATES))).length > 0) {
+            for (int pgNo : candidates) {
+                HeapPageId pid = new HeapPageId(getId(), pgNo);
+                boolean wasLocked = bufferPool.holdsLock(tid, pid);
+                HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.getNumEmptySlots() > 0) {
+                    return page;
+                }
+                freeSpace.update(pgNo, 0);
+                if (!wasLocked) {
+                    // the page was only looked at, so other inserts need not wait for it
+                    bufferPool.releasePage(tid, pid);
                 }
             }
-            return dirtyPage;
         }
+        return null;
     }
 
     // Removes the specified tuple from the file on behalf of the specified transaction.
     // This method will acquire a lock on the affected pages of the file, and may block
     // until the lock can be acquired.
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
-            TransactionAbortedException {
+            IOException, TransactionAbortedException {
         ArrayList<Page> dirtyPage = new ArrayList<>();
         RecordId recordId = t.getRecordId();
         PageId pageId = recordId.getPageId();
@@ -180,39 +315,120 @@ public class HeapFile implements DbFile {
         }
         Page page = Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pageNumber), Permissions.READ_WRITE);
         ((HeapPage) page).deleteTuple(t);
+        freeSpace.update(pageNumber, ((HeapPage) page).getNumEmptySlots());
+        dirtyPage.add(page);
         return dirtyPage;
     }
 
+    /**
+     * Puts the pages tid has locked already first, then the pages nobody
+     * has locked, so an insert waits for another transaction only when no
+     * other page has room.
+     */
+    private int[] orderCandidates(TransactionId tid, int[] pages) {
+        LockManager locks = Database.getBufferPool().getLockManager();
+        int[] rank = new int[pages.length];
+        for (int i = 0; i < pages.length; i++) {
+            PageId pid = new HeapPageId(getId(), pages[i]);
+            rank[i] = locks.holdsLock(tid, pid) ? 0 : locks.isLocked(pid) ? 2 : 1;
+        }
+        Integer[] order = new Integer[pages.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(rank[a], rank[b]));
+        int[] ordered = new int[pages.length];
+        for (int i = 0; i < ordered.length; i++) {
+            ordered[i] = pages[order[i]];
+        }
+        return ordered;
+    }
+
     // see DbFile.java for javadocs
     public AbstractDbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, null, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns an iterator that reads the pages it misses on into a ring
+     * of frames.
+     *
+     * @param ring the ring, or null to use the whole buffer pool
+     * @see BufferPool#ringFor
+     */
+    public AbstractDbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return new HeapFileIterator(tid, ring, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns an iterator over the tuples on the pages firstPage (inclusive)
+     * to endPage (exclusive) of the file, for scanning parts of a file in
+     * parallel. Pages past the end of the file are skipped.
+     *
+     * @param ring the ring, or null to use the whole buffer pool
+     * @see ParallelSeqScan
+     */
+    public AbstractDbFileIterator iterator(TransactionId tid, BufferRing ring, int firstPage, int endPage) {
+        return new HeapFileIterator(tid, ring, firstPage, endPage);
+    }
+
+    /**
+     * @return the page after page in the file, or null if page is the last
+     */
+    PageId nextPage(Page page) {
+        int pageNum = page.getId().getPageNumber() + 1;
+        return pageNum < numPages() ? new HeapPageId(getId(), pageNum) : null;
     }
 
     private class HeapFileIterator extends AbstractDbFileIterator {
         TransactionId tid;
         Iterator<Tuple> currentIterator;
         int pageNum;
+        BufferRing ring;
+        ReadAhead readAhead;
+        final int firstPage;
+        final int endPage;
 
-        HeapFileIterator(TransactionId tid) {
+        HeapFileIterator(TransactionId tid, BufferRing ring, int firstPage, int endPage) {
             this.tid = tid;
+            this.ring = ring;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             if (currentIterator == null) {
-                this.pageNum = 0;
-                currentIterator = ((HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(f.getAbsoluteFile().hashCode(), pageNum), Permissions.READ_ONLY)).iterator();
+                this.pageNum = firstPage;
+                readAhead = new ReadAhead(tid, this::nextPage, ring);
+                if ((firstPage > 0 || endPage < Integer.MAX_VALUE) && pageNum >= lastPage()) {
+                    currentIterator = Collections.emptyIterator();
+                    return;
+                }
+                currentIterator = ((HeapPage) readAhead.getPage(new HeapPageId(f.getAbsoluteFile().hashCode(), pageNum))).iterator();
             }
         }
 
+        /**
+         * @return the page after the range, or the end of the file
+         */
+        private int lastPage() {
+            return Math.min(endPage, numPages());
+        }
+
+        private PageId nextPage(Page page) {
+            PageId next = HeapFile.this.nextPage(page);
+            return next != null && next.getPageNumber() < endPage ? next : null;
+        }
+
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
             while (currentIterator != null) {
                 if (currentIterator.hasNext()) return true;
-                if (pageNum >= numPages() - 1) {
+                if (pageNum >= lastPage() - 1) {
                     return false;
                 }
-                currentIterator = ((HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(f.getAbsoluteFile().hashCode(), ++pageNum), Permissions.READ_ONLY)).iterator();
+                currentIterator = ((HeapPage) readAhead.getPage(new HeapPageId(f.getAbsoluteFile().hashCode(), ++pageNum))).iterator();
             }
             return false;
         }
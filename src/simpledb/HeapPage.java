@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
@@ -8,6 +9,12 @@ import java.util.NoSuchElementException;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and decodes tuples lazily: only
+ * the header is parsed up front, a Tuple is built the first time its slot is
+ * returned by the iterator, and {@link #getField} decodes a single field
+ * without building a Tuple at all. Slots that were never decoded are copied
+ * back verbatim by {@link #getPageData}.
  *
  * @see HeapFile
  * @see BufferPool
@@ -17,10 +24,20 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
+    // decoded or inserted tuples; null for slots that were not decoded yet
     final Tuple tuples[];
     final int numSlots;
+    // the page as read from disk, starting at index 0
+    final ByteBuffer data;
+    // type and offset of every field within a tuple slot
+    private final Type[] fieldTypes;
+    private final int[] fieldOffsets;
+    private final int tupleSize;
 
     byte[] oldData;
+    // the buffer this page was parsed from, standing in for oldData until
+    // setBeforeImage is called; see HeapPage(HeapPageId, ByteBuffer)
+    ByteBuffer oldImage;
     private final Byte oldDataLock = (byte) 0;
 
     /**
@@ -41,27 +58,41 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the page-sized region of a buffer that starts at
+     * its current position, e.g. a slice of a memory-mapped HeapFile. The
+     * format is the same as for {@link #HeapPage(HeapPageId, byte[])}.
+     * <p>
+     * Neither constructor copies the bytes: tuples are decoded from them on
+     * demand and they serve as the before image of the page. Their contents
+     * must not change until the page is written back, which NO STEAL
+     * guarantees for the pages of a HeapFile.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data.slice();
 
-        // allocate and read the header slots of this page
+        // read the header slots of this page; tuples are decoded on demand
         header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
+        this.data.get(0, header);
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+
+        fieldTypes = new Type[td.numFields()];
+        fieldOffsets = new int[td.numFields()];
+        int offset = 0;
+        for (int j = 0; j < fieldTypes.length; j++) {
+            fieldTypes[j] = td.getFieldType(j);
+            fieldOffsets[j] = offset;
+            offset += fieldTypes[j].getLen();
         }
-        dis.close();
+        tupleSize = offset;
 
-        setBeforeImage();
+        oldImage = this.data;
     }
 
     /**
@@ -89,8 +120,13 @@ public class HeapPage implements Page {
     public HeapPage getBeforeImage() {
         try {
             byte[] oldDataRef = null;
+            ByteBuffer oldImageRef = null;
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
+                oldImageRef = oldImage;
+            }
+            if (oldDataRef == null) {
+                return new HeapPage(pid, oldImageRef);
             }
             return new HeapPage(pid, oldDataRef);//有线程安全问题吧？
         } catch (IOException e) {
@@ -102,7 +138,10 @@ public class HeapPage implements Page {
     }
 
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+            oldImage = null;
+        }
         dTid = null;
     }
 
@@ -113,38 +152,57 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    private int slotOffset(int slotId) {
+        return header.length + slotId * tupleSize;
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a used slot, decoding it from the page data if this
+     * has not been done yet.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    private Tuple tupleAt(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slotId));
+            int offset = slotOffset(slotId);
+            for (int j = 0; j < fieldOffsets.length; j++) {
+                t.setField(j, fieldTypes[j].parse(data, offset + fieldOffsets[j]));
             }
-            return null;
+            // racing readers may both decode a slot; either copy is fine
+            tuples[slotId] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Returns one field of the tuple in a used slot without building the
+     * whole tuple, e.g. to evaluate a predicate before materializing a row.
+     *
+     * @param slotId the slot of the tuple; must be in use
+     * @param field  the index of the field in the TupleDesc of the table
+     */
+    public Field getField(int slotId, int field) {
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t.getField(field);
         }
+        return fieldTypes[field].parse(data, slotOffset(slotId) + fieldOffsets[field]);
+    }
 
-        return t;
+    /**
+     * Returns an INT_TYPE field of the tuple in a used slot as an int,
+     * without allocating a Field for it, for scans that work on columns.
+     *
+     * @param slotId the slot of the tuple; must be in use
+     * @param field  the index of the field in the TupleDesc of the table
+     */
+    public int getInt(int slotId, int field) {
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return ((IntField) t.getField(field)).getValue();
+        }
+        return data.getInt(slotOffset(slotId) + fieldOffsets[field]);
     }
 
     /**
@@ -159,64 +217,50 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        return PageBuffers.toArray(this, BufferPool.getPageSize());
+    }
+
+    /**
+     * Writes the bytes of {@link #getPageData()} into buf without allocating:
+     * runs of empty slots and of slots that were never decoded are written
+     * with one bulk put each.
+     */
+    public void getPageData(ByteBuffer buf) {
+        int start = buf.position();
 
         // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        buf.put(header);
 
         // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
+        int i = 0;
+        while (i < numSlots) {
+            int run = i + 1;
             if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
+                // empty slots
+                while (run < numSlots && !isSlotUsed(run)) {
+                    run++;
                 }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
+                PageBuffers.putZeroes(buf, (run - i) * tupleSize);
+            } else if (tuples[i] == null) {
+                // slots that were never decoded: their bytes are unchanged
+                while (run < numSlots && isSlotUsed(run) && tuples[run] == null) {
+                    run++;
+                }
+                int length = (run - i) * tupleSize;
+                buf.put(buf.position(), data, slotOffset(i), length);
+                buf.position(buf.position() + length);
+            } else {
+                // non-empty slot
+                Tuple t = tuples[i];
+                for (int j = 0; j < fieldTypes.length; j++) {
+                    t.getField(j).serialize(buf);
                 }
             }
+            i = run;
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        PageBuffers.putZeroes(buf, start + BufferPool.getPageSize() - buf.position());
     }
 
     /**
@@ -241,18 +285,15 @@ public class HeapPage implements Page {
      *                     already empty.
      */
     public void deleteTuple(Tuple t) throws DbException {
-        boolean exist = false;
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i)) {
-                if (tuples[i].equals(t)) {
-                    markSlotUsed(i, false);
-                    exist = true;
-                }
-            }
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("No find tuple");
         }
-        if (!exist) {
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot) || !tupleAt(slot).equals(t)) {
             throw new DbException("No find tuple");
         }
+        markSlotUsed(slot, false);
     }
 
     /**
@@ -282,6 +323,32 @@ public class HeapPage implements Page {
         throw new DbException("page is full(no empty slots)");
     }
 
+    /**
+     * Adds tuples from an iterator to the empty slots of this page, in slot
+     * order, until the page is full or the iterator is exhausted. This takes
+     * one pass over the header however many tuples are added.
+     *
+     * @return the number of tuples added
+     * @throws DbException if a tuple has the wrong tupledesc; the tuples
+     *                     before it have been added
+     */
+    public int insertTuples(Iterator<Tuple> it) throws DbException {
+        int added = 0;
+        for (int i = 0; i < numSlots && it.hasNext(); i++) {
+            if (!isSlotUsed(i)) {
+                Tuple t = it.next();
+                if (!td.equals(t.getTupleDesc())) {
+                    throw new DbException("tupledesc is mismatch");
+                }
+                tuples[i] = t;
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                added++;
+            }
+        }
+        return added;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -304,6 +371,13 @@ public class HeapPage implements Page {
         return dTid;
     }
 
+    /**
+     * Returns the number of tuple slots on this page, used or not.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -339,22 +413,30 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         return new Iterator<Tuple>() {
+            // the slot of the last tuple returned
             private int cursor = -1;
+            // the next used slot after cursor, or -1 if not looked up yet
+            private int nextSlot = -1;
 
             @Override
             public boolean hasNext() {
-                while (cursor + 1 < numSlots) {
-                    cursor++;
-                    if (isSlotUsed(cursor)) {
-                        return true;
+                if (nextSlot < 0) {
+                    nextSlot = cursor + 1;
+                    while (nextSlot < numSlots && !isSlotUsed(nextSlot)) {
+                        nextSlot++;
                     }
                 }
-                return false;
+                return nextSlot < numSlots;
             }
 
             @Override
             public Tuple next() {
-                return tuples[cursor];
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                cursor = nextSlot;
+                nextSlot = -1;
+                return tupleAt(cursor);
             }
 
 
@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -85,6 +89,69 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.insertTuples()
+     */
+    @Test public void insertTuples() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+
+        ArrayList<Tuple> some = new ArrayList<Tuple>();
+        for (int i = 0; i < 10; ++i) {
+            some.add(Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(10, page.insertTuples(some.iterator()));
+        assertEquals(free - 10, page.getNumEmptySlots());
+        for (Tuple t : some) {
+            assertEquals(page.getId(), t.getRecordId().getPageId());
+        }
+
+        // tuples that do not fit are left in the iterator
+        ArrayList<Tuple> more = new ArrayList<Tuple>();
+        for (int i = 0; i < free; ++i) {
+            more.add(Utility.getHeapTuple(i, 2));
+        }
+        Iterator<Tuple> it = more.iterator();
+        assertEquals(free - 10, page.insertTuples(it));
+        assertEquals(0, page.getNumEmptySlots());
+        assertTrue(it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData(), with decoded, undecoded, inserted
+     * and deleted slots, into an array and into a buffer
+     */
+    @Test public void getPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        Iterator<Tuple> it = page.iterator();
+        it.hasNext();
+        page.deleteTuple(it.next());
+        it.hasNext();
+        it.next();
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        byte[] data = page.getPageData();
+
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize() + 8);
+        buf.position(8);
+        page.getPageData(buf);
+        assertEquals(BufferPool.getPageSize() + 8, buf.position());
+        buf.position(8);
+        byte[] fromBuffer = new byte[BufferPool.getPageSize()];
+        buf.get(fromBuffer);
+        assertArrayEquals(data, fromBuffer);
+
+        HeapPage copy = new HeapPage(pid, data);
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = copy.iterator();
+        while (expected.hasNext()) {
+            assertTrue(actual.hasNext());
+            assertEquals(expected.next().toString(), actual.next().toString());
+        }
+        assertFalse(actual.hasNext());
+    }
+
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
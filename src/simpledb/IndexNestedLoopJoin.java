@@ -0,0 +1,216 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin joins its child with a table stored in a
+ * {@link BTreeFile} keyed on the join field. Instead of scanning the table,
+ * it looks up the tuples that match each child tuple in the B+ tree, so
+ * that the join reads O(log n) pages of the table per child tuple (plus the
+ * leaf pages the matches are on) rather than all of them. It pays off when
+ * the child is small next to the table.
+ * <p>
+ * The predicate compares a field of the child (field1) with the key field
+ * of the table (field2), with any operator an {@link IndexPredicate} can
+ * search on. The tuples are returned as Join returns them: the child tuple
+ * followed by the table tuple.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final JoinPredicate p;
+    private OpIterator child;
+    private final int tableid;
+    private final String tableAlias;
+    private final BTreeFile file;
+    private final TupleDesc innerTd;
+
+    private transient TupleDesc td;
+    private transient Tuple outer;
+    private transient DbFileIterator matches;
+    private transient int probes;
+
+    /**
+     * Constructor.
+     *
+     * @param tid        the transaction the lookups in the table run as a
+     *                   part of
+     * @param p          the predicate to join on; field2 must be the key
+     *                   field of the table
+     * @param child      the outer relation
+     * @param tableid    the table to look up matches in, stored in a
+     *                   BTreeFile
+     * @param tableAlias the alias of the table, as for BTreeScan
+     * @throws IllegalArgumentException if the table is not a BTreeFile keyed
+     *                                  on field2, or the predicate cannot be
+     *                                  looked up in it
+     */
+    public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p, OpIterator child, int tableid,
+                               String tableAlias) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile) || ((BTreeFile) f).keyField() != p.getField2()) {
+            throw new IllegalArgumentException("the table is not a B+ tree keyed on the join field");
+        }
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("cannot look up " + p.getOperator() + " in a B+ tree");
+        }
+        this.tid = tid;
+        this.p = p;
+        this.child = child;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.file = (BTreeFile) f;
+        this.innerTd = new BTreeScan(tid, tableid, tableAlias, null).getTupleDesc();
+    }
+
+    /**
+     * @return true if the join can look up matches for the operator
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the number of lookups in the table since the join was opened
+     *         or rewound
+     */
+    public int getProbes() {
+        return probes;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     *         name
+     */
+    public String getJoinField1Name() {
+        return child.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     *         name
+     */
+    public String getJoinField2Name() {
+        return innerTd.getFieldName(p.getField2());
+    }
+
+    /**
+     * @return a copy of this join over another child, for a partition of
+     *         the outer relation
+     */
+    public IndexNestedLoopJoin withChild(OpIterator child) {
+        return new IndexNestedLoopJoin(tid, p, child, tableid, tableAlias);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child.getTupleDesc(), innerTd);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child.open();
+        td = getTupleDesc();
+        outer = null;
+        probes = 0;
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        child.close();
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        child.rewind();
+        outer = null;
+        probes = 0;
+    }
+
+    private void closeMatches() {
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null) {
+                if (matches.hasNext()) {
+                    return join(outer, matches.next());
+                }
+                closeMatches();
+            }
+            if (!child.hasNext()) {
+                return null;
+            }
+            outer = child.next();
+            matches = file.indexIterator(tid, new IndexPredicate(mirror(p.getOperator()),
+                    outer.getField(p.getField1())));
+            matches.open();
+            probes++;
+        }
+    }
+
+    /**
+     * @return the operator that compares the key with the child field as op
+     *         compares the child field with the key
+     */
+    private static Predicate.Op mirror(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    private Tuple join(Tuple outer, Tuple inner) {
+        int n1 = outer.getTupleDesc().numFields();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, outer.getField(i));
+        }
+        for (int i = 0; i < innerTd.numFields(); i++) {
+            t.setField(n1 + i, inner.getField(i));
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.IOException;
 import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -11,6 +12,9 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    // child tuples handed to BufferPool.insertTuples at a time
+    private static final int BATCH_SIZE = 4096;
+
     /**
      * Constructor.
      *
@@ -61,23 +65,32 @@ public class Insert extends Operator {
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
      * duplicate before inserting it.
+     * <p>
+     * The tuples are inserted in batches through
+     * {@link BufferPool#insertTuples}, so each page is looked up, locked and
+     * marked dirty once per batch rather than once per tuple.
      *
      * @return A 1-field tuple containing the number of inserted records, or
      * null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     private boolean onceOnly = false;
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         if (onceOnly == false) {
             int count = 0;
+            ArrayList<Tuple> batch = new ArrayList<>(BATCH_SIZE);
             while (child.hasNext()) {
+                batch.clear();
+                while (batch.size() < BATCH_SIZE && child.hasNext()) {
+                    batch.add(child.next());
+                }
                 try {
-                    Database.getBufferPool().insertTuple(t, tableId, child.next());
+                    Database.getBufferPool().insertTuples(t, tableId, batch.iterator());
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
-                count++;
+                count += batch.size();
             }
             Tuple tuple = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE}));
             tuple.setField(0, new IntField(count));
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntHashMap maps int keys to non-negative int values with open addressing
+ * (linear probing) over two int arrays, so that neither keys nor values are
+ * boxed. Operators use it to map a key to the index of a row or group in
+ * arrays of their own.
+ */
+class IntHashMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    // EMPTY for an unused slot
+    private int[] values;
+    private int size;
+
+    /**
+     * @param expected the number of keys the map should hold without growing
+     */
+    IntHashMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the value of key, or -1 if there is none
+     */
+    int get(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int value = values[i];
+            if (value == EMPTY || keys[i] == key) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Sets the value of key.
+     *
+     * @param value a value &gt;= 0
+     * @return the previous value of key, or -1 if there was none
+     */
+    int put(int key, int value) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; values[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return EMPTY;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(values, EMPTY);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != EMPTY) {
+                int i = hash(oldKeys[j]) & mask;
+                while (values[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, EMPTY);
+        size = 0;
+    }
+}
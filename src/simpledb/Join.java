@@ -1,18 +1,38 @@
 package simpledb;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Join is a block nested-loop join: it reads a block of child1 tuples,
+ * as many as fit in a given number of pages, and compares each child2
+ * tuple with the whole block, so that child2 is scanned once per block
+ * rather than once per child1 tuple.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The default number of pages of child1 tuples in a block: the system
+     * property simpledb.joinBlockPages, or 16.
+     */
+    public static final int DEFAULT_BLOCK_PAGES = Integer.getInteger("simpledb.joinBlockPages", 16);
+
     JoinPredicate p;
     OpIterator child1;
     OpIterator child2;
+    private final int blockPages;
+
+    private transient ArrayList<Tuple> block;
+    // the child2 tuple being compared with the block, and the next block
+    // tuple to compare it with
+    private transient Tuple inner;
+    private transient int nextInBlock;
+    private transient int innerScans;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -23,9 +43,45 @@ public class Join extends Operator {
      * @param child2 Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor with a block size.
+     *
+     * @param blockPages the number of pages of child1 tuples to compare
+     *                   with each child2 tuple at a time
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
+        if (blockPages < 1) {
+            throw new IllegalArgumentException("a block needs at least one page");
+        }
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.blockPages = blockPages;
+    }
+
+    public int getBlockPages() {
+        return blockPages;
+    }
+
+    /**
+     * @param blockPages the pages in a block
+     * @param tupleSize  the size of an outer tuple, in bytes
+     * @return the number of outer tuples in a block
+     */
+    public static int blockTuples(int blockPages, int tupleSize) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                (long) blockPages * BufferPool.getPageSize() / Math.max(1, tupleSize)));
+    }
+
+    /**
+     * @return the number of times the join has scanned child2 since it was
+     *         opened or rewound
+     */
+    public int getInnerScans() {
+        return innerScans;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -61,15 +117,23 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
+        block = new ArrayList<>();
+        inner = null;
+        innerScans = 0;
     }
 
     public void close() {
         super.close();
+        block = null;
+        inner = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        block.clear();
+        inner = null;
+        innerScans = 0;
     }
 
     /**
@@ -91,46 +155,69 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
 
-    private Tuple next1 = null;
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        while (next1 != null || child1.hasNext()) {
-            if (next1 == null)
-                next1 = child1.next();
-            while (child2.hasNext()) {
-                Tuple next2 = child2.next();
-                if (next1.getField(p.getField1()).compare(p.getOperator(), next2.getField(p.getField2()))) {
-                    TupleDesc next1TupleDesc = next1.getTupleDesc();
-                    TupleDesc next2TupleDesc = next2.getTupleDesc();
-                    TupleDesc merge = TupleDesc.merge(next1TupleDesc, next2TupleDesc);
-                    Tuple t = new Tuple(merge);
-                    Iterator<Field> fields1 = next1.fields();
-                    Iterator<Field> fields2 = next2.fields();
-                    int i = 0;
-                    while (fields1.hasNext()) {
-                        t.setField(i++, fields1.next());
-                    }
-                    while (fields2.hasNext()) {
-                        t.setField(i++, fields2.next());
+        while (true) {
+            if (inner != null) {
+                while (nextInBlock < block.size()) {
+                    Tuple outer = block.get(nextInBlock++);
+                    if (p.filter(outer, inner)) {
+                        return join(outer, inner);
                     }
-                    return t;
                 }
+                inner = null;
             }
-            child2.rewind();
-            next1 = null;
+            if (!block.isEmpty() && child2.hasNext()) {
+                inner = child2.next();
+                nextInBlock = 0;
+                continue;
+            }
+            // the block has met every child2 tuple: load the next one
+            boolean first = innerScans == 0;
+            if (!loadBlock()) {
+                return null;
+            }
+            if (!first) {
+                child2.rewind();
+            }
+            innerScans++;
+        }
+    }
+
+    /**
+     * @return false if child1 has no tuples left
+     */
+    private boolean loadBlock() throws TransactionAbortedException, DbException {
+        block.clear();
+        int size = blockTuples(blockPages, child1.getTupleDesc().getSize());
+        while (block.size() < size && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        return !block.isEmpty();
+    }
+
+    private Tuple join(Tuple next1, Tuple next2) {
+        Tuple t = new Tuple(TupleDesc.merge(next1.getTupleDesc(), next2.getTupleDesc()));
+        Iterator<Field> fields1 = next1.fields();
+        Iterator<Field> fields2 = next2.fields();
+        int i = 0;
+        while (fields1.hasNext()) {
+            t.setField(i++, fields1.next());
+        }
+        while (fields2.hasNext()) {
+            t.setField(i++, fields2.next());
         }
-        return null;
+        return t;
     }
 
     @Override
     public OpIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new OpIterator[]{child1, child2};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // some code goes here
+        child1 = children[0];
+        child2 = children[1];
     }
 
 }
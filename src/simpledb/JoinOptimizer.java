@@ -42,7 +42,7 @@ public class JoinOptimizer {
      * @param plan2
      *            The right join node's child
      */
-    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+    public OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
@@ -68,12 +68,76 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        boolean sorted = SortMergeJoin.isSortedOn(plan1, t1id) && SortMergeJoin.isSortedOn(plan2, t2id);
+        if (lj.p == Predicate.Op.EQUALS && !sorted
+                && plan1.getTupleDesc().getFieldType(t1id) == Type.INT_TYPE
+                && plan2.getTupleDesc().getFieldType(t2id) == Type.INT_TYPE) {
+            // an equality of two int fields hashes on the ints themselves
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else if (SortMergeJoin.supports(lj.p)) {
+            // merging inputs already in order needs neither a sort nor a
+            // hash table, and sorting beats nested loops for the rest
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p, plan1, plan2, this.p.getJoinBlockPages());
+        }
 
         return j;
 
     }
 
+    /**
+     * Return an {@link IndexNestedLoopJoin} that computes the given logical
+     * join by looking up the matches of each plan1 tuple in the B+ tree of
+     * the join's inner table. Call it only for joins {@link #innerIndex}
+     * finds a B+ tree for.
+     *
+     * @param tid
+     *            The transaction the lookups run as a part of
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     */
+    public OpIterator instantiateIndexJoin(TransactionId tid, LogicalJoinNode lj,
+            OpIterator plan1) throws ParsingException {
+        int t1id;
+        try {
+            t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+        }
+        BTreeFile f = innerIndex(lj);
+        if (f == null) {
+            throw new ParsingException("No index on " + lj.f2QuantifiedName);
+        }
+        JoinPredicate p = new JoinPredicate(t1id, lj.p, f.keyField());
+        return new IndexNestedLoopJoin(tid, p, plan1, f.getId(), lj.t2Alias);
+    }
+
+    /**
+     * Return true if the join should look up the matches of each outer tuple
+     * in the B+ tree of its inner table: if there is one, and the outer
+     * input is selective enough that the lookups cost less than a single
+     * scan of the table. An outer cardinality of 0 is taken to mean that
+     * the input has no statistics rather than that it is empty, and the
+     * join then keeps to a scan of the table, whose cost does not depend on
+     * the estimate.
+     *
+     * @param j
+     *            The join being considered
+     * @param card1
+     *            Estimated cardinality of the left-hand side of the join
+     * @param card2
+     *            Estimated cardinality of the right-hand side of the join
+     * @param cost2
+     *            Estimated cost of one full scan of the right-hand table
+     */
+    public boolean prefersIndexJoin(LogicalJoinNode j, int card1, int card2, double cost2) {
+        BTreeFile f = innerIndex(j);
+        return f != null && card1 > 0 && card1 * indexProbeCost(j, f, card2, cost2) < cost2;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -82,7 +146,16 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
-     * 
+     * <p>
+     * Joins are costed as block nested-loop joins: the outer side is read
+     * once, the inner side once per block of outer tuples (as many as fit
+     * in the plan's join block pages), and the predicate is applied to
+     * every pair. This bounds the cost of the hash and sort-merge joins
+     * {@link #instantiateJoin} picks for equality and band predicates too.
+     * <p>
+     * If the inner table is a B+ tree keyed on the join field, the join can
+     * instead read the outer side once and look up each outer tuple in the
+     * tree; the cheaper of the two is the cost of the join.
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -107,12 +180,76 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            int blockTuples = Join.blockTuples(p.getJoinBlockPages(), outerTupleSize(j));
+            double blocks = Math.ceil((double) card1 / blockTuples);
+            double cost = cost1 + blocks * cost2 + (double) card1 * card2;
+            BTreeFile f = innerIndex(j);
+            if (f != null) {
+                cost = Math.min(cost, cost1 + card1 * indexProbeCost(j, f, card2, cost2));
+            }
+            return cost;
+        }
+    }
+
+    /**
+     * @return the B+ tree file of the inner table of the join, if the table
+     *         is stored in one keyed on the join field, no filter applies to
+     *         it and the join operator can be looked up in it; null otherwise
+     */
+    BTreeFile innerIndex(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode || !IndexNestedLoopJoin.supports(j.p)) {
+            return null;
+        }
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null || p.hasFilter(j.t2Alias)) {
+            return null;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile)) {
+            return null;
+        }
+        try {
+            if (f.getTupleDesc().fieldNameToIndex(j.f2PureName) != ((BTreeFile) f).keyField()) {
+                return null;
+            }
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        return (BTreeFile) f;
+    }
+
+    /**
+     * Estimate the cost of looking up the matches of one outer tuple in the
+     * B+ tree of the inner table: reading the pages from the root down to
+     * the first matching leaf and the further leaves the matches fill, and
+     * applying the predicate to each match.
+     */
+    private double indexProbeCost(LogicalJoinNode j, BTreeFile f, int card2, double cost2) {
+        int pages = Math.max(1, f.numPages());
+        double costPerPage = cost2 / pages;
+        TupleDesc td = f.getTupleDesc();
+        int keySize = td.getFieldType(f.keyField()).getLen();
+        double fanout = Math.max(2, BufferPool.getPageSize() / (keySize + BTreePage.INDEX_SIZE));
+        double leafTuples = Math.max(1, BufferPool.getPageSize() / td.getSize());
+        double height = 1 + Math.ceil(Math.log(pages) / Math.log(fanout));
+        // the matches of one outer tuple are the join of that tuple alone
+        double matches = estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, 1, card2, false,
+                isPkey(j.t2Alias, j.f2PureName), TableStats.getStatsMap(),
+                p.getTableAliasToIdMapping());
+        return (height + matches / leafTuples) * costPerPage + matches;
+    }
+
+    /**
+     * @return the size of a tuple of the outer table of the join, or of an
+     *         int if the table is not known
+     */
+    private int outerTupleSize(LogicalJoinNode j) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        if (tableId == null) {
+            return Type.INT_TYPE.getLen();
         }
+        return Database.getCatalog().getTupleDesc(tableId).getSize();
     }
 
     /**
@@ -0,0 +1,292 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager keeps the page-level shared/exclusive locks of all
+ * transactions for the BufferPool (strict two-phase locking: locks are only
+ * released when the transaction completes).
+ * <p>
+ * A transaction that cannot get a lock waits instead of timing out. Every
+ * time a transaction starts to wait, the wait-for graph is checked for a
+ * cycle through it; if there is one, the youngest transaction on the cycle
+ * (the one with the largest id) is chosen as the victim and its pending and
+ * future lock requests throw {@link TransactionAbortedException} until
+ * {@link #releaseAll} is called for it. Transactions that merely wait behind
+ * a long-running holder are never aborted.
+ * <p>
+ * The edges of the graph are not stored: they are derived from the current
+ * holders of the page each waiter asks for, so they can never be stale.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    private static class PageLock {
+        final Set<TransactionId> sharers = new HashSet<>();
+        TransactionId exclusive;
+
+        /**
+         * @return the transactions that keep tid from locking this page with perm
+         */
+        Set<TransactionId> blockers(TransactionId tid, Permissions perm) {
+            Set<TransactionId> blockers = new HashSet<>();
+            if (exclusive != null && !exclusive.equals(tid)) {
+                blockers.add(exclusive);
+            }
+            if (perm == Permissions.READ_WRITE) {
+                blockers.addAll(sharers);
+                blockers.remove(tid);
+            }
+            return blockers;
+        }
+
+        boolean isFree() {
+            return exclusive == null && sharers.isEmpty();
+        }
+    }
+
+    private static class Waiter {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+
+        Waiter(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+        }
+    }
+
+    // guarded by this
+    private final HashMap<PageId, PageLock> locks = new HashMap<>();
+    private final ArrayList<Waiter> waiters = new ArrayList<>();
+    private final HashSet<TransactionId> victims = new HashSet<>();
+    private long deadlocks = 0;
+
+    // written under this, read without it by the fast path of acquire
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Permissions>> held =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Acquires a lock on pid for tid, blocking while another transaction holds
+     * a conflicting lock. A transaction holding the only shared lock on a page
+     * may upgrade it to an exclusive one.
+     *
+     * @throws TransactionAbortedException if tid was chosen as a deadlock victim
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        Map<PageId, Permissions> mine = held.get(tid);
+        if (mine != null) {
+            Permissions current = mine.get(pid);
+            if (current == Permissions.READ_WRITE || current == perm) {
+                return;
+            }
+        }
+        synchronized (this) {
+            Waiter waiter = null;
+            try {
+                while (true) {
+                    if (victims.contains(tid)) {
+                        throw new TransactionAbortedException();
+                    }
+                    PageLock lock = locks.computeIfAbsent(pid, k -> new PageLock());
+                    if (lock.blockers(tid, perm).isEmpty()) {
+                        grant(lock, tid, pid, perm);
+                        return;
+                    }
+                    if (waiter == null) {
+                        waiter = new Waiter(tid, pid, perm);
+                        waiters.add(waiter);
+                    }
+                    TransactionId victim = findDeadlockVictim(tid);
+                    if (victim != null) {
+                        deadlocks++;
+                        victims.add(victim);
+                        if (victim.equals(tid)) {
+                            throw new TransactionAbortedException();
+                        }
+                        notifyAll();
+                    }
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            } finally {
+                if (waiter != null) {
+                    waiters.remove(waiter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Acquires a lock on pid for tid if no other transaction holds a
+     * conflicting one, without waiting.
+     *
+     * @return true if tid holds the lock now
+     */
+    public synchronized boolean tryAcquire(TransactionId tid, PageId pid, Permissions perm) {
+        PageLock lock = locks.computeIfAbsent(pid, k -> new PageLock());
+        if (!lock.blockers(tid, perm).isEmpty()) {
+            return false;
+        }
+        grant(lock, tid, pid, perm);
+        return true;
+    }
+
+    private void grant(PageLock lock, TransactionId tid, PageId pid, Permissions perm) {
+        Permissions granted = perm;
+        if (perm == Permissions.READ_WRITE) {
+            lock.sharers.remove(tid);
+            lock.exclusive = tid;
+        } else if (tid.equals(lock.exclusive)) {
+            granted = Permissions.READ_WRITE;
+        } else {
+            lock.sharers.add(tid);
+        }
+        held.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).put(pid, granted);
+    }
+
+    /**
+     * Looks for a cycle in the wait-for graph that goes through tid, ignoring
+     * transactions that are already doomed.
+     *
+     * @return the youngest transaction on the cycle, or null if there is none
+     */
+    private TransactionId findDeadlockVictim(TransactionId tid) {
+        HashMap<TransactionId, Set<TransactionId>> edges = new HashMap<>();
+        for (Waiter w : waiters) {
+            if (victims.contains(w.tid)) {
+                continue;
+            }
+            PageLock lock = locks.get(w.pid);
+            if (lock != null) {
+                edges.computeIfAbsent(w.tid, k -> new HashSet<>()).addAll(lock.blockers(w.tid, w.perm));
+            }
+        }
+        ArrayList<TransactionId> path = new ArrayList<>();
+        if (!reaches(tid, tid, edges, new HashSet<>(), path)) {
+            return null;
+        }
+        TransactionId youngest = tid;
+        for (TransactionId t : path) {
+            if (t.getId() > youngest.getId()) {
+                youngest = t;
+            }
+        }
+        return youngest;
+    }
+
+    private static boolean reaches(TransactionId from, TransactionId target,
+                                   Map<TransactionId, Set<TransactionId>> edges,
+                                   Set<TransactionId> visited, ArrayList<TransactionId> path) {
+        for (TransactionId next : edges.getOrDefault(from, Collections.emptySet())) {
+            if (next.equals(target)) {
+                return true;
+            }
+            if (visited.add(next)) {
+                path.add(next);
+                if (reaches(next, target, edges, visited, path)) {
+                    return true;
+                }
+                path.remove(path.size() - 1);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases the lock tid holds on pid, if any.
+     */
+    public synchronized void release(TransactionId tid, PageId pid) {
+        Map<PageId, Permissions> mine = held.get(tid);
+        if (mine != null && mine.remove(pid) != null) {
+            unlock(tid, pid);
+            if (mine.isEmpty()) {
+                held.remove(tid);
+            }
+            wakeWaiters();
+        }
+    }
+
+    /**
+     * Releases every lock of tid and forgets that it was a deadlock victim.
+     */
+    public synchronized void releaseAll(TransactionId tid) {
+        Map<PageId, Permissions> mine = held.remove(tid);
+        if (mine != null) {
+            for (PageId pid : mine.keySet()) {
+                unlock(tid, pid);
+            }
+        }
+        victims.remove(tid);
+        wakeWaiters();
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null) {
+            return;
+        }
+        if (tid.equals(lock.exclusive)) {
+            lock.exclusive = null;
+        }
+        lock.sharers.remove(tid);
+        if (lock.isFree()) {
+            locks.remove(pid);
+        }
+    }
+
+    private void wakeWaiters() {
+        if (!waiters.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return true if tid holds a shared or exclusive lock on pid
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Map<PageId, Permissions> mine = held.get(tid);
+        return mine != null && mine.containsKey(pid);
+    }
+
+    /**
+     * @return true if any transaction holds a lock on pid
+     */
+    public synchronized boolean isLocked(PageId pid) {
+        return locks.containsKey(pid);
+    }
+
+    /**
+     * @return true if a transaction holds an exclusive lock on pid
+     */
+    public synchronized boolean isWriteLocked(PageId pid) {
+        PageLock lock = locks.get(pid);
+        return lock != null && lock.exclusive != null;
+    }
+
+    /**
+     * @return a snapshot of the pages tid holds a lock on
+     */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        Map<PageId, Permissions> mine = held.get(tid);
+        return mine == null ? Collections.emptySet() : new HashSet<>(mine.keySet());
+    }
+
+    /**
+     * @return the number of deadlocks detected (and broken) so far
+     */
+    public synchronized long getDeadlockCount() {
+        return deadlocks;
+    }
+}
@@ -1,16 +1,29 @@
 
 package simpledb;
 
+import java.io.DataInput;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -20,25 +33,38 @@ import java.util.Set;
  *
  * <u> Locking note: </u>
  * <p>
+ * LogFile's own monitor serializes appends to the log and guards its
+ * position and the table of running transactions; the methods that write
+ * records are synchronized or hold it for the append. The dirty page table
+ * is a concurrent map that BufferPool updates through {@link #pageWritten}
+ * without the monitor, and the last UPDATE's offset is volatile.
  * <p>
- * Many of the methods here are synchronized (to prevent concurrent log
- * writes from happening); many of the methods in BufferPool are also
- * synchronized (for similar reasons.)  Problem is that BufferPool writes
- * log records (on page flushed) and the log file flushes BufferPool
- * pages (on checkpoints and recovery.)  This can lead to deadlock.  For
- * that reason, any LogFile operation that needs to access the BufferPool
- * must not be declared synchronized and must begin with a block like:
+ * BufferPool guards its frames with per-partition latches and never calls a
+ * synchronized LogFile method while it holds one. LogFile does take
+ * partition latches with its monitor held, when rollback and recovery drop
+ * the pages they rewrite through {@link BufferPool#discardPage}, so the only
+ * lock order is LogFile's monitor, then a partition latch, and neither needs
+ * the BufferPool object's monitor.
  *
+ * <u> Checkpoints: </u>
  * <p>
- * <pre>
- * synchronized (Database.getBufferPool()) {
- * synchronized (this) {
+ * Checkpoints are fuzzy: logCheckpoint writes the active transactions and
+ * the dirty page table without flushing the buffer pool, and holds the log
+ * only while it appends and forces the record. BufferPool reports each
+ * page it writes after logging it through {@link #pageWritten}; until
+ * then the page stays in the dirty page table with the offset of its
+ * first UPDATE (its recLSN). Recovery starts redo at the smallest recLSN
+ * of the last checkpoint, and logTruncate keeps the log from there or from
+ * the first record of the oldest active transaction, whichever is older.
  *
- * ..
- *
- * }
- * }
- * </pre>
+ * <u> Group commit: </u>
+ * <p>
+ * logCommit does not force the log itself. It appends the COMMIT record,
+ * then waits until a flusher thread has forced the log past it. The
+ * flusher waits up to {@link #setGroupCommitDelay} microseconds for more
+ * commits to arrive, or until {@link #setGroupCommitBatch} of them are
+ * pending, then makes all of them durable with a single force. The thread
+ * is started by the first commit and exits after a second without any.
  */
 
 /**
@@ -46,33 +72,44 @@ import java.util.Set;
 
  <ul>
 
- <li> The first long integer of the file represents the offset of the
+ <li> The log file itself holds a single long integer: the LSN of the
  last written checkpoint, or -1 if there are no checkpoints
 
- <li> All additional data in the log consists of log records.  Log
- records are variable length.
+ <li> The log records are kept in segment files next to the log file,
+ addressed by LSNs, their logical offsets from the start of the log (see
+ SegmentedLog).  Log records are variable length and may span segments.
+ Truncation deletes whole segments, so an LSN never changes.
 
  <li> Each log record begins with an integer type and a long integer
  transaction id.
 
- <li> Each log record ends with a long integer file offset representing
- the position in the log file where the record began.
+ <li> Each log record ends with a long integer LSN representing
+ the position in the log where the record began.
 
- <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
- CHECKPOINT
+ <li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+ CHECKPOINT and CLR
 
  <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
- <li>UPDATE RECORDS consist of two entries, a before image and an
- after image.  These images are serialized Page objects, and can be
- accessed with the LogFile.readPageData() and LogFile.writePageData()
- methods.  See LogFile.print() for an example.
+ <li>UPDATE RECORDS consist of a PageDelta: the byte ranges in which
+ the serialized before and after images of the page differ, with the
+ old and the new bytes of each.  See PageDelta for the format; its
+ redo() and undo() methods apply the change to a page.
+
+ <li> CLR (compensation) records are written when an UPDATE is undone,
+ by rollback() or by recover().  They consist of the offset of the
+ UPDATE record they undo and a PageDelta that reverts it.  They are
+ redone like UPDATEs and never undone, so a rollback that is interrupted
+ by a crash is finished rather than repeated.
 
  <li> CHECKPOINT records consist of active transactions at the time
- the checkpoint was taken and their first log record on disk.  The format
- of the record is an integer count of the number of transactions, as well
- as a long integer transaction id and a long integer first record offset
- for each active transaction.
+ the checkpoint was taken and their first log record on disk, followed
+ by the dirty page table.  The format of the record is an integer count
+ of the number of transactions, as well as a long integer transaction id
+ and a long integer first record offset for each active transaction;
+ then an integer count of dirty pages, and for each a page id (see
+ PageDelta) and the long integer offset of its first UPDATE record that
+ may not be in the page's file yet (its recLSN).
 
  </ul>
 
@@ -81,7 +118,9 @@ import java.util.Set;
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    // holds the LSN of the last checkpoint; the records are in segments
+    private final RandomAccessFile control;
+    private final SegmentedLog log;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -89,6 +128,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -97,9 +137,49 @@ public class LogFile {
     long currentOffset = -1;//protected by this
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
+    // before and after images are serialized into these buffers to be diffed //protected by this
+    private ByteBuffer beforeBuffer = ByteBuffer.allocate(0);
+    private ByteBuffer afterBuffer = ByteBuffer.allocate(0);
 
     HashMap<Long, Long> tidToFirstLogRecord = new HashMap<Long, Long>();
 
+    // the dirty page table: pages with a logged UPDATE that BufferPool has
+    // not written yet, and the offsets of the first such UPDATE (the
+    // recLSN) and of the last one; added to under this, removed from
+    // without it
+    private final ConcurrentHashMap<PageId, long[]> dirtyPages = new ConcurrentHashMap<>();
+    // the offset of the last UPDATE record, read without the lock
+    private volatile long lastUpdate = -1;
+
+    // how long an idle flusher thread lives before it exits
+    private static final long FLUSHER_IDLE_MILLIS = 1000;
+
+    // group commit; commit records are numbered in the order they are appended
+    private long commitSeq = 0; //protected by this
+    private final Object flushLock = new Object();
+    private long pendingSeq = 0; //protected by flushLock; highest commit waiting
+    private long durableSeq = 0; //protected by flushLock; highest commit forced
+    private long failedSeq = 0; //protected by flushLock; highest commit of a failed force
+    private IOException flushError; //protected by flushLock; why that force failed
+    private Thread flusher; //protected by flushLock; null when not running
+    private volatile long groupCommitDelayMicros = 0;
+    private volatile int groupCommitBatch = 64;
+
+    // threads that redo the pages of the log in parallel during recovery
+    private volatile int redoThreads = Runtime.getRuntime().availableProcessors();
+
+    /** A log record as read back by {@link #readRecord}. */
+    private static class LogRecord {
+        long offset;
+        int type;
+        long tid;
+        PageDelta delta; // UPDATE and CLR records
+        long undone; // CLR records: the offset of the UPDATE they undo
+        // CHECKPOINT records: the active transactions and the dirty page table
+        LinkedHashMap<Long, Long> active;
+        LinkedHashMap<PageId, Long> dirty;
+    }
+
     /** Constructor.
      Initialize and back the log file with the specified file.
      We're not sure yet whether the caller is creating a brand new DB,
@@ -112,8 +192,20 @@ public class LogFile {
      @param f The log file's name
      */
     public LogFile(File f) throws IOException {
+        this(f, SegmentedLog.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor.
+     Like {@link #LogFile(File)}, with the records kept in segment files of
+     the given size next to the log file.
+
+     @param f The log file's name
+     @param segmentSize The number of bytes per segment file
+     */
+    public LogFile(File f, long segmentSize) throws IOException {
         this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        control = new RandomAccessFile(f, "rw");
+        log = new SegmentedLog(f, segmentSize);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -134,63 +226,204 @@ public class LogFile {
         totalRecords++;
         if (recoveryUndecided) {
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            log.reset();
+            writeCheckpointLocation(NO_CHECKPOINT_ID);
+            currentOffset = log.getFilePointer();
         }
     }
 
+    /**
+     * @return the LSN of the last checkpoint, or NO_CHECKPOINT_ID
+     */
+    private long readCheckpointLocation() throws IOException {
+        if (control.length() < LONG_SIZE) {
+            return NO_CHECKPOINT_ID;
+        }
+        control.seek(0);
+        return control.readLong();
+    }
+
+    private void writeCheckpointLocation(long lsn) throws IOException {
+        control.seek(0);
+        control.writeLong(lsn);
+        control.getChannel().force(true);
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
 
+    /**
+     * Sets how long the flusher waits for more commits to join a force
+     * once one is pending. 0, the default, forces right away; commits that
+     * arrive during a force still share the next one.
+     */
+    public void setGroupCommitDelay(long micros) {
+        groupCommitDelayMicros = micros;
+    }
+
+    /**
+     * Sets how many threads the redo pass of {@link #recover} uses. The
+     * default is the number of processors.
+     */
+    public void setRedoThreads(int threads) {
+        redoThreads = threads;
+    }
+
+    /**
+     * Sets how many pending commits make the flusher force the log without
+     * waiting out the group commit delay. The default is 64.
+     */
+    public void setGroupCommitBatch(int commits) {
+        groupCommitBatch = commits;
+    }
+
     /** Write an abort record to the log for the specified tid, force
      the log to disk, and perform a rollback
      @param tid The aborting transaction.
      */
     public void logAbort(TransactionId tid) throws IOException {
-        // must have buffer pool lock before proceeding, since this
-        // calls rollback
-
-        synchronized (Database.getBufferPool()) {
-
-            synchronized (this) {
-                preAppend();
-                //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
-
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
-            }
+        synchronized (this) {
+            preAppend();
+            //Debug.log("ABORT");
+            //should we verify that this is a live transaction?
+
+            // must do this here, since rollback only works for
+            // live transactions (needs tidToFirstLogRecord)
+            rollback(tid);
+
+            log.writeInt(ABORT_RECORD);
+            log.writeLong(tid.getId());
+            log.writeLong(currentOffset);
+            currentOffset = log.getFilePointer();
+            force();
+            tidToFirstLogRecord.remove(tid.getId());
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-     and force the log to disk.
+     and wait until the log has been forced to disk past it.
 
      @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long seq;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            log.writeInt(COMMIT_RECORD);
+            log.writeLong(tid.getId());
+            log.writeLong(currentOffset);
+            currentOffset = log.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            seq = ++commitSeq;
+        }
+        awaitDurable(seq);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Blocks until commit record number seq has been forced, starting the
+     * flusher thread if it is not running.
+     */
+    private void awaitDurable(long seq) throws IOException {
+        synchronized (flushLock) {
+            if (seq > pendingSeq) {
+                pendingSeq = seq;
+                flushLock.notifyAll();
+            }
+            if (flusher == null) {
+                flusher = new Thread(this::runFlusher, "LogFile flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+            try {
+                while (durableSeq < seq) {
+                    if (seq <= failedSeq) {
+                        throw new IOException("log force failed", flushError);
+                    }
+                    flushLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for log force");
+            }
+        }
+    }
+
+    private void runFlusher() {
+        try {
+            while (true) {
+                synchronized (flushLock) {
+                    long idleSince = System.currentTimeMillis();
+                    while (pendingSeq <= Math.max(durableSeq, failedSeq)) {
+                        long idle = System.currentTimeMillis() - idleSince;
+                        if (idle >= FLUSHER_IDLE_MILLIS) {
+                            flusher = null;
+                            return;
+                        }
+                        flushLock.wait(FLUSHER_IDLE_MILLIS - idle);
+                    }
+                    // give more commits a chance to join this force
+                    long deadline = System.nanoTime() + groupCommitDelayMicros * 1000;
+                    long left;
+                    while (pendingSeq - durableSeq < groupCommitBatch
+                            && (left = deadline - System.nanoTime()) > 0) {
+                        flushLock.wait(left / 1000000, (int) (left % 1000000));
+                    }
+                }
+                try {
+                    forceCommits();
+                } catch (IOException e) {
+                    // fail the commits waiting now; later ones try again
+                    synchronized (flushLock) {
+                        failedSeq = pendingSeq;
+                        flushError = e;
+                        flushLock.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (flushLock) {
+                flusher = null;
+            }
+        }
+    }
+
+    /**
+     * Forces every commit record appended so far, without holding the
+     * LogFile lock during the force so that other records can be appended.
+     */
+    private void forceCommits() throws IOException {
+        long seq;
+        long upTo;
+        List<FileChannel> channels;
+        synchronized (this) {
+            seq = commitSeq;
+            upTo = log.flush();
+            channels = log.unsyncedSegments();
+        }
+        for (FileChannel channel : channels) {
+            try {
+                channel.force(true);
+            } catch (ClosedChannelException e) {
+                // logTruncate deleted the segment; nothing in it is needed
+            }
+        }
+        synchronized (this) {
+            log.synced(upTo);
+        }
+        commitsDurable(seq);
+    }
+
+    private void commitsDurable(long seq) {
+        synchronized (flushLock) {
+            if (seq > durableSeq) {
+                durableSeq = seq;
+                flushLock.notifyAll();
+            }
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -204,102 +437,71 @@ public class LogFile {
     public synchronized void logWrite(TransactionId tid, Page before,
                                       Page after)
             throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + log.getFilePointer());
         preAppend();
         /* update record conists of
 
            record type
            transaction id
-           before page data (see writePageData)
-           after page data
+           page delta (see PageDelta)
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        log.writeInt(UPDATE_RECORD);
+        log.writeLong(tid.getId());
 
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        diff(before, after).write(log);
+        log.writeLong(currentOffset);
+        long offset = currentOffset;
+        dirtyPages.merge(after.getId(), new long[]{offset, offset}, (old, added) -> new long[]{old[0], offset});
+        lastUpdate = offset;
+        currentOffset = log.getFilePointer();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException {
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    /**
+     * @return the offset of the last UPDATE record logged, or -1; every
+     *         change logged up to it is in the pages of the buffer pool.
+     *         Does not take the LogFile lock.
+     */
+    public long lastUpdateLsn() {
+        return lastUpdate;
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    /**
+     * Removes a page from the dirty page table once its file has every
+     * change that was logged for it. An UPDATE of the page logged after
+     * the page was written keeps it in the table. Does not take the
+     * LogFile lock, so BufferPool may call it while it holds a latch.
+     *
+     * @param pid the page that was written
+     * @param lsn the {@link #lastUpdateLsn} read before the page was
+     *            written
+     */
+    public void pageWritten(PageId pid, long lsn) {
+        dirtyPages.computeIfPresent(pid, (k, lsns) -> lsns[1] <= lsn ? null : lsns);
+    }
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+    /**
+     * @return the recLSN of a page in the dirty page table, or null if the
+     *         page is not in it
+     */
+    Long recLsn(PageId pid) {
+        long[] lsns = dirtyPages.get(pid);
+        return lsns == null ? null : lsns[0];
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+    PageDelta diff(Page before, Page after) {
+        if (beforeBuffer.capacity() < BufferPool.getPageSize()) {
+            beforeBuffer = ByteBuffer.allocate(BufferPool.getPageSize());
+            afterBuffer = ByteBuffer.allocate(BufferPool.getPageSize());
         }
-        return newPage;
-
+        beforeBuffer.clear();
+        before.getPageData(beforeBuffer);
+        afterBuffer.clear();
+        after.getPageData(afterBuffer);
+        return PageDelta.diff(after, beforeBuffer.array(), afterBuffer.array(),
+                Math.max(beforeBuffer.position(), afterBuffer.position()));
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -314,150 +516,93 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        log.writeInt(BEGIN_RECORD);
+        log.writeLong(tid.getId());
+        log.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = log.getFilePointer();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /**
+     * @return true if tid has logged a BEGIN record and has not committed
+     *         or aborted yet
+     */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /** Checkpoint the log and write a checkpoint record. The buffer pool
+     is not flushed and transactions keep running; the log is only held
+     while the record is appended and forced. */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        synchronized (this) {
+            preAppend();
+            long startCpOffset = currentOffset;
+            log.writeInt(CHECKPOINT_RECORD);
+            log.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            log.writeInt(tidToFirstLogRecord.size());
+            for (Long key : tidToFirstLogRecord.keySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                log.writeLong(key);
+                log.writeLong(tidToFirstLogRecord.get(key));
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //and the dirty page table
+            HashMap<PageId, Long> dirty = new HashMap<>();
+            dirtyPages.forEach((pid, lsns) -> dirty.put(pid, lsns[0]));
+            log.writeInt(dirty.size());
+            for (PageId pid : dirty.keySet()) {
+                PageDelta.writePageId(log, pid);
+                log.writeLong(dirty.get(pid));
             }
+            log.writeLong(startCpOffset);
+            currentOffset = log.getFilePointer();
+            force();
+
+            //once the CP is durable, make sure the CP location in the
+            // log file is updated
+            writeCheckpointLocation(startCpOffset);
         }
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-     consumption */
+     consumption. Whole segments before the oldest record that recovery
+     may need are deleted; LSNs do not change, so nothing is copied. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        long cpLoc = readCheckpointLocation();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                    case UPDATE_RECORD:
-                        Page before = readPageData(raf);
-                        Page after = readPageData(raf);
-
-                        writePageData(logNew, before);
-                        writePageData(logNew, after);
-                        break;
-                    case CHECKPOINT_RECORD:
-                        int numXactions = raf.readInt();
-                        logNew.writeInt(numXactions);
-                        while (numXactions-- > 0) {
-                            long xid = raf.readLong();
-                            long xoffset = raf.readLong();
-                            logNew.writeLong(xid);
-                            logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                        }
-                        break;
-                    case BEGIN_RECORD:
-                        tidToFirstLogRecord.put(record_tid, newStart);
-                        break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
-            }
+        log.seek(cpLoc);
+        LogRecord cp = readRecord(log);
+        log.seek(currentOffset);
+        if (cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        // keep the first records of the active transactions, for undo, and
+        // the first unwritten UPDATE of every dirty page, for redo
+        long minLogRecord = cpLoc;
+        for (long firstLogRecord : cp.active.values()) {
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
+        }
+        for (long recLsn : cp.dirty.values()) {
+            minLogRecord = Math.min(minLogRecord, recLsn);
+        }
+        for (long[] lsns : dirtyPages.values()) {
+            minLogRecord = Math.min(minLogRecord, lsns[0]);
+        }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+        Debug.log("TRUNCATING LOG BEFORE " + minLogRecord + "; LOG STARTS AT " + log.getStart());
+        log.deleteBefore(minLogRecord);
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -470,11 +615,133 @@ public class LogFile {
      */
     public void rollback(TransactionId tid)
             throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                preAppend();
-                // some code goes here
+        synchronized (this) {
+            preAppend();
+            Long first = tidToFirstLogRecord.get(tid.getId());
+            if (first == null) {
+                throw new NoSuchElementException("transaction " + tid.getId() + " is not running");
+            }
+            ArrayList<LogRecord> updates = new ArrayList<>();
+            HashSet<Long> compensated = new HashSet<>();
+            log.seek(first);
+            while (log.getFilePointer() < currentOffset) {
+                LogRecord r = readRecord(log);
+                if (r.tid != tid.getId()) {
+                    continue;
+                }
+                if (r.type == UPDATE_RECORD) {
+                    updates.add(r);
+                } else if (r.type == CLR_RECORD) {
+                    compensated.add(r.undone);
+                }
             }
+            log.seek(currentOffset);
+            updates.removeIf(r -> compensated.contains(r.offset));
+            undo(updates);
+        }
+    }
+
+    /**
+     * Undoes UPDATE records, latest first: logs a CLR for each, forces the
+     * log, then writes the pages with the changes reverted and drops them
+     * from the buffer pool.
+     *
+     * @param updates the records to undo, in log order
+     */
+    private void undo(List<LogRecord> updates) throws IOException {
+        ArrayList<PageDelta> clrs = new ArrayList<>();
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            LogRecord r = updates.get(i);
+            PageDelta clr = r.delta.inverse();
+            log.writeInt(CLR_RECORD);
+            log.writeLong(r.tid);
+            log.writeLong(r.offset);
+            clr.write(log);
+            log.writeLong(currentOffset);
+            currentOffset = log.getFilePointer();
+            totalRecords++;
+            clrs.add(clr);
+        }
+        if (clrs.isEmpty()) {
+            return;
+        }
+        force();
+        for (PageDelta clr : clrs) {
+            PageId pid = clr.getPageId();
+            DbFile file;
+            try {
+                file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            } catch (NoSuchElementException e) {
+                // a table that is not in the catalog any more
+                continue;
+            }
+            file.writePage(clr.redo(readPage(clr)));
+            Database.getBufferPool().discardPage(pid);
+        }
+    }
+
+    /**
+     * Reads the page a delta applies to from its file, or an empty page if
+     * the file does not reach it.
+     */
+    private static Page readPage(PageDelta delta) throws IOException {
+        PageId pid = delta.getPageId();
+        try {
+            return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            return delta.newPage(new byte[BufferPool.getPageSize()]);
+        }
+    }
+
+    /**
+     * Reads the record that starts at the file pointer of in, leaving the
+     * pointer at the start of the next one.
+     *
+     * @throws EOFException if the log ends within the record
+     */
+    private LogRecord readRecord(SegmentedLog in) throws IOException {
+        LogRecord r = new LogRecord();
+        r.offset = in.getFilePointer();
+        r.type = in.readInt();
+        r.tid = in.readLong();
+        switch (r.type) {
+            case UPDATE_RECORD:
+                r.delta = PageDelta.read(in);
+                break;
+            case CLR_RECORD:
+                r.undone = in.readLong();
+                r.delta = PageDelta.read(in);
+                break;
+            case CHECKPOINT_RECORD:
+                readCheckpoint(in, r);
+                break;
+            case ABORT_RECORD:
+            case COMMIT_RECORD:
+            case BEGIN_RECORD:
+                break;
+            default:
+                throw new IOException("unknown log record type " + r.type + " at offset " + r.offset);
+        }
+        in.readLong();
+        return r;
+    }
+
+    /**
+     * Reads the body of a CHECKPOINT record, after its type and tid, into
+     * r.active and r.dirty.
+     */
+    private static void readCheckpoint(DataInput in, LogRecord r) throws IOException {
+        r.active = new LinkedHashMap<>();
+        int numXactions = in.readInt();
+        while (numXactions-- > 0) {
+            long xid = in.readLong();
+            r.active.put(xid, in.readLong());
+        }
+        r.dirty = new LinkedHashMap<>();
+        int numPages = in.readInt();
+        while (numPages-- > 0) {
+            PageId pid = PageDelta.readPageId(in);
+            r.dirty.put(pid, in.readLong());
         }
     }
 
@@ -485,7 +752,8 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            log.close();
+            control.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -497,21 +765,218 @@ public class LogFile {
      updates of uncommitted transactions are not installed.
      */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+        synchronized (this) {
+            recoveryUndecided = false;
+            if (log.length() == log.getStart()) {
+                writeCheckpointLocation(NO_CHECKPOINT_ID);
+                currentOffset = log.length();
+                log.seek(currentOffset);
+                return;
+            }
+
+            // analysis: find the transactions that did not finish and
+            // the records to redo; redo starts at the oldest recLSN in
+            // the dirty page table of the last checkpoint
+            long cpLoc = readCheckpointLocation();
+            long redoStart = cpLoc == NO_CHECKPOINT_ID ? log.getStart() : cpLoc;
+            long scanStart = redoStart;
+            HashMap<Long, Long> running = new HashMap<>();
+            Map<PageId, Long> checkpointDirty = Collections.emptyMap();
+            if (cpLoc != NO_CHECKPOINT_ID) {
+                log.seek(cpLoc);
+                LogRecord cp = readRecord(log);
+                running.putAll(cp.active);
+                checkpointDirty = cp.dirty;
+                for (long recLsn : cp.dirty.values()) {
+                    redoStart = Math.min(redoStart, recLsn);
+                }
+                scanStart = redoStart;
+                for (long first : cp.active.values()) {
+                    scanStart = Math.min(scanStart, first);
+                }
+            }
+            ArrayList<LogRecord> redo = new ArrayList<>();
+            HashMap<Long, ArrayList<LogRecord>> updates = new HashMap<>();
+            HashSet<Long> compensated = new HashSet<>();
+            log.seek(scanStart);
+            long end = scanStart;
+            while (true) {
+                LogRecord r;
+                try {
+                    r = readRecord(log);
+                } catch (EOFException e) {
+                    // a record cut short by the crash; it is dropped
+                    break;
+                }
+                end = log.getFilePointer();
+                switch (r.type) {
+                    case BEGIN_RECORD:
+                        running.put(r.tid, r.offset);
+                        break;
+                    case COMMIT_RECORD:
+                    case ABORT_RECORD:
+                        running.remove(r.tid);
+                        updates.remove(r.tid);
+                        break;
+                    case UPDATE_RECORD:
+                        updates.computeIfAbsent(r.tid, k -> new ArrayList<>()).add(r);
+                        if (needsRedo(r, cpLoc, redoStart, checkpointDirty)) {
+                            redo.add(r);
+                        }
+                        break;
+                    case CLR_RECORD:
+                        compensated.add(r.undone);
+                        if (needsRedo(r, cpLoc, redoStart, checkpointDirty)) {
+                            redo.add(r);
+                        }
+                        break;
+                }
+            }
+            log.setLength(end);
+            log.seek(end);
+            currentOffset = end;
+
+            // redo: repeat history, one page per task
+            redo(redo);
+
+            // undo: roll back the transactions that did not finish
+            ArrayList<LogRecord> losers = new ArrayList<>();
+            for (long xid : running.keySet()) {
+                for (LogRecord r : updates.getOrDefault(xid, new ArrayList<>())) {
+                    if (!compensated.contains(r.offset)) {
+                        losers.add(r);
+                    }
+                }
+            }
+            losers.sort((a, b) -> Long.compare(a.offset, b.offset));
+            undo(losers);
+            invalidateFreeSpaceMaps();
+            for (long xid : running.keySet()) {
+                log.writeInt(ABORT_RECORD);
+                log.writeLong(xid);
+                log.writeLong(currentOffset);
+                currentOffset = log.getFilePointer();
+                totalRecords++;
+            }
+            tidToFirstLogRecord.clear();
+            dirtyPages.clear();
+            force();
+        }
+    }
+
+    /**
+     * Drops the free space maps of the heap files, whose side files may be
+     * older than the pages recovery left on disk.
+     */
+    private static void invalidateFreeSpaceMaps() throws IOException {
+        Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            DbFile f = Database.getCatalog().getDatabaseFile(it.next());
+            if (f instanceof HeapFile) {
+                ((HeapFile) f).getFreeSpaceMap().invalidate();
+            }
+        }
+    }
+
+    /**
+     * Decides whether recovery redoes an UPDATE or CLR record. Records from
+     * the last checkpoint on are always redone. An older record is only
+     * redone if its page was in the checkpoint's dirty page table and the
+     * record is not older than the page's recLSN; the page's file had every
+     * other change before the checkpoint.
+     */
+    private static boolean needsRedo(LogRecord r, long cpLoc, long redoStart, Map<PageId, Long> checkpointDirty) {
+        if (r.offset < redoStart) {
+            return false;
+        }
+        if (cpLoc == NO_CHECKPOINT_ID || r.offset >= cpLoc) {
+            return true;
+        }
+        Long recLsn = checkpointDirty.get(r.delta.getPageId());
+        return recLsn != null && r.offset >= recLsn;
+    }
+
+    /**
+     * Applies the deltas of UPDATE and CLR records to the pages on disk.
+     * The records of one page are applied in log order by one task, and the
+     * pages are spread over {@link #setRedoThreads} threads. The deltas hold
+     * the bytes of the page images, so applying one to a page that already
+     * contains it changes nothing, and no page LSN is needed to skip it.
+     */
+    private void redo(List<LogRecord> records) throws IOException {
+        LinkedHashMap<PageId, List<PageDelta>> byPage = new LinkedHashMap<>();
+        for (LogRecord r : records) {
+            PageId pid = r.delta.getPageId();
+            try {
+                Database.getCatalog().getDatabaseFile(pid.getTableId());
+            } catch (NoSuchElementException e) {
+                // a table that is not in the catalog any more
+                continue;
+            }
+            byPage.computeIfAbsent(pid, k -> new ArrayList<>()).add(r.delta);
+        }
+        if (byPage.isEmpty()) {
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(redoThreads, byPage.size())));
+        try {
+            ArrayList<Future<?>> done = new ArrayList<>();
+            for (List<PageDelta> deltas : byPage.values()) {
+                done.add(pool.submit(() -> {
+                    PageDelta first = deltas.get(0);
+                    Page page = readPage(first);
+                    for (PageDelta delta : deltas) {
+                        page = delta.redo(page);
+                    }
+                    Database.getCatalog().getDatabaseFile(first.getPageId().getTableId()).writePage(page);
+                    Database.getBufferPool().discardPage(first.getPageId());
+                    return null;
+                }));
             }
+            for (Future<?> f : done) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted during redo");
+        } catch (ExecutionException e) {
+            throw new IOException("redo failed", e.getCause());
+        } finally {
+            pool.shutdown();
         }
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        // some code goes here
+        synchronized (this) {
+            long position = log.getFilePointer();
+            log.seek(log.getStart());
+            System.out.println("checkpoint at " + readCheckpointLocation());
+            while (true) {
+                LogRecord r;
+                try {
+                    r = readRecord(log);
+                } catch (EOFException e) {
+                    break;
+                }
+                String[] names = {"?", "ABORT", "COMMIT", "UPDATE", "BEGIN", "CHECKPOINT", "CLR"};
+                String line = r.offset + ": " + names[r.type] + " tid " + r.tid;
+                if (r.delta != null) {
+                    line += " page " + r.delta.getPageId() + ", " + r.delta.numRanges() + " ranges";
+                }
+                if (r.type == CLR_RECORD) {
+                    line += ", undoes " + r.undone;
+                }
+                System.out.println(line);
+            }
+            log.seek(position);
+        }
     }
 
     public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        log.force();
+        // commits waiting for the flusher are durable now as well
+        commitsDurable(commitSeq);
     }
 
 }
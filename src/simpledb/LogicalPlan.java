@@ -36,6 +36,8 @@ public class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private int parallelism = Integer.getInteger("simpledb.parallelism", 1);
+    private int joinBlockPages = Join.DEFAULT_BLOCK_PAGES;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -66,6 +68,38 @@ public class LogicalPlan {
         return query;
     }
 
+    /** Set the number of threads the parallel parts of the physical plan run on.
+        Defaults to the system property simpledb.parallelism, or 1.
+
+        @param parallelism the number of threads; 1 for a plan without Exchanges
+        @see ExchangePlanner
+    */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /** Get the number of threads set with {@link #setParallelism}.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /** Set the memory a nested-loop join buffers its outer tuples in, which
+        the join optimizer also costs joins with. Defaults to
+        {@link Join#DEFAULT_BLOCK_PAGES}.
+
+        @param joinBlockPages the pages of outer tuples in a block
+    */
+    public void setJoinBlockPages(int joinBlockPages) {
+        this.joinBlockPages = joinBlockPages;
+    }
+
+    /** Get the block size set with {@link #setJoinBlockPages}.
+     */
+    public int getJoinBlockPages() {
+        return joinBlockPages;
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDatabaseFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -81,6 +115,16 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** Return true if a filter added via {@link #addFilter} applies to the table with the given alias.
+     */
+    boolean hasFilter(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                return true;
+        }
+        return false;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -273,6 +317,10 @@ public class LogicalPlan {
 
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   A join whose inner table is a B+ tree keyed on the join field looks up each outer tuple in the
+     *   tree when the outer input is estimated to be selective enough (see
+     *   {@link JoinOptimizer#prefersIndexJoin}).
+     *   With a parallelism above 1, {@link ExchangePlanner} then inserts Exchanges into the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -289,12 +337,17 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,Integer> cardinalities = new HashMap<String,Integer>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            OpIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 if (file instanceof BTreeFile)
+                     ss = new BTreeScan(t, file.getId(), table.alias, null);
+                 else
+                     ss = new SeqScan(t, file.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -349,6 +402,11 @@ public class LogicalPlan {
 
             joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+            for (LogicalScanNode table : tables) {
+                TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+                cardinalities.put(table.alias, s == null ? 0 : s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+            }
+
             Iterator<LogicalJoinNode> joinIt = joins.iterator();
             while (joinIt.hasNext()) {
                 LogicalJoinNode lj = joinIt.next();
@@ -382,9 +440,23 @@ public class LogicalPlan {
                 if (plan2 == null)
                     throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
                 
+                int card1 = cardinalities.get(t1name);
+                int card2 = 0;
+                double cost2 = 0;
+                TableStats s2 = isSubqueryJoin ? null
+                        : statsMap.get(Database.getCatalog().getTableName(this.getTableId(lj.t2Alias)));
+                if (s2 != null) {
+                    card2 = cardinalities.get(t2name);
+                    cost2 = s2.estimateScanCost();
+                }
+
                 OpIterator j;
-                j = jo.instantiateJoin(lj,plan1,plan2);
+                if (!isSubqueryJoin && plan2 instanceof BTreeScan && jo.prefersIndexJoin(lj, card1, card2, cost2))
+                    j = jo.instantiateIndexJoin(t, lj, plan1);
+                else
+                    j = jo.instantiateJoin(lj,plan1,plan2);
                 subplanMap.put(t1name, j);
+                cardinalities.put(t1name, jo.estimateJoinCardinality(lj, card1, card2, false, false, statsMap));
 
                 if (!isSubqueryJoin) {
                     subplanMap.remove(t2name);
@@ -479,7 +551,7 @@ public class LogicalPlan {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        return ExchangePlanner.parallelize(new Project(outFields, outTypes, node), parallelism);
     }
 
     public static void main(String argv[]) {
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the page whose
+ * K-th most recent reference lies furthest in the past. Pages referenced fewer
+ * than K times have an infinite backward K-distance and go first, oldest last
+ * reference first, which is what keeps a single sequential scan from flushing
+ * pages that are referenced over and over.
+ * <p>
+ * Pages are kept in a TreeSet ordered by (K-th reference, last reference), so a
+ * hit costs O(log n) and choosing a victim is O(log n) plus one step for every
+ * frame the filter rejects.
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    /**
+     * The K used by {@link #LruKReplacementPolicy()}; LRU-2 is the variant the
+     * paper recommends.
+     */
+    public static final int DEFAULT_K = 2;
+
+    private static class History implements Comparable<History> {
+        final PageId pid;
+        // times[0] is the most recent reference, times[k - 1] the K-th
+        final long[] times;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+
+        long kth() {
+            return times[times.length - 1];
+        }
+
+        public int compareTo(History o) {
+            int c = Long.compare(kth(), o.kth());
+            return c != 0 ? c : Long.compare(times[0], o.times[0]);
+        }
+    }
+
+    private final int k;
+    private final HashMap<PageId, History> histories = new HashMap<>();
+    private final TreeSet<History> order = new TreeSet<>();
+    // logical clock, strictly increasing so that no two histories compare equal
+    private long clock = 0;
+
+    public LruKReplacementPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of past references taken into account
+     */
+    public LruKReplacementPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1");
+        }
+        this.k = k;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (histories.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        History h = new History(pid, k);
+        h.times[0] = ++clock;
+        histories.put(pid, h);
+        order.add(h);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        History h = histories.get(pid);
+        if (h == null) {
+            return;
+        }
+        order.remove(h);
+        System.arraycopy(h.times, 0, h.times, 1, k - 1);
+        h.times[0] = ++clock;
+        order.add(h);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History h = histories.remove(pid);
+        if (h != null) {
+            order.remove(h);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable filter) {
+        Iterator<History> it = order.iterator();
+        while (it.hasNext()) {
+            History h = it.next();
+            if (filter.canEvict(h.pid)) {
+                it.remove();
+                histories.remove(h.pid);
+                return h.pid;
+            }
+        }
+        return null;
+    }
+}
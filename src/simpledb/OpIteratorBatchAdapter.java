@@ -0,0 +1,52 @@
+package simpledb;
+
+/**
+ * OpIteratorBatchAdapter turns the tuples of an OpIterator into batches, so
+ * that a tuple-at-a-time operator can feed a {@link BatchOpIterator}.
+ */
+public class OpIteratorBatchAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private final int capacity;
+    private transient ColumnBatch batch;
+
+    public OpIteratorBatchAdapter(OpIterator child) {
+        this(child, ColumnBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of tuples in a batch
+     */
+    public OpIteratorBatchAdapter(OpIterator child, int capacity) {
+        this.child = child;
+        this.capacity = capacity;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new ColumnBatch(child.getTupleDesc(), capacity);
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.add(child.next());
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -46,6 +48,17 @@ public interface Page {
 
     public byte[] getPageData();
 
+  /**
+   * Writes the same bytes as {@link #getPageData()} at the position of the
+   * specified buffer and advances it past them. Pages that can serialize
+   * themselves without building an intermediate array override this.
+   *
+   * @param buf the buffer to write to; must have room for the whole page
+   */
+    default void getPageData(ByteBuffer buf) {
+        buf.put(getPageData());
+    }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers shared by the pages that serialize themselves into a ByteBuffer.
+ */
+final class PageBuffers {
+
+    private static final byte[] ZEROES = new byte[4096];
+
+    private PageBuffers() {
+    }
+
+    /**
+     * Writes n zero bytes at the position of buf, without allocating.
+     */
+    static void putZeroes(ByteBuffer buf, int n) {
+        while (n > 0) {
+            int k = Math.min(n, ZEROES.length);
+            buf.put(ZEROES, 0, k);
+            n -= k;
+        }
+    }
+
+    /**
+     * Serializes a page into a new array of exactly pageSize bytes.
+     */
+    static byte[] toArray(Page page, int pageSize) {
+        byte[] data = new byte[pageSize];
+        page.getPageData(ByteBuffer.wrap(data));
+        return data;
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * PageChannel is the one FileChannel a DbFile keeps open on its backing
+ * file for its whole life. Pages are read and written with positional I/O,
+ * which does not move a shared file pointer, so concurrent readers and
+ * writers need no lock and every access costs one system call regardless of
+ * the page number.
+ * <p>
+ * The channel is opened on first use. An interrupted thread closes a
+ * FileChannel for every user, so a closed channel is reopened by the next
+ * caller.
+ *
+ * @Threadsafe
+ */
+public class PageChannel {
+
+    private final File f;
+    private volatile FileChannel channel;
+    // reused by every writePage call of a thread, so flushing allocates nothing
+    private static final ThreadLocal<ByteBuffer> PAGE_BUFFER = new ThreadLocal<>();
+
+    /**
+     * @param f the file to read and write; created on first use if missing
+     */
+    public PageChannel(File f) {
+        this.f = f;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Reads data.length bytes starting at position, or fewer if the file
+     * ends first.
+     *
+     * @return the number of bytes read
+     */
+    public int read(byte[] data, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            int n;
+            try {
+                n = channel().read(buf, position + buf.position());
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by another thread's interrupt; the next call reopens it
+                continue;
+            }
+            if (n < 0) {
+                break;
+            }
+        }
+        return buf.position();
+    }
+
+    /**
+     * Writes all of data starting at position, growing the file if needed.
+     */
+    public void write(byte[] data, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            try {
+                channel().write(buf, position + buf.position());
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by another thread's interrupt; the next call reopens it
+            }
+        }
+    }
+
+    /**
+     * Serializes page with {@link Page#getPageData(ByteBuffer)} into a
+     * per-thread buffer and writes it starting at position.
+     */
+    public void writePage(Page page, long position) throws IOException {
+        ByteBuffer buf = PAGE_BUFFER.get();
+        if (buf == null || buf.capacity() < BufferPool.getPageSize()) {
+            buf = ByteBuffer.allocateDirect(BufferPool.getPageSize());
+            PAGE_BUFFER.set(buf);
+        }
+        buf.clear();
+        page.getPageData(buf);
+        buf.flip();
+        while (buf.hasRemaining()) {
+            try {
+                channel().write(buf, position + buf.position());
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by another thread's interrupt; the next call reopens it
+            }
+        }
+    }
+
+    /**
+     * Writes data at the current end of the file. Appends are serialized, so
+     * two of them never land on the same offset.
+     *
+     * @return the offset data was written at
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long position = size();
+        write(data, position);
+        return position;
+    }
+
+    /**
+     * Maps a region of the file read-only. The mapping stays valid after the
+     * channel is closed, and it sees later writes made through this channel.
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * @return the current size of the file in bytes
+     */
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    /**
+     * Cuts the file down to size bytes; does nothing if it is not longer.
+     */
+    public void truncate(long size) throws IOException {
+        channel().truncate(size);
+    }
+
+    /**
+     * Closes the channel. A later access opens it again.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+
+/**
+ * PageDelta is the change one transaction made to one page, as the log
+ * stores it: the byte ranges in which the serialized page differs between
+ * its before and after image, each with its old and new bytes. Inserting
+ * or deleting a tuple changes a header bit and one slot, so it costs a few
+ * dozen bytes instead of two full page images.
+ * <p>
+ * The format written by {@link #write} is:
+ * <ul>
+ * <li> a byte page type tag; 0 is followed by the page class name
+ * <li> a byte page id type tag; 0 is followed by the id class name
+ * <li> an int count and the ints of {@link PageId#serialize}
+ * <li> an int count of ranges and, for each, an int offset and an int
+ * length, followed by the old and then the new bytes of the range
+ * </ul>
+ *
+ * @see LogFile#logWrite
+ */
+public class PageDelta {
+
+    // differing ranges this close together are stored as one
+    private static final int MERGE_GAP = 8;
+
+    // type tags; 0 means the class name is written out
+    private static final Class<?>[] PAGE_TYPES = {null, HeapPage.class, BTreeRootPtrPage.class,
+            BTreeInternalPage.class, BTreeLeafPage.class, BTreeHeaderPage.class};
+    private static final Class<?>[] ID_TYPES = {null, HeapPageId.class, BTreePageId.class};
+
+    private final Class<?> pageClass;
+    private final PageId pid;
+    private final int[] offsets;
+    private final int[] lengths;
+    // the old and the new bytes of all ranges, one after the other
+    private final byte[] before;
+    private final byte[] after;
+
+    private PageDelta(Class<?> pageClass, PageId pid, int[] offsets, int[] lengths,
+                      byte[] before, byte[] after) {
+        this.pageClass = pageClass;
+        this.pid = pid;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Computes the delta between two serialized images of a page.
+     * <p>
+     * A page whose before image is all zeros was just added to its file,
+     * maybe in place of a page that was freed. Its delta covers the whole
+     * page, so that redoing it also clears what an earlier use of the page
+     * left behind.
+     *
+     * @param page   the page; only its class and id are used
+     * @param before the before image, as written by getPageData
+     * @param after  the after image
+     * @param length the number of bytes of each image to compare
+     */
+    public static PageDelta diff(Page page, byte[] before, byte[] after, int length) {
+        if (isZero(before, length)) {
+            return new PageDelta(page.getClass(), page.getId(), new int[]{0}, new int[]{length},
+                    Arrays.copyOf(before, length), Arrays.copyOf(after, length));
+        }
+        int[] offsets = new int[4];
+        int[] lengths = new int[4];
+        int n = 0;
+        int total = 0;
+        int i = 0;
+        while (true) {
+            int start = Arrays.mismatch(before, i, length, after, i, length);
+            if (start < 0) {
+                break;
+            }
+            start += i;
+            // extend the range until MERGE_GAP equal bytes in a row
+            int end = start + 1;
+            int equal = 0;
+            for (int j = end; j < length && equal < MERGE_GAP; j++) {
+                if (before[j] == after[j]) {
+                    equal++;
+                } else {
+                    equal = 0;
+                    end = j + 1;
+                }
+            }
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, n * 2);
+                lengths = Arrays.copyOf(lengths, n * 2);
+            }
+            offsets[n] = start;
+            lengths[n] = end - start;
+            total += end - start;
+            n++;
+            i = end;
+            if (i >= length) {
+                break;
+            }
+        }
+
+        byte[] oldBytes = new byte[total];
+        byte[] newBytes = new byte[total];
+        int pos = 0;
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(before, offsets[r], oldBytes, pos, lengths[r]);
+            System.arraycopy(after, offsets[r], newBytes, pos, lengths[r]);
+            pos += lengths[r];
+        }
+        return new PageDelta(page.getClass(), page.getId(), Arrays.copyOf(offsets, n),
+                Arrays.copyOf(lengths, n), oldBytes, newBytes);
+    }
+
+    private static boolean isZero(byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            if (data[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the id of the page that changed
+     */
+    public PageId getPageId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of changed byte ranges
+     */
+    public int numRanges() {
+        return offsets.length;
+    }
+
+    /**
+     * @return the delta that reverts this one, as logged by a compensation
+     *         record when the change is undone
+     */
+    public PageDelta inverse() {
+        return new PageDelta(pageClass, pid, offsets, lengths, after, before);
+    }
+
+    /**
+     * Applies the change to a version of the page from before it.
+     *
+     * @return a new page with the after image of every range
+     */
+    public Page redo(Page page) throws IOException {
+        return newPage(patch(page.getPageData(), after));
+    }
+
+    /**
+     * Reverts the change on a version of the page from after it.
+     *
+     * @return a new page with the before image of every range
+     */
+    public Page undo(Page page) throws IOException {
+        return newPage(patch(page.getPageData(), before));
+    }
+
+    private byte[] patch(byte[] data, byte[] bytes) {
+        int pos = 0;
+        for (int r = 0; r < offsets.length; r++) {
+            System.arraycopy(bytes, pos, data, offsets[r], lengths[r]);
+            pos += lengths[r];
+        }
+        return data;
+    }
+
+    /**
+     * Builds a page of this delta's class and id from its serialized form.
+     */
+    Page newPage(byte[] data) throws IOException {
+        if (pageClass == HeapPage.class) {
+            return new HeapPage((HeapPageId) pid, data);
+        } else if (pageClass == BTreeRootPtrPage.class) {
+            return new BTreeRootPtrPage((BTreePageId) pid, data);
+        } else if (pageClass == BTreeInternalPage.class) {
+            return new BTreeInternalPage((BTreePageId) pid, data, keyField());
+        } else if (pageClass == BTreeLeafPage.class) {
+            return new BTreeLeafPage((BTreePageId) pid, data, keyField());
+        } else if (pageClass == BTreeHeaderPage.class) {
+            return new BTreeHeaderPage((BTreePageId) pid, data);
+        }
+        try {
+            Constructor<?> c = pageClass.getDeclaredConstructors()[0];
+            return (Page) c.newInstance(pid, data);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("cannot build a " + pageClass.getName(), e);
+        }
+    }
+
+    private int keyField() {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    /**
+     * Writes this delta in the format described above.
+     */
+    public void write(DataOutput out) throws IOException {
+        writeType(out, PAGE_TYPES, pageClass);
+        writePageId(out, pid);
+        out.writeInt(offsets.length);
+        int pos = 0;
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(lengths[r]);
+            out.write(before, pos, lengths[r]);
+            out.write(after, pos, lengths[r]);
+            pos += lengths[r];
+        }
+    }
+
+    /**
+     * Reads a delta written by {@link #write}.
+     */
+    public static PageDelta read(DataInput in) throws IOException {
+        Class<?> pageClass = readType(in, PAGE_TYPES);
+        PageId pid = readPageId(in);
+
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        int[] lengths = new int[n];
+        byte[][] old = new byte[n][];
+        byte[][] neu = new byte[n][];
+        int total = 0;
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            lengths[r] = in.readInt();
+            old[r] = new byte[lengths[r]];
+            in.readFully(old[r]);
+            neu[r] = new byte[lengths[r]];
+            in.readFully(neu[r]);
+            total += lengths[r];
+        }
+        byte[] before = new byte[total];
+        byte[] after = new byte[total];
+        int pos = 0;
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(old[r], 0, before, pos, lengths[r]);
+            System.arraycopy(neu[r], 0, after, pos, lengths[r]);
+            pos += lengths[r];
+        }
+        return new PageDelta(pageClass, pid, offsets, lengths, before, after);
+    }
+
+    /**
+     * Writes a page id: a byte id type tag, as described above, and the
+     * ints of {@link PageId#serialize} with their count.
+     */
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        writeType(out, ID_TYPES, pid.getClass());
+        int[] idData = pid.serialize();
+        out.writeInt(idData.length);
+        for (int v : idData) {
+            out.writeInt(v);
+        }
+    }
+
+    /**
+     * Reads a page id written by {@link #writePageId}.
+     */
+    static PageId readPageId(DataInput in) throws IOException {
+        Class<?> idClass = readType(in, ID_TYPES);
+        int[] idData = new int[in.readInt()];
+        for (int i = 0; i < idData.length; i++) {
+            idData[i] = in.readInt();
+        }
+        if (idClass == HeapPageId.class) {
+            return new HeapPageId(idData[0], idData[1]);
+        } else if (idClass == BTreePageId.class) {
+            return new BTreePageId(idData[0], idData[1], idData[2]);
+        }
+        try {
+            Object[] args = new Object[idData.length];
+            for (int i = 0; i < idData.length; i++) {
+                args[i] = idData[i];
+            }
+            return (PageId) idClass.getDeclaredConstructors()[0].newInstance(args);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("cannot build a " + idClass.getName(), e);
+        }
+    }
+
+    private static void writeType(DataOutput out, Class<?>[] types, Class<?> type) throws IOException {
+        for (int tag = 1; tag < types.length; tag++) {
+            if (types[tag] == type) {
+                out.writeByte(tag);
+                return;
+            }
+        }
+        out.writeByte(0);
+        out.writeUTF(type.getName());
+    }
+
+    private static Class<?> readType(DataInput in, Class<?>[] types) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag != 0) {
+            if (tag >= types.length) {
+                throw new IOException("unknown type tag " + tag);
+            }
+            return types[tag];
+        }
+        String name = in.readUTF();
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("unknown class " + name, e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageDeltaTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws IOException {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    private static PageDelta diff(Page before, Page after) {
+        byte[] b = before.getPageData();
+        return PageDelta.diff(after, b, after.getPageData(), b.length);
+    }
+
+    private static PageDelta roundTrip(PageDelta delta) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        delta.write(new DataOutputStream(bytes));
+        return PageDelta.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    /**
+     * Unit test for PageDelta.redo() and undo() after a delete and an insert
+     */
+    @Test public void redoUndo() throws Exception {
+        HeapPage before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage after = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = after.iterator();
+        after.deleteTuple(it.next());
+        after.insertTuple(Utility.getHeapTuple(42, 2));
+        after.insertTuple(Utility.getHeapTuple(43, 2));
+
+        PageDelta delta = roundTrip(diff(before, after));
+        assertEquals(pid, delta.getPageId());
+        assertArrayEquals(after.getPageData(), delta.redo(before).getPageData());
+        assertArrayEquals(before.getPageData(), delta.undo(after).getPageData());
+    }
+
+    /**
+     * Unit test for PageDelta.diff() of identical pages
+     */
+    @Test public void noChange() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        PageDelta delta = roundTrip(diff(page, page));
+        assertEquals(0, delta.numRanges());
+        assertArrayEquals(page.getPageData(), delta.redo(page).getPageData());
+    }
+
+    /**
+     * A one-tuple insert is logged in far less than a page.
+     */
+    @Test public void logWriteSize() throws Exception {
+        HeapPage before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage after = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        after.insertTuple(Utility.getHeapTuple(42, 2));
+
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long start = log.currentOffset;
+        log.logWrite(tid, before, after);
+        long size = log.currentOffset - start;
+        log.logCommit(tid);
+        assertTrue("update record of " + size + " bytes", size < 100);
+    }
+
+    /**
+     * The update records of a transaction that is still running when a
+     * checkpoint truncates the log are copied to the new log.
+     */
+    @Test public void truncateKeepsUpdates() throws Exception {
+        HeapPage before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage after = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        after.insertTuple(Utility.getHeapTuple(42, 2));
+
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, before, after);
+        long end = log.currentOffset;
+        log.logCheckpoint();
+        assertTrue(log.currentOffset > end);
+        log.logCommit(tid);
+    }
+
+    /**
+     * A page written after one update stays in the dirty page table if it
+     * is updated again before it is reported as written.
+     */
+    @Test public void pageWrittenKeepsLaterUpdate() throws Exception {
+        HeapPage before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage after = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        after.insertTuple(Utility.getHeapTuple(42, 2));
+
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long first = log.currentOffset;
+        log.logWrite(tid, before, after);
+        long written = log.lastUpdateLsn();
+        assertEquals(first, written);
+        assertEquals(Long.valueOf(first), log.recLsn(pid));
+
+        log.logWrite(tid, after, before);
+        log.pageWritten(pid, written);
+        assertEquals(Long.valueOf(first), log.recLsn(pid));
+        log.pageWritten(pid, log.lastUpdateLsn());
+        assertNull(log.recLsn(pid));
+        log.logCommit(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
@@ -0,0 +1,221 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan reads the tuples of a table, as SeqScan does, on several
+ * worker threads at once. The workers take turns claiming the next range of
+ * pages of the heap file, so that a worker that falls behind (on a slow
+ * page read, say) holds up no one; they can filter the tuples they read
+ * with a predicate, which spreads a CPU-bound selection over the workers
+ * too. The tuples go to the operator above in batches through a bounded
+ * {@link ExchangeQueue}, in no particular order.
+ * <p>
+ * The workers read their pages as part of the scan's transaction, so the
+ * locks they take are released with the rest of its locks. Closing the
+ * scan waits for the workers to stop, so no page is locked after close()
+ * returns.
+ */
+public class ParallelSeqScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of tuples the workers put on the queue at a time.
+     */
+    public static final int BATCH_SIZE = 256;
+    // the batches the queue holds per worker
+    private static final int QUEUE_BATCHES = 4;
+    // the most pages a worker claims at once; fewer for small tables, so
+    // that each worker gets several ranges
+    private static final int MAX_RANGE_PAGES = 64;
+    private static final int RANGES_PER_WORKER = 4;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final Predicate predicate;
+    private final int workers;
+    private final HeapFile heapFile;
+    private final TupleDesc td;
+
+    private transient ExchangeQueue queue;
+    private transient List<Future<?>> running;
+    private transient Iterator<Tuple> batch;
+
+    /**
+     * Creates a scan of the table on the given number of worker threads.
+     *
+     * @param tid        the transaction this scan is running as a part of
+     * @param tableid    the table to scan
+     * @param tableAlias the alias of the table, as for SeqScan
+     * @param workers    the number of threads scanning the table
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int workers) {
+        this(tid, tableid, tableAlias, null, workers);
+    }
+
+    /**
+     * Creates a scan of the table on the given number of worker threads,
+     * returning only the tuples that pass predicate.
+     *
+     * @param predicate the predicate the workers filter tuples with, or null
+     *                  to return them all
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, Predicate predicate, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("a scan needs at least one worker");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.predicate = predicate;
+        this.workers = workers;
+        this.heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.td = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the predicate the workers filter with, or null
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        start();
+    }
+
+    private void start() {
+        int numPages = heapFile.numPages();
+        int rangePages = Math.max(1, Math.min(MAX_RANGE_PAGES,
+                (numPages + workers * RANGES_PER_WORKER - 1) / (workers * RANGES_PER_WORKER)));
+        AtomicInteger nextPage = new AtomicInteger();
+        BufferPool bufferPool = Database.getBufferPool();
+        queue = new ExchangeQueue(workers * QUEUE_BATCHES, workers);
+        running = new ArrayList<>(workers);
+        batch = null;
+        for (int i = 0; i < workers; i++) {
+            BufferRing ring = bufferPool.ringFor(numPages);
+            ExchangeQueue out = queue;
+            running.add(Exchange.WORKERS.submit(() -> scanRanges(out, nextPage, rangePages, numPages, ring)));
+        }
+    }
+
+    /**
+     * The work of one worker: claims ranges of pages until there are none
+     * left and puts the tuples on them that pass the predicate on the queue.
+     */
+    private void scanRanges(ExchangeQueue out, AtomicInteger nextPage, int rangePages, int numPages,
+                            BufferRing ring) {
+        try {
+            ArrayList<Tuple> tuples = new ArrayList<>(BATCH_SIZE);
+            int first;
+            while ((first = nextPage.getAndAdd(rangePages)) < numPages) {
+                DbFileIterator it = heapFile.iterator(tid, ring, first, first + rangePages);
+                it.open();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (predicate != null && !predicate.filter(t)) {
+                        continue;
+                    }
+                    tuples.add(t);
+                    if (tuples.size() == BATCH_SIZE) {
+                        if (!out.put(tuples)) {
+                            return;
+                        }
+                        tuples = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                it.close();
+            }
+            if (!tuples.isEmpty() && !out.put(tuples)) {
+                return;
+            }
+            out.producerDone();
+        } catch (Exception e) {
+            out.fail(e);
+        }
+    }
+
+    /**
+     * Stops the workers and waits for them to finish.
+     */
+    private void stop() {
+        if (queue == null) {
+            return;
+        }
+        queue.close();
+        boolean interrupted = false;
+        for (Future<?> f : running) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        queue = null;
+        running = null;
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || !batch.hasNext()) {
+            List<Tuple> next = queue.take();
+            if (next == null) {
+                return null;
+            }
+            batch = next.iterator();
+        }
+        return batch.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -66,24 +66,21 @@ public class Predicate implements Serializable {
      * @return the field number
      */
     public int getField() {
-        // some code goes here
-        return -1;
+        return field;
     }
 
     /**
      * @return the operator
      */
     public Op getOp() {
-        // some code goes here
-        return null;
+        return op;
     }
 
     /**
      * @return the operand
      */
     public Field getOperand() {
-        // some code goes here
-        return null;
+        return operand;
     }
 
     /**
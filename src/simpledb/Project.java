@@ -45,6 +45,17 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return a projection of the same fields of another child
+     */
+    Project withChild(OpIterator child) {
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+        }
+        return new Project(outFieldIds, types, child);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * ReadAhead follows one scan through a file and has the BufferPool
+ * prefetch the pages the scan will read next, so that the scan finds them
+ * cached instead of waiting for a read on every page.
+ * <p>
+ * The scan reads its pages through {@link #getPage}. Once it has read two
+ * pages, the next {@link #MIN_WINDOW} pages are read ahead, found with the
+ * scan's next function: the following page number of a heap file, or the
+ * right sibling of a B+ tree leaf. Whenever the scan has used up half of
+ * what was read ahead and the last prefetch is done, the next window is
+ * read ahead, twice as large as the one before, up to
+ * {@link BufferPool#getReadAhead}. A page that was read ahead but evicted
+ * again before the scan got to it halves the window.
+ * <p>
+ * A scan that runs through a {@link BufferRing} reads ahead into the ring,
+ * at most half of it at a time.
+ * <p>
+ * Not thread-safe; each scan has its own.
+ */
+public class ReadAhead {
+
+    /**
+     * The pages read ahead when a scan is detected.
+     */
+    public static final int MIN_WINDOW = 4;
+
+    private final TransactionId tid;
+    private final Function<Page, PageId> next;
+    private final BufferRing ring;
+    private int reads;
+    private int window;
+    // pages read ahead that the scan has not got to yet
+    private int ahead;
+    // the last prefetch; yields the page after the ones it read
+    private Future<PageId> pending;
+
+    /**
+     * @param tid  the transaction of the scan
+     * @param next gives the page the scan reads after a page, or null
+     */
+    public ReadAhead(TransactionId tid, Function<Page, PageId> next) {
+        this(tid, next, null);
+    }
+
+    /**
+     * @param tid  the transaction of the scan
+     * @param next gives the page the scan reads after a page, or null
+     * @param ring the ring the scan reads its pages into, or null
+     */
+    public ReadAhead(TransactionId tid, Function<Page, PageId> next, BufferRing ring) {
+        this.tid = tid;
+        this.next = next;
+        this.ring = ring;
+    }
+
+    /**
+     * Gets a page for the scan with READ_ONLY permissions, as
+     * {@link BufferPool#getPage} does, and reads ahead of it.
+     */
+    public Page getPage(PageId pid) throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        int max = bufferPool.getReadAhead();
+        if (ring != null) {
+            max = Math.min(max, ring.capacity() / 2);
+        }
+        if (max <= 0) {
+            return bufferPool.getPage(tid, pid, Permissions.READ_ONLY, ring);
+        }
+        if (ahead > 0 && pending.isDone() && !bufferPool.isCached(pid)) {
+            // read ahead too far for the pool
+            window = Math.max(Math.min(MIN_WINDOW, max), window / 2);
+        }
+        Page page = bufferPool.getPage(tid, pid, Permissions.READ_ONLY, ring);
+        reads++;
+        if (ahead > 0) {
+            ahead--;
+        }
+        if (reads < 2 || ahead > window / 2 || (pending != null && !pending.isDone())) {
+            return page;
+        }
+
+        PageId start = ahead > 0 ? resultOf(pending) : next.apply(page);
+        if (start != null) {
+            window = window == 0 ? Math.min(MIN_WINDOW, max) : Math.min(window * 2, max);
+            pending = bufferPool.prefetch(start, window, next, ring);
+            ahead += window;
+        }
+        return page;
+    }
+
+    private static PageId resultOf(Future<PageId> done) {
+        try {
+            return done.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
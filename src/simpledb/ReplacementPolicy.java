@@ -0,0 +1,70 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The BufferPool reports every load, hit and removal
+ * of a page, and asks for a victim when it is full.
+ * <p>
+ * A policy only tracks PageIds; it never touches the pages themselves. The
+ * BufferPool passes an {@link Evictable} filter to {@link #chooseVictim} so
+ * that dirty pages (NO STEAL) and pages the pool wants to keep pinned are
+ * skipped without the policy having to know why.
+ * <p>
+ * Each page table partition of the BufferPool has a policy of its own.
+ * The pool calls {@link #pageLoaded}, {@link #pageRemoved} and
+ * {@link #chooseVictim} with the partition's latch held, but reports most
+ * hits without it, so {@link #pageAccessed} may run concurrently with any
+ * of the methods, itself included. Implementations must be safe under
+ * that; a hit may be lost or credited to the page that took over a frame
+ * meanwhile, but must not corrupt the policy's state.
+ *
+ * @see BufferPool#BufferPool(int, java.util.function.IntFunction)
+ * @see BufferPool#BufferPool(int, int, java.util.function.IntFunction)
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Filter used to skip frames that may not be evicted right now.
+     */
+    interface Evictable {
+        /**
+         * @return true if the page with this id may be evicted
+         */
+        boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called once when a page is read into the buffer pool.
+     *
+     * @param pid the id of the page that became resident
+     */
+    void pageLoaded(PageId pid);
+
+    /**
+     * Called every time a resident page is returned from the buffer pool,
+     * possibly concurrently with the other methods.
+     *
+     * @param pid the id of the page that was hit
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool for any reason other than
+     * being chosen by {@link #chooseVictim} (discarded, flushed and dropped).
+     * Must be a no-op for pages the policy does not know about.
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Choose a resident page to evict, skipping every page rejected by the
+     * filter. The chosen page is forgotten by the policy before it is
+     * returned.
+     *
+     * @param filter tells which pages may be evicted
+     * @return the id of the page to evict, or null if no resident page is
+     * evictable
+     */
+    PageId chooseVictim(Evictable filter);
+}
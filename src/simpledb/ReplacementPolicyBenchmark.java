@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Replays a mixed workload (a small hot set plus a long sequential scan)
+ * against each replacement policy and prints its hit ratio and the average
+ * time spent choosing a victim. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.ReplacementPolicyBenchmark [accesses]
+ * </pre>
+ */
+public class ReplacementPolicyBenchmark {
+
+    public static void main(String[] args) {
+        final int frames = 64;
+        final int hotPages = 32;
+        final int accesses = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        ReplacementPolicy[] policies = {
+                new FifoReplacementPolicy(),
+                new ClockReplacementPolicy(frames),
+                new LruKReplacementPolicy(),
+                new TwoQueueReplacementPolicy(frames)
+        };
+        for (ReplacementPolicy policy : policies) {
+            Random rand = new Random(42);
+            HashSet<PageId> resident = new HashSet<>();
+            int hits = 0;
+            int misses = 0;
+            long evictNanos = 0;
+            int scanPos = 0;
+            for (int i = 0; i < accesses; i++) {
+                PageId pid;
+                if (rand.nextInt(10) < 7) {
+                    pid = new HeapPageId(1, rand.nextInt(hotPages));
+                } else {
+                    pid = new HeapPageId(1, hotPages + (scanPos++ % 100000));
+                }
+                if (resident.contains(pid)) {
+                    hits++;
+                    policy.pageAccessed(pid);
+                    continue;
+                }
+                misses++;
+                if (resident.size() == frames) {
+                    long start = System.nanoTime();
+                    PageId victim = policy.chooseVictim(p -> true);
+                    evictNanos += System.nanoTime() - start;
+                    resident.remove(victim);
+                }
+                resident.add(pid);
+                policy.pageLoaded(pid);
+            }
+            System.out.printf("%s: hit ratio %.3f, %d ns per miss%n",
+                    policy.getClass().getSimpleName(), (double) hits / accesses,
+                    evictNanos / Math.max(misses, 1));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.Evictable ALL = pid -> true;
+    private static final ReplacementPolicy.Evictable NONE = pid -> false;
+
+    private static HeapPageId page(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    private static ReplacementPolicy[] allPolicies(int numPages) {
+        return new ReplacementPolicy[]{
+                new FifoReplacementPolicy(),
+                new ClockReplacementPolicy(numPages),
+                new LruKReplacementPolicy(),
+                new TwoQueueReplacementPolicy(numPages)
+        };
+    }
+
+    /**
+     * Every policy returns each resident page exactly once and then null.
+     */
+    @Test public void drainsResidentPages() {
+        for (ReplacementPolicy policy : allPolicies(8)) {
+            for (int i = 0; i < 8; i++) {
+                policy.pageLoaded(page(i));
+            }
+            HashSet<PageId> victims = new HashSet<>();
+            for (int i = 0; i < 8; i++) {
+                PageId victim = policy.chooseVictim(ALL);
+                assertTrue(policy.getClass().getSimpleName(), victims.add(victim));
+            }
+            assertNull(policy.chooseVictim(ALL));
+        }
+    }
+
+    /**
+     * Pages rejected by the filter (e.g. dirty pages) are never chosen, and
+     * removed pages are forgotten.
+     */
+    @Test public void skipsRejectedAndRemovedPages() {
+        for (ReplacementPolicy policy : allPolicies(4)) {
+            for (int i = 0; i < 4; i++) {
+                policy.pageLoaded(page(i));
+            }
+            assertNull(policy.chooseVictim(NONE));
+            policy.pageRemoved(page(0));
+            assertEquals(page(2), policy.chooseVictim(pid -> pid.getPageNumber() >= 2));
+            assertEquals(page(3), policy.chooseVictim(pid -> pid.getPageNumber() != 1));
+            assertNull(policy.chooseVictim(pid -> pid.getPageNumber() != 1));
+        }
+    }
+
+    @Test public void clockGivesSecondChance() {
+        ClockReplacementPolicy clock = new ClockReplacementPolicy(3);
+        clock.pageLoaded(page(1));
+        clock.pageLoaded(page(2));
+        clock.pageLoaded(page(3));
+        // the first sweep clears every reference bit
+        assertEquals(page(1), clock.chooseVictim(ALL));
+        clock.pageLoaded(page(4));
+        clock.pageAccessed(page(2));
+        assertEquals(page(3), clock.chooseVictim(ALL));
+    }
+
+    @Test public void lruKPrefersPagesWithFewReferences() {
+        LruKReplacementPolicy lru2 = new LruKReplacementPolicy(2);
+        lru2.pageLoaded(page(1));
+        lru2.pageLoaded(page(2));
+        lru2.pageLoaded(page(3));
+        lru2.pageAccessed(page(1));
+        lru2.pageAccessed(page(2));
+        assertEquals(page(3), lru2.chooseVictim(ALL));
+        // page 1 has the oldest second-to-last reference
+        assertEquals(page(1), lru2.chooseVictim(ALL));
+    }
+
+    @Test public void twoQueuePromotesGhostHits() {
+        TwoQueueReplacementPolicy twoQ = new TwoQueueReplacementPolicy(1, 2);
+        twoQ.pageLoaded(page(1));
+        twoQ.pageLoaded(page(2));
+        assertEquals(page(1), twoQ.chooseVictim(ALL));
+        // page 1 is still remembered in A1out, so it goes to Am this time
+        twoQ.pageLoaded(page(1));
+        twoQ.pageLoaded(page(3));
+        assertEquals(page(2), twoQ.chooseVictim(ALL));
+        assertEquals(page(1), twoQ.chooseVictim(ALL));
+        assertEquals(page(3), twoQ.chooseVictim(ALL));
+    }
+
+    /**
+     * Replays a mixed workload (a small hot set plus a long sequential scan)
+     * against each policy. Every scan-resistant policy must have a better
+     * hit ratio than FIFO.
+     */
+    @Test public void scanResistantPoliciesBeatFifo() {
+        final int frames = 64;
+        final int hotPages = 32;
+        final int accesses = 20000;
+        double fifoRatio = 0;
+        for (ReplacementPolicy policy : allPolicies(frames)) {
+            Random rand = new Random(42);
+            HashSet<PageId> resident = new HashSet<>();
+            int hits = 0;
+            int scanPos = 0;
+            for (int i = 0; i < accesses; i++) {
+                PageId pid;
+                if (rand.nextInt(10) < 7) {
+                    pid = page(rand.nextInt(hotPages));
+                } else {
+                    pid = page(hotPages + (scanPos++ % 100000));
+                }
+                if (resident.contains(pid)) {
+                    hits++;
+                    policy.pageAccessed(pid);
+                    continue;
+                }
+                if (resident.size() == frames) {
+                    resident.remove(policy.chooseVictim(ALL));
+                }
+                resident.add(pid);
+                policy.pageLoaded(pid);
+            }
+            double ratio = (double) hits / accesses;
+            if (policy instanceof FifoReplacementPolicy) {
+                fifoRatio = ratio;
+            } else {
+                assertTrue(policy.getClass().getSimpleName() + " should beat FIFO", ratio > fifoRatio);
+            }
+        }
+    }
+
+    /**
+     * Hits are reported without the BufferPool's latch, so they race with
+     * loads, removals and evictions. No policy may fail or lose track of
+     * its resident pages because of them.
+     */
+    @Test public void concurrentHitsDoNotCorruptPolicies() throws Exception {
+        final int frames = 16;
+        for (ReplacementPolicy policy : allPolicies(frames)) {
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread[] hitters = new Thread[4];
+            AtomicBoolean done = new AtomicBoolean();
+            for (int i = 0; i < hitters.length; i++) {
+                final long seed = i;
+                hitters[i] = new Thread(() -> {
+                    Random rand = new Random(seed);
+                    try {
+                        while (!done.get()) {
+                            policy.pageAccessed(page(rand.nextInt(4 * frames)));
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                });
+                hitters[i].start();
+            }
+            // the latched calls, made by one thread as under a partition latch
+            HashSet<PageId> resident = new HashSet<>();
+            Random rand = new Random(42);
+            try {
+                for (int i = 0; i < 50000; i++) {
+                    PageId pid = page(rand.nextInt(4 * frames));
+                    if (resident.contains(pid)) {
+                        if (rand.nextInt(4) == 0) {
+                            policy.pageRemoved(pid);
+                            resident.remove(pid);
+                        }
+                        continue;
+                    }
+                    if (resident.size() == frames) {
+                        PageId victim = policy.chooseVictim(ALL);
+                        assertTrue(policy.getClass().getSimpleName(), resident.remove(victim));
+                    }
+                    policy.pageLoaded(pid);
+                    resident.add(pid);
+                }
+            } finally {
+                done.set(true);
+                for (Thread hitter : hitters) {
+                    hitter.join();
+                }
+            }
+            assertNull(String.valueOf(error.get()), error.get());
+            while (!resident.isEmpty()) {
+                assertTrue(policy.getClass().getSimpleName(), resident.remove(policy.chooseVictim(ALL)));
+            }
+            assertNull(policy.chooseVictim(ALL));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,493 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SegmentedLog is the storage of the {@link LogFile}: a byte sequence
+ * addressed by logical sequence numbers (LSNs) that is kept in fixed-size
+ * segment files. Segment n holds the bytes from n * segmentSize on and is
+ * stored in a file named after the log, a dot and n in twelve digits
+ * (log.000000000003). An LSN stays valid for as long as its segment exists,
+ * so {@link #deleteBefore} reclaims space by deleting whole segments
+ * without moving or rewriting the bytes that are kept.
+ * <p>
+ * It is read and written like a RandomAccessFile, through a position set
+ * with {@link #seek}. Bytes appended at the end are buffered and only
+ * written to the segment files when the buffer fills, when they are read
+ * back, and by {@link #flush} or {@link #force}.
+ * <p>
+ * Not threadsafe; LogFile calls it while it holds its own lock.
+ */
+public class SegmentedLog implements DataInput, DataOutput {
+
+    /** Size of a segment file unless another is given to the constructor. */
+    public static final long DEFAULT_SEGMENT_SIZE = 16L << 20;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File base;
+    private final long segmentSize;
+    // open segment files by segment number
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();
+
+    private long start; // first LSN still stored, at a segment boundary
+    private long end; // LSN after the last byte, including buffered bytes
+    private long syncedEnd; // every byte before this LSN has been forced
+    private long position;
+
+    // bytes appended but not yet written to the segment files; they end at end
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // bytes read ahead from the segment files, from LSN readStart on
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long readStart = -1;
+
+    private final byte[] scratch = new byte[8];
+
+    /**
+     * Opens the segments of the log named by base, or an empty log if
+     * there are none.
+     *
+     * @param base        the name of the log; its segment files are next to it
+     * @param segmentSize the number of bytes per segment file
+     */
+    public SegmentedLog(File base, long segmentSize) throws IOException {
+        this.base = base.getAbsoluteFile();
+        this.segmentSize = segmentSize;
+        String prefix = this.base.getName() + ".";
+        File[] files = this.base.getParentFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.length() == prefix.length() + 12 && name.startsWith(prefix)
+                        && name.substring(prefix.length()).chars().allMatch(Character::isDigit)) {
+                    long n = Long.parseLong(name.substring(prefix.length()));
+                    segments.put(n, FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE));
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            start = segments.firstKey() * segmentSize;
+            end = segments.lastKey() * segmentSize + segments.lastEntry().getValue().size();
+        }
+        syncedEnd = end;
+    }
+
+    private File segmentFile(long n) {
+        return new File(base.getPath() + String.format(".%012d", n));
+    }
+
+    private FileChannel segment(long n) throws IOException {
+        FileChannel channel = segments.get(n);
+        if (channel == null) {
+            channel = FileChannel.open(segmentFile(n).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(n, channel);
+        }
+        return channel;
+    }
+
+    /**
+     * @return the first LSN that is still stored
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the LSN after the last byte of the log
+     */
+    public long length() {
+        return end;
+    }
+
+    public long getFilePointer() {
+        return position;
+    }
+
+    public void seek(long lsn) {
+        position = lsn;
+    }
+
+    /**
+     * Cuts the log off at newLength, which must not be beyond its end.
+     * Recovery uses it to drop a record that a crash left incomplete.
+     */
+    public void setLength(long newLength) throws IOException {
+        if (newLength > end) {
+            throw new IOException("cannot extend the log from " + end + " to " + newLength);
+        }
+        flush();
+        long last = newLength == 0 ? -1 : (newLength - 1) / segmentSize;
+        for (Map.Entry<Long, FileChannel> e : new ArrayList<>(segments.tailMap(last, false).entrySet())) {
+            deleteSegment(e.getKey());
+        }
+        if (segments.containsKey(last)) {
+            segments.get(last).truncate(newLength - last * segmentSize);
+        }
+        end = newLength;
+        start = Math.min(start, end);
+        syncedEnd = Math.min(syncedEnd, end);
+        position = Math.min(position, end);
+        readStart = -1;
+    }
+
+    /**
+     * Deletes every segment file and starts the log over at LSN 0.
+     */
+    public void reset() throws IOException {
+        for (long n : new ArrayList<>(segments.keySet())) {
+            deleteSegment(n);
+        }
+        start = end = syncedEnd = position = 0;
+        writeBuffer.clear();
+        readStart = -1;
+    }
+
+    /**
+     * Deletes the segments that only hold bytes before lsn. The segment
+     * that contains lsn is kept whole, so the log may still start a little
+     * before it.
+     */
+    public void deleteBefore(long lsn) throws IOException {
+        long first = Math.min(lsn, end) / segmentSize;
+        for (long n : new ArrayList<>(segments.headMap(first, false).keySet())) {
+            deleteSegment(n);
+        }
+        start = Math.max(start, first * segmentSize);
+        if (readStart >= 0 && readStart < start) {
+            readStart = -1;
+        }
+    }
+
+    private void deleteSegment(long n) throws IOException {
+        FileChannel channel = segments.remove(n);
+        if (channel != null) {
+            channel.close();
+        }
+        segmentFile(n).delete();
+    }
+
+    /**
+     * Writes the buffered bytes to the segment files, without forcing them.
+     *
+     * @return the LSN up to which the segment files now hold the log
+     */
+    public long flush() throws IOException {
+        if (writeBuffer.position() > 0) {
+            writeBuffer.flip();
+            writeAt(end - writeBuffer.remaining(), writeBuffer);
+            writeBuffer.clear();
+        }
+        return end;
+    }
+
+    /**
+     * @return the segment files that may hold bytes that were not forced;
+     *         forcing them and then calling {@link #synced} with the result
+     *         of the {@link #flush} before makes those bytes durable
+     */
+    public List<FileChannel> unsyncedSegments() {
+        if (syncedEnd >= end) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(segments.tailMap(syncedEnd / segmentSize, true).values());
+    }
+
+    /**
+     * Records that every byte before lsn has been forced.
+     */
+    public void synced(long lsn) {
+        syncedEnd = Math.max(syncedEnd, Math.min(lsn, end));
+    }
+
+    /**
+     * Flushes the buffered bytes and forces every segment file that may
+     * hold bytes that were not forced yet.
+     */
+    public void force() throws IOException {
+        long upTo = flush();
+        for (FileChannel channel : unsyncedSegments()) {
+            channel.force(true);
+        }
+        synced(upTo);
+    }
+
+    public void close() throws IOException {
+        flush();
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+        segments.clear();
+    }
+
+    private void writeAt(long lsn, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            long n = lsn / segmentSize;
+            long offset = lsn - n * segmentSize;
+            int len = (int) Math.min(src.remaining(), segmentSize - offset);
+            ByteBuffer part = src.slice();
+            part.limit(len);
+            FileChannel channel = segment(n);
+            while (part.hasRemaining()) {
+                channel.write(part, offset + part.position());
+            }
+            src.position(src.position() + len);
+            lsn += len;
+        }
+    }
+
+    private void readAt(long lsn, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            long n = lsn / segmentSize;
+            long offset = lsn - n * segmentSize;
+            int len = (int) Math.min(dst.remaining(), segmentSize - offset);
+            ByteBuffer part = dst.slice();
+            part.limit(len);
+            FileChannel channel = segments.get(n);
+            if (channel == null) {
+                throw new IOException("log segment " + n + " is missing");
+            }
+            while (part.hasRemaining()) {
+                if (channel.read(part, offset + part.position()) < 0) {
+                    throw new EOFException("log segment " + n + " is short");
+                }
+            }
+            dst.position(dst.position() + len);
+            lsn += len;
+        }
+    }
+
+    // DataOutput
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (position != end) {
+            // not an append: write in place
+            flush();
+            writeAt(position, ByteBuffer.wrap(b, off, len));
+            position += len;
+            end = Math.max(end, position);
+            readStart = -1;
+            return;
+        }
+        while (len > 0) {
+            int n = Math.min(len, writeBuffer.remaining());
+            writeBuffer.put(b, off, n);
+            off += n;
+            len -= n;
+            end += n;
+            if (!writeBuffer.hasRemaining()) {
+                flush();
+            }
+        }
+        position = end;
+    }
+
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    public void write(int b) throws IOException {
+        scratch[0] = (byte) b;
+        write(scratch, 0, 1);
+    }
+
+    public void writeBoolean(boolean v) throws IOException {
+        write(v ? 1 : 0);
+    }
+
+    public void writeByte(int v) throws IOException {
+        write(v);
+    }
+
+    public void writeShort(int v) throws IOException {
+        scratch[0] = (byte) (v >>> 8);
+        scratch[1] = (byte) v;
+        write(scratch, 0, 2);
+    }
+
+    public void writeChar(int v) throws IOException {
+        writeShort(v);
+    }
+
+    public void writeInt(int v) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            scratch[i] = (byte) (v >>> (24 - 8 * i));
+        }
+        write(scratch, 0, 4);
+    }
+
+    public void writeLong(long v) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            scratch[i] = (byte) (v >>> (56 - 8 * i));
+        }
+        write(scratch, 0, 8);
+    }
+
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    public void writeBytes(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    public void writeChars(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(s);
+        write(bytes.toByteArray());
+    }
+
+    // DataInput
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        if (position < start) {
+            throw new IOException("LSN " + position + " was deleted; the log starts at " + start);
+        }
+        if (position + len > end) {
+            throw new EOFException("read past the end of the log at " + end);
+        }
+        if (position + len > end - writeBuffer.position()) {
+            flush();
+        }
+        while (len > 0) {
+            if (readStart < 0 || position < readStart || position >= readStart + readBuffer.limit()) {
+                if (len >= BUFFER_SIZE) {
+                    readAt(position, ByteBuffer.wrap(b, off, len));
+                    position += len;
+                    return;
+                }
+                // only up to the buffered bytes, which are not in the files
+                readBuffer.clear();
+                readBuffer.limit((int) Math.min(BUFFER_SIZE, end - writeBuffer.position() - position));
+                readAt(position, readBuffer);
+                readBuffer.flip();
+                readStart = position;
+            }
+            int from = (int) (position - readStart);
+            int n = Math.min(len, readBuffer.limit() - from);
+            System.arraycopy(readBuffer.array(), from, b, off, n);
+            off += n;
+            len -= n;
+            position += n;
+        }
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public int skipBytes(int n) {
+        int skipped = (int) Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        readFully(scratch, 0, 1);
+        return scratch[0];
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    public short readShort() throws IOException {
+        readFully(scratch, 0, 2);
+        return (short) (((scratch[0] & 0xFF) << 8) | (scratch[1] & 0xFF));
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    public char readChar() throws IOException {
+        return (char) readShort();
+    }
+
+    public int readInt() throws IOException {
+        readFully(scratch, 0, 4);
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            v = (v << 8) | (scratch[i] & 0xFF);
+        }
+        return v;
+    }
+
+    public long readLong() throws IOException {
+        readFully(scratch, 0, 8);
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (scratch[i] & 0xFF);
+        }
+        return v;
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads bytes up to the next \n, \r or \r\n, or the end of the log,
+     * as RandomAccessFile.readLine does; each byte is one character.
+     *
+     * @return the line without its terminator, or null at the end of the log
+     */
+    public String readLine() throws IOException {
+        if (position >= end) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        while (position < end) {
+            int c = readUnsignedByte();
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                if (position < end && readUnsignedByte() != '\n') {
+                    position--;
+                }
+                break;
+            }
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+}
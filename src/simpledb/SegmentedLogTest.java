@@ -0,0 +1,167 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SegmentedLogTest extends SimpleDbTestBase {
+
+    private static final long SEGMENT_SIZE = 100;
+
+    private File dir;
+    private File base;
+
+    @Before public void createDir() throws IOException {
+        dir = Files.createTempDirectory("segments").toFile();
+        base = new File(dir, "log");
+    }
+
+    @After public void deleteDir() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private int numSegments() {
+        return dir.listFiles().length;
+    }
+
+    /** Writes longs 0..n-1 at LSNs 0, 8, ... */
+    private static void writeLongs(SegmentedLog log, int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            log.writeLong(i);
+        }
+    }
+
+    /**
+     * Unit test for values that span segment boundaries
+     */
+    @Test public void readWriteAcrossSegments() throws Exception {
+        SegmentedLog log = new SegmentedLog(base, SEGMENT_SIZE);
+        writeLongs(log, 100);
+        log.writeUTF("the end");
+        assertEquals(800 + 9, log.length());
+
+        // buffered bytes are read back before they are flushed
+        log.seek(96);
+        assertEquals(12, log.readLong());
+        log.seek(800);
+        assertEquals("the end", log.readUTF());
+
+        log.force();
+        assertEquals(9, numSegments());
+        SegmentedLog reopened = new SegmentedLog(base, SEGMENT_SIZE);
+        assertEquals(0, reopened.getStart());
+        assertEquals(809, reopened.length());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, reopened.readLong());
+        }
+        assertEquals("the end", reopened.readUTF());
+        try {
+            reopened.readByte();
+            fail("expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test for SegmentedLog.deleteBefore(): whole segments go, and
+     * the LSNs of the bytes that are kept stay the same.
+     */
+    @Test public void deleteBefore() throws Exception {
+        SegmentedLog log = new SegmentedLog(base, SEGMENT_SIZE);
+        writeLongs(log, 100);
+        log.flush();
+        log.deleteBefore(350);
+        assertEquals(300, log.getStart());
+        assertEquals(5, numSegments());
+        log.seek(400);
+        assertEquals(50, log.readLong());
+        try {
+            log.seek(296);
+            log.readLong();
+            fail("expected an IOException for a deleted LSN");
+        } catch (IOException e) {
+            assertFalse(e instanceof EOFException);
+        }
+
+        log.close();
+        SegmentedLog reopened = new SegmentedLog(base, SEGMENT_SIZE);
+        assertEquals(300, reopened.getStart());
+        assertEquals(800, reopened.length());
+        reopened.seek(304);
+        assertEquals(38, reopened.readLong());
+    }
+
+    /**
+     * Unit test for SegmentedLog.setLength() and reset()
+     */
+    @Test public void setLengthAndReset() throws Exception {
+        SegmentedLog log = new SegmentedLog(base, SEGMENT_SIZE);
+        writeLongs(log, 100);
+        log.setLength(204);
+        assertEquals(3, numSegments());
+        log.seek(log.length());
+        log.writeInt(7);
+        log.seek(200);
+        assertEquals(0, log.readInt()); // the high half of long 25
+        assertEquals(7, log.readInt());
+        log.force();
+        assertEquals(208, new SegmentedLog(base, SEGMENT_SIZE).length());
+
+        log.reset();
+        assertEquals(0, numSegments());
+        assertEquals(0, log.length());
+        log.write(new byte[]{1, 2, 3});
+        log.seek(0);
+        byte[] b = new byte[3];
+        log.readFully(b);
+        assertArrayEquals(new byte[]{1, 2, 3}, b);
+        assertTrue(log.unsyncedSegments().size() > 0);
+    }
+
+    /**
+     * Unit test for SegmentedLog.readLine() with every line terminator
+     */
+    @Test public void readLine() throws Exception {
+        SegmentedLog log = new SegmentedLog(base, SEGMENT_SIZE);
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            longLine.append((char) ('a' + i % 26));
+        }
+        log.writeBytes("one\ntwo\r\nthree\r\n\n" + longLine + "\rlast");
+        log.seek(0);
+        assertEquals("one", log.readLine());
+        assertEquals("two", log.readLine());
+        assertEquals("three", log.readLine());
+        assertEquals("", log.readLine());
+        assertEquals(longLine.toString(), log.readLine());
+        assertEquals("last", log.readLine());
+        assertNull(log.readLine());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedLogTest.class);
+    }
+}
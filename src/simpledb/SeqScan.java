@@ -14,6 +14,8 @@ public class SeqScan implements OpIterator {
     private HeapFile heapFile;
     private int tableid;
     private String tableAlias;
+    private int partition = 0;
+    private int partitions = 1;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -70,12 +72,49 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Creates a scan of one of several equal ranges of pages of the table,
+     * for scanning the table on several threads.
+     *
+     * @param partition  the range to scan, from 0 to partitions - 1
+     * @param partitions the number of ranges the table is split into
+     * @see ExchangePlanner
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int partition, int partitions) {
+        this(tid, tableid, tableAlias);
+        this.partition = partition;
+        this.partitions = partitions;
+    }
+
+    /**
+     * @return a scan of the given range of pages of this scan's table
+     */
+    public SeqScan partition(int partition, int partitions) {
+        return new SeqScan(tid, tableid, tableAlias, partition, partitions);
+    }
+
     DbFileIterator iterator = null;
     public void open() throws DbException, TransactionAbortedException {
-        iterator = heapFile.iterator(tid);
+        BufferRing ring = Database.getBufferPool().ringFor(tablePages());
+        if (partitions == 1) {
+            iterator = heapFile.iterator(tid, ring);
+        } else {
+            long numPages = heapFile.numPages();
+            iterator = heapFile.iterator(tid, ring, (int) (numPages * partition / partitions),
+                    (int) (numPages * (partition + 1) / partitions));
+        }
         iterator.open();
     }
 
+    /**
+     * @return the size of the table in pages, from its statistics if there
+     *         are any
+     */
+    private int tablePages() {
+        TableStats stats = TableStats.getTableStats(getTableName());
+        return stats != null ? stats.numPages() : heapFile.numPages();
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
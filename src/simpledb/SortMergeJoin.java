@@ -0,0 +1,367 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin joins two inputs on an equality or a band predicate
+ * (EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or GREATER_THAN_OR_EQ
+ * between the join fields) by reading both in ascending order of the join
+ * fields. An input already in that order (a BTreeScan on its key, an
+ * ascending OrderBy or ExternalSort on the field, or a Filter over one of
+ * these) is read as it is; any other input is sorted by an
+ * {@link ExternalSort}.
+ * <p>
+ * For EQUALS, the inputs are merged, holding the child2 tuples of one key
+ * at a time. For a band predicate, the tuples of one input that match a
+ * tuple of the other are a prefix of it, and the prefix only grows: with
+ * child1.f1 &lt; child2.f2, say, the child1 tuples below each child2 tuple,
+ * taken in ascending order. So the join reads the other input once,
+ * appends to the prefix as it goes, and returns the whole prefix for each
+ * tuple. The prefix is held in memory up to the sort budget, and in spill
+ * files beyond it.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final long memoryBudget;
+    private final TupleDesc comboTD;
+
+    // the children, or sorts of them
+    private transient OpIterator sorted1, sorted2;
+    // EQUALS: the child1 tuple being joined, the child2 tuples with its
+    // key, the next of them to join it with, and the first child2 tuple
+    // with a greater key
+    private transient Tuple outer;
+    private transient ArrayList<Tuple> group;
+    private transient int nextInGroup;
+    private transient Tuple pending;
+    // band predicates: the prefix of the inner input read so far
+    private transient Prefix prefix;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p      the predicate to use to join the children
+     * @param child1 iterator for the left(outer) relation to join
+     * @param child2 iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate is not an equality
+     *                                  or a band
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, ExternalSort.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget the bytes of tuples each sort, and the prefix of
+     *                     a band join, holds in memory
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBudget) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("a sort-merge join cannot join on " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryBudget = memoryBudget;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a SortMergeJoin can join on op
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if the tuples of op come in ascending order of a field
+     */
+    public static boolean isSortedOn(OpIterator op, int field) {
+        if (op instanceof BTreeScan) {
+            return ((BTreeScan) op).keyField() == field;
+        }
+        if (op instanceof OrderBy) {
+            OrderBy orderBy = (OrderBy) op;
+            return orderBy.isASC() && orderBy.getOrderByField() == field;
+        }
+        if (op instanceof ExternalSort) {
+            return ((ExternalSort) op).getSortField() == field;
+        }
+        if (op instanceof Filter) {
+            return isSortedOn(((Filter) op).getChildren()[0], field);
+        }
+        return false;
+    }
+
+    private OpIterator sorted(OpIterator child, int field) {
+        return isSortedOn(child, field) ? child : new ExternalSort(child, field, memoryBudget);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        sorted1 = sorted(child1, pred.getField1());
+        sorted2 = sorted(child2, pred.getField2());
+        sorted1.open();
+        sorted2.open();
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        outer = null;
+        group = new ArrayList<>();
+        nextInGroup = 0;
+        pending = null;
+        if (prefix != null) {
+            prefix.delete();
+        }
+        prefix = new Prefix();
+    }
+
+    public void close() {
+        super.close();
+        if (sorted1 != null) {
+            sorted1.close();
+            sorted2.close();
+        }
+        if (prefix != null) {
+            prefix.delete();
+            prefix = null;
+        }
+        group = null;
+        outer = null;
+        pending = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        sorted1.rewind();
+        sorted2.rewind();
+        reset();
+    }
+
+    private Tuple combine(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        switch (pred.getOperator()) {
+            case EQUALS:
+                return nextEqual();
+            case LESS_THAN:
+                // child1 tuples below each child2 tuple
+                return nextInBand(sorted2, sorted1, pred.getField2(), pred.getField1(),
+                        Predicate.Op.LESS_THAN, false);
+            case LESS_THAN_OR_EQ:
+                return nextInBand(sorted2, sorted1, pred.getField2(), pred.getField1(),
+                        Predicate.Op.LESS_THAN_OR_EQ, false);
+            case GREATER_THAN:
+                // child2 tuples below each child1 tuple
+                return nextInBand(sorted1, sorted2, pred.getField1(), pred.getField2(),
+                        Predicate.Op.LESS_THAN, true);
+            default:
+                return nextInBand(sorted1, sorted2, pred.getField1(), pred.getField2(),
+                        Predicate.Op.LESS_THAN_OR_EQ, true);
+        }
+    }
+
+    private Tuple nextEqual() throws TransactionAbortedException, DbException {
+        int f1 = pred.getField1();
+        int f2 = pred.getField2();
+        while (true) {
+            if (nextInGroup < group.size()) {
+                return combine(outer, group.get(nextInGroup++));
+            }
+            if (!sorted1.hasNext()) {
+                return null;
+            }
+            Tuple t1 = sorted1.next();
+            nextInGroup = 0;
+            if (!group.isEmpty() && t1.getField(f1).compare(Predicate.Op.EQUALS, outer.getField(f1))) {
+                // same key as the last child1 tuple: join it with the same group
+                outer = t1;
+                continue;
+            }
+            outer = t1;
+            group.clear();
+            Field key = t1.getField(f1);
+            while (pending != null || sorted2.hasNext()) {
+                Tuple t2 = pending != null ? pending : sorted2.next();
+                pending = null;
+                Field key2 = t2.getField(f2);
+                if (key2.compare(Predicate.Op.LESS_THAN, key)) {
+                    continue;
+                }
+                if (!key2.compare(Predicate.Op.EQUALS, key)) {
+                    pending = t2;
+                    break;
+                }
+                group.add(t2);
+            }
+            if (group.isEmpty() && pending == null) {
+                // child2 is done
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The band join: for each tuple of the outer input, extends the prefix
+     * with the inner tuples whose field is op the outer tuple's, then
+     * returns the outer tuple with each tuple of the prefix.
+     *
+     * @param outerFirst true if the outer tuple goes first in the joined
+     *                   tuple (the outer input is child1)
+     */
+    private Tuple nextInBand(OpIterator outerInput, OpIterator innerInput, int outerField, int innerField,
+                             Predicate.Op op, boolean outerFirst)
+            throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null) {
+                Tuple inner = prefix.next();
+                if (inner != null) {
+                    return outerFirst ? combine(outer, inner) : combine(inner, outer);
+                }
+            }
+            if (!outerInput.hasNext()) {
+                return null;
+            }
+            outer = outerInput.next();
+            Field key = outer.getField(outerField);
+            while (pending != null || innerInput.hasNext()) {
+                Tuple t = pending != null ? pending : innerInput.next();
+                pending = null;
+                if (!t.getField(innerField).compare(op, key)) {
+                    pending = t;
+                    break;
+                }
+                prefix.add(t);
+            }
+            prefix.start();
+        }
+    }
+
+    /**
+     * The tuples of the inner input of a band join read so far: full
+     * chunks of them in spill files, then the rest in memory.
+     */
+    private class Prefix {
+        private final List<SpillFile> chunks = new ArrayList<>();
+        private final ArrayList<Tuple> tail = new ArrayList<>();
+        private long tailBytes;
+        // the position of the pass over the prefix
+        private int chunk;
+        private OpIterator reader;
+        private int nextInTail;
+
+        void add(Tuple t) throws DbException {
+            int size = t.getTupleDesc().getSize();
+            if (tailBytes + size > memoryBudget && !tail.isEmpty()) {
+                SpillFile f = new SpillFile(t.getTupleDesc());
+                for (Tuple s : tail) {
+                    f.add(s);
+                }
+                chunks.add(f);
+                tail.clear();
+                tailBytes = 0;
+            }
+            tail.add(t);
+            tailBytes += size;
+        }
+
+        /**
+         * Starts a pass over the prefix.
+         */
+        void start() {
+            closeReader();
+            chunk = 0;
+            nextInTail = 0;
+        }
+
+        /**
+         * @return the next tuple of the pass, or null at its end
+         */
+        Tuple next() throws DbException, TransactionAbortedException {
+            while (chunk < chunks.size()) {
+                if (reader == null) {
+                    reader = chunks.get(chunk).iterator();
+                    reader.open();
+                }
+                if (reader.hasNext()) {
+                    return reader.next();
+                }
+                closeReader();
+                chunk++;
+            }
+            return nextInTail < tail.size() ? tail.get(nextInTail++) : null;
+        }
+
+        private void closeReader() {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+
+        void delete() {
+            closeReader();
+            for (SpillFile f : chunks) {
+                f.delete();
+            }
+            chunks.clear();
+            tail.clear();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -66,6 +67,10 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int numPages;
+    private final int numTuples;
+    private final int ioCostPerPage;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -85,6 +90,42 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HeapFile) {
+            numPages = ((HeapFile) file).numPages();
+        } else if (file instanceof BTreeFile) {
+            numPages = ((BTreeFile) file).numPages();
+        } else {
+            numPages = 0;
+        }
+        this.numTuples = countTuples(file);
+        this.ioCostPerPage = ioCostPerPage;
+    }
+
+    private static int countTuples(DbFile file) {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        int tuples = 0;
+        try {
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+                tuples++;
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (DbException | TransactionAbortedException | IOException e) {
+            throw new RuntimeException(e);
+        }
+        return tuples;
+    }
+
+    /**
+     * @return the number of pages of the table when the statistics were
+     *         computed
+     */
+    public int numPages() {
+        return numPages;
     }
 
     /**
@@ -101,7 +142,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
     }
 
     /**
@@ -115,7 +156,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -156,7 +197,7 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
@@ -380,6 +380,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.sideFile(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -46,16 +46,16 @@ public class Transaction {
             //write commit / abort records
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
-            } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
-                Database.getLogFile().logCommit(tid);
-            }
 
-            try {
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-            } catch (IOException e) {
-                e.printStackTrace();
+                try {
+                    Database.getBufferPool().transactionComplete(tid, false); // release locks
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                //log all the dirty pages for this transaction and the commit
+                //record, then release locks; the cleaner writes the pages
+                Database.getBufferPool().transactionComplete(tid, true);
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
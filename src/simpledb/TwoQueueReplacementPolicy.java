@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha). Pages seen for the first time go
+ * into the FIFO queue A1in; if they are evicted from there their ids are
+ * remembered in the ghost queue A1out. A page that is loaded again while its
+ * id is still in A1out has proved it is hot and goes into the LRU queue Am.
+ * Hits on A1in pages do not promote them, so a scan passes through A1in
+ * without disturbing Am.
+ * <p>
+ * All queues are insertion-ordered hash sets: loads, hits and removals are
+ * O(1), and choosing a victim is O(1) plus one step for every frame the
+ * filter rejects.
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    private final int kIn;
+    private final int kOut;
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>();
+
+    /**
+     * Uses the tuning suggested in the paper: A1in holds a quarter of the
+     * frames and A1out remembers half as many ids as there are frames.
+     *
+     * @param numPages the number of frames of the buffer pool using this policy
+     */
+    public TwoQueueReplacementPolicy(int numPages) {
+        this(Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * @param kIn  the target size of A1in
+     * @param kOut the number of ghost entries kept in A1out
+     */
+    public TwoQueueReplacementPolicy(int kIn, int kOut) {
+        this.kIn = kIn;
+        this.kOut = kOut;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (am.contains(pid) || a1in.contains(pid)) {
+            pageAccessed(pid);
+        } else if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        // move to the MRU end of Am; hits in A1in are deliberately ignored
+        if (am.remove(pid)) {
+            am.add(pid);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (!a1in.remove(pid)) {
+            am.remove(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable filter) {
+        PageId victim;
+        if (a1in.size() > kIn) {
+            victim = evictFrom(a1in, filter);
+            if (victim == null) {
+                victim = evictFrom(am, filter);
+            }
+        } else {
+            victim = evictFrom(am, filter);
+            if (victim == null) {
+                victim = evictFrom(a1in, filter);
+            }
+        }
+        return victim;
+    }
+
+    private PageId evictFrom(LinkedHashSet<PageId> queue, Evictable filter) {
+        Iterator<PageId> it = queue.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid)) {
+                it.remove();
+                if (queue == a1in) {
+                    remember(pid);
+                }
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void remember(PageId pid) {
+        a1out.remove(pid);
+        a1out.add(pid);
+        if (a1out.size() > kOut) {
+            Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -109,6 +109,7 @@ public class Utility {
         fos.close();
 
         HeapFile hf = openHeapFile(cols, f);
+        hf.getFreeSpaceMap().invalidate();
         HeapPageId pid = new HeapPageId(hf.getId(), 0);
 
         HeapPage page = null;
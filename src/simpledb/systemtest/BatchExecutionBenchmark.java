@@ -0,0 +1,45 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Times a scan, filter and group-by aggregate tuple at a time and batch at
+ * a time over the same cached table and prints the best of five runs of
+ * each. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.BatchExecutionBenchmark [rows]
+ * </pre>
+ */
+public class BatchExecutionBenchmark {
+
+    private static long time(OpIterator it) throws Exception {
+        long start = System.nanoTime();
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, rows, 1000, null, null);
+        Database.resetBufferPool(f.numPages() + 100);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(500));
+        // SELECT c0, SUM(c1) FROM t WHERE c2 < 500 GROUP BY c0
+        long tuple = Long.MAX_VALUE;
+        long batch = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            tuple = Math.min(tuple, time(new Aggregate(new Filter(p, new SeqScan(tid, f.getId(), "t")),
+                    1, 0, Aggregator.Op.SUM)));
+            batch = Math.min(batch, time(new BatchOpIteratorAdapter(new BatchAggregate(
+                    new BatchFilter(p, new BatchSeqScan(tid, f.getId(), "t")), 1, 0, Aggregator.Op.SUM))));
+        }
+        System.out.printf("scan, filter, group by over %d rows: tuple at a time %.1f ms, batch %.1f ms (%.2fx)%n",
+                rows, tuple / 1e6, batch / 1e6, (double) tuple / batch);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().stopCleaner();
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that each batch operator returns the same tuples as its
+ * tuple-at-a-time counterpart.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    private static List<String> run(OpIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.rewind();
+        int again = 0;
+        while (it.hasNext()) {
+            it.next();
+            again++;
+        }
+        it.close();
+        assertEquals(rows.size(), again);
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static List<String> run(BatchOpIterator it) throws Exception {
+        return run(new BatchOpIteratorAdapter(it));
+    }
+
+    @Test public void testScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, null, tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new BatchOpIteratorAdapter(new BatchSeqScan(tid, f.getId(), "t")), tuples);
+        SystemTestUtil.matchTuples(new BatchOpIteratorAdapter(new BatchSeqScan(tid, f.getId(), "t", 7)), tuples);
+        assertEquals(new SeqScan(tid, f.getId(), "t").getTupleDesc(),
+                new BatchSeqScan(tid, f.getId(), "t").getTupleDesc());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testFilterAndProject() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(500));
+            assertEquals(run(new Filter(p, new SeqScan(tid, f.getId(), "t"))),
+                    run(new BatchFilter(p, new BatchSeqScan(tid, f.getId(), "t"))));
+        }
+
+        // two filters in a row narrow the same selection vector
+        Predicate low = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(200));
+        Predicate high = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(700));
+        List<Integer> fields = Arrays.asList(2, 0);
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE};
+        List<String> expected = run(new Project(new ArrayList<>(fields), types,
+                new Filter(high, new Filter(low, new SeqScan(tid, f.getId(), "t")))));
+        assertTrue(!expected.isEmpty());
+        assertEquals(expected, run(new BatchProject(fields,
+                new BatchFilter(high, new BatchFilter(low, new BatchSeqScan(tid, f.getId(), "t"))))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAggregate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 100, null, null);
+        TransactionId tid = new TransactionId();
+        Aggregator.Op[] ops = {Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT};
+        for (Aggregator.Op op : ops) {
+            for (int gfield : new int[]{Aggregator.NO_GROUPING, 0}) {
+                Aggregate agg = new Aggregate(new SeqScan(tid, f.getId(), "t"), 1, gfield, op);
+                BatchAggregate batchAgg = new BatchAggregate(new BatchSeqScan(tid, f.getId(), "t"), 1, gfield, op);
+                assertEquals(agg.getTupleDesc(), batchAgg.getTupleDesc());
+                assertEquals(run(agg), run(batchAgg));
+            }
+        }
+
+        // no rows in, no rows out
+        Predicate none = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(-1));
+        assertEquals(0, run(new BatchAggregate(new BatchFilter(none, new BatchSeqScan(tid, f.getId(), "t")),
+                1, Aggregator.NO_GROUPING, Aggregator.Op.SUM)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testStringKeys() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE}, new String[]{"s", "i"});
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("key" + (i % 37), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        assertEquals(run(new Aggregate(new TupleIterator(td, tuples), 1, 0, Aggregator.Op.SUM)),
+                run(new BatchAggregate(new OpIteratorBatchAdapter(new TupleIterator(td, tuples)),
+                        1, 0, Aggregator.Op.SUM)));
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        List<Tuple> few = tuples.subList(0, 100);
+        assertEquals(run(new HashEquiJoin(p, new TupleIterator(td, few), new TupleIterator(td, tuples))),
+                run(new BatchHashEquiJoin(p, new OpIteratorBatchAdapter(new TupleIterator(td, few)),
+                        new OpIteratorBatchAdapter(new TupleIterator(td, tuples), 100))));
+    }
+
+    @Test public void testHashEquiJoin() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, null);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, 4000, 500, null, null);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+        BatchHashEquiJoin batchJoin = new BatchHashEquiJoin(p, new BatchSeqScan(tid, f1.getId(), "a"),
+                new BatchSeqScan(tid, f2.getId(), "b"));
+        assertEquals(join.getTupleDesc(), batchJoin.getTupleDesc());
+        List<String> expected = run(join);
+        // about 3000 * 4000 / 500 rows, so several output batches
+        assertTrue(expected.size() > 2 * ColumnBatch.DEFAULT_CAPACITY);
+        assertEquals(expected, run(batchJoin));
+
+        // a tuple-at-a-time probe side, through the adapter
+        Predicate filter = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(250));
+        assertEquals(run(new HashEquiJoin(p, new SeqScan(tid, f1.getId(), "a"),
+                        new Filter(filter, new SeqScan(tid, f2.getId(), "b")))),
+                run(new BatchHashEquiJoin(p, new BatchSeqScan(tid, f1.getId(), "a"),
+                        new OpIteratorBatchAdapter(new Filter(filter, new SeqScan(tid, f2.getId(), "b"))))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testFilterAggregate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 5000, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(500));
+        // SELECT c0, SUM(c1) FROM t WHERE c2 < 500 GROUP BY c0
+        List<String> expected = run(new Aggregate(new Filter(p, new SeqScan(tid, f.getId(), "t")),
+                1, 0, Aggregator.Op.SUM));
+        assertTrue(!expected.isEmpty());
+        assertEquals(expected, run(new BatchAggregate(new BatchFilter(p, new BatchSeqScan(tid, f.getId(), "t")),
+                1, 0, Aggregator.Op.SUM)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.systemtest;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import simpledb.*;
+
+/**
+ * Reads random pages of a table that does not fit in the buffer pool from
+ * 1, 4, 16 and 64 threads at once and prints the throughput of each run,
+ * once with a single partition (one latch for the whole page table) and
+ * once with the default partitioning. Misses on different partitions
+ * proceed in parallel, so the partitioned pool should keep scaling with the
+ * number of readers. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.BufferPoolScalingBenchmark [reads per run]
+ * </pre>
+ */
+public class BufferPoolScalingBenchmark {
+    private static final int TABLE_PAGES = 256;
+    private static final int POOL_PAGES = 64;
+
+    public static void main(String[] args) throws Exception {
+        int readsPerRun = args.length > 0 ? Integer.parseInt(args[0]) : 64 * 1024;
+        // 504 two-column tuples fit on a page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        for (boolean partitioned : new boolean[]{false, true}) {
+            for (int threads : new int[]{1, 4, 16, 64}) {
+                Database.resetBufferPool(partitioned ? new BufferPool(POOL_PAGES)
+                        : new BufferPool(POOL_PAGES, 1, ClockReplacementPolicy::new));
+                long start = System.nanoTime();
+                runReaders(f, threads, readsPerRun / threads);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%s, %d readers: %.0f pages/s%n",
+                        partitioned ? "partitioned" : "one partition", threads, readsPerRun / seconds);
+            }
+        }
+        Database.getBufferPool().stopCleaner();
+    }
+
+    private static void runReaders(HeapFile f, int threads, int readsPerThread) throws Exception {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] readers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            readers[i] = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                Random rand = new Random(seed);
+                try {
+                    for (int n = 0; n < readsPerThread; n++) {
+                        HeapPageId pid = new HeapPageId(f.getId(), rand.nextInt(TABLE_PAGES));
+                        Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                    }
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+            readers[i].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Reads random pages of a table that does not fit in the buffer pool from
+ * 1, 4, 16 and 64 threads at once. Misses on different page table
+ * partitions proceed in parallel and steal frames from each other; every
+ * reader must still get the page it asked for.
+ */
+public class BufferPoolScalingTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 256;
+    private static final int POOL_PAGES = 64;
+    private static final int READS_PER_RUN = 8 * 1024;
+
+    @Test public void testConcurrentReaders() throws Exception {
+        // 504 two-column tuples fit on a page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        assertEquals(TABLE_PAGES, f.numPages());
+
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            Database.resetBufferPool(POOL_PAGES);
+            runReaders(f, threads, READS_PER_RUN / threads);
+        }
+    }
+
+    private static void runReaders(HeapFile f, int threads, int readsPerThread) throws Exception {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] readers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            readers[i] = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                Random rand = new Random(seed);
+                try {
+                    for (int n = 0; n < readsPerThread; n++) {
+                        HeapPageId pid = new HeapPageId(f.getId(), rand.nextInt(TABLE_PAGES));
+                        Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                        if (!page.getId().equals(pid)) {
+                            throw new AssertionError("got " + page.getId() + " for " + pid);
+                        }
+                    }
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+            readers[i].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(String.valueOf(error.get()), error.get());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BufferPoolScalingTest.class);
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Loads a table through the Insert operator and prints the time taken next
+ * to the time of writing the same rows straight to a file with
+ * HeapFileEncoder. Under NO STEAL all of the rows must fit in the buffer
+ * pool until the transaction commits. Not part of the unit tests; run it
+ * with
+ * <pre>
+ * java simpledb.systemtest.BulkInsertBenchmark [rows]
+ * </pre>
+ */
+public class BulkInsertBenchmark {
+    private static final int COLUMNS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, null, tuples);
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(COLUMNS, 0, null, null);
+        // room for the source and the destination pages
+        Database.resetBufferPool(2 * source.numPages() + 100);
+
+        // read the source once so both runs start from cached pages
+        SystemTestUtil.matchTuples(source, tuples);
+
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new SeqScan(tid, source.getId(), ""), destination.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+        double insertSeconds = (System.nanoTime() - start) / 1e9;
+
+        File encoded = File.createTempFile("bulkinsert", ".dat");
+        encoded.deleteOnExit();
+        start = System.nanoTime();
+        HeapFileEncoder.convert(tuples, encoded, BufferPool.getPageSize(), COLUMNS);
+        double encodeSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d rows, Insert %.2f s (%.0f rows/s), HeapFileEncoder %.2f s (%.0f rows/s)%n",
+                rows, insertSeconds, rows / insertSeconds, encodeSeconds, rows / encodeSeconds);
+        Database.getBufferPool().stopCleaner();
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Loads a table through the Insert operator and checks that it fills its
+ * pages as densely as writing the same rows straight to a file with
+ * HeapFileEncoder. Under NO STEAL all of the rows must fit in the buffer
+ * pool until the transaction commits.
+ */
+public class BulkInsertTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    @Test public void testLoad() throws Exception {
+        int rows = 20000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, null, tuples);
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(COLUMNS, 0, null, null);
+        // room for the source and the destination pages
+        Database.resetBufferPool(2 * source.numPages() + 100);
+
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new SeqScan(tid, source.getId(), ""), destination.getId());
+        insert.open();
+        assertEquals(rows, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(source.numPages(), destination.numPages());
+
+        File encoded = File.createTempFile("bulkinsert", ".dat");
+        encoded.deleteOnExit();
+        HeapFileEncoder.convert(tuples, encoded, BufferPool.getPageSize(), COLUMNS);
+        assertEquals(encoded.length() / BufferPool.getPageSize(), destination.numPages());
+        SystemTestUtil.matchTuples(destination, tuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BulkInsertTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import simpledb.*;
+
+/**
+ * Prints how long a fuzzy checkpoint takes while a running transaction
+ * keeps a long stretch of log alive, and how long checkpoints and commits
+ * take when checkpoints run in a loop next to a transaction with many dirty
+ * pages. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.CheckpointBenchmark [live log pages] [dirty pages] [commits per thread]
+ * </pre>
+ */
+public class CheckpointBenchmark {
+    private static final int THREADS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int livePages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int bigPages = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int commitsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        checkpointWithLongLiveLog(livePages);
+        commitsDuringCheckpoints(bigPages, commitsPerThread);
+        Database.getBufferPool().stopCleaner();
+    }
+
+    private static HeapFile createTable() throws Exception {
+        Database.reset();
+        File file = File.createTempFile("checkpoint", ".db");
+        file.deleteOnExit();
+        FreeSpaceMap.sideFile(file).deleteOnExit();
+        return Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    private static void checkpointWithLongLiveLog(int livePages) throws Exception {
+        HeapFile hf = createTable();
+        LogFile log = Database.getLogFile();
+        Transaction t = new Transaction();
+        t.start();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage full = new HeapPage(pid, HeapPage.createEmptyPageData());
+        while (full.getNumEmptySlots() > 0) {
+            full.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        }
+        // full-page deltas, since the before image is empty
+        for (int i = 0; i < livePages; i++) {
+            log.logWrite(t.getId(), empty, full);
+        }
+        long start = System.nanoTime();
+        log.logCheckpoint();
+        System.out.printf("checkpoint with %d pages of live log took %.2f ms%n",
+                livePages, (System.nanoTime() - start) / 1e6);
+        t.commit();
+    }
+
+    private static void commitsDuringCheckpoints(int bigPages, int commitsPerThread) throws Exception {
+        HeapFile hf = createTable();
+        Database.resetBufferPool(bigPages + 200);
+
+        // a long transaction that dirties many pages and stays open
+        Transaction big = new Transaction();
+        big.start();
+        int rowsPerPage = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0))).getNumEmptySlots();
+        ArrayList<Tuple> rows = new ArrayList<>();
+        for (int i = 0; i < bigPages * rowsPerPage; i++) {
+            rows.add(Utility.getHeapTuple(new int[]{-1, i}));
+        }
+        Database.getBufferPool().insertTuples(big.getId(), hf.getId(), rows.iterator());
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        long[] checkpoints = new long[2]; // count, total nanoseconds
+        Thread checkpointer = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    long start = System.nanoTime();
+                    Database.getLogFile().logCheckpoint();
+                    checkpoints[0]++;
+                    checkpoints[1] += System.nanoTime() - start;
+                }
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            }
+        });
+        checkpointer.start();
+
+        long[][] latencies = new long[THREADS][commitsPerThread];
+        Thread[] workers = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int id = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < commitsPerThread; n++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        long begin = System.nanoTime();
+                        t.commit();
+                        latencies[id][n] = System.nanoTime() - begin;
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        done.set(true);
+        checkpointer.join();
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+        big.commit();
+
+        long[] all = new long[THREADS * commitsPerThread];
+        for (int i = 0; i < THREADS; i++) {
+            System.arraycopy(latencies[i], 0, all, i * commitsPerThread, commitsPerThread);
+        }
+        Arrays.sort(all);
+        System.out.printf("%d checkpoints, %.2f ms each with %d dirty pages; max commit latency %.2f ms%n",
+                checkpoints[0], checkpoints[1] / 1e6 / checkpoints[0], bigPages, all[all.length - 1] / 1e6);
+    }
+}
@@ -0,0 +1,216 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests the fuzzy checkpoints of LogFile: they do not flush the buffer
+ * pool, recovery still redoes the pages that were logged but not written
+ * when the checkpoint was taken, and transactions keep committing while
+ * checkpoints run.
+ */
+public class CheckpointTest extends SimpleDbTestBase {
+    private File file;
+    private HeapFile hf;
+
+    private void setup() throws IOException {
+        Database.reset();
+        file = new File("checkpoint.db");
+        file.delete();
+        FreeSpaceMap.sideFile(file).delete();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    private void crash() throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+    }
+
+    private void insertRow(TransactionId tid, int v) throws Exception {
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{v, 0}));
+    }
+
+    private int count(int v) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            if (((IntField) scan.next().getField(0)).getValue() == v) {
+                count++;
+            }
+        }
+        scan.close();
+        t.commit();
+        return count;
+    }
+
+    /** Counts the rows in the table's file, bypassing the buffer pool. */
+    private int rowsOnDisk() {
+        int rows = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            rows += page.getNumSlots() - page.getNumEmptySlots();
+        }
+        return rows;
+    }
+
+    /**
+     * A checkpoint leaves the dirty pages of a running transaction in the
+     * buffer pool, and the transaction can still commit afterwards.
+     */
+    @Test public void testCheckpointDoesNotFlush() throws Exception {
+        setup();
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(t.getId(), 1);
+        Database.getLogFile().logCheckpoint();
+        assertEquals(0, rowsOnDisk());
+        t.commit();
+
+        crash();
+        assertEquals(1, count(1));
+    }
+
+    /**
+     * A committed page whose UPDATE record was logged before a checkpoint
+     * but which never reached its file is redone: the checkpoint's dirty
+     * page table keeps its record in the log through truncation.
+     */
+    @Test public void testUnwrittenPageIsRedone() throws Exception {
+        setup();
+        LogFile log = Database.getLogFile();
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(t.getId(), 1);
+        Page page = Database.getBufferPool().getPage(t.getId(), new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        // crash between logging the page and writing it: the COMMIT record
+        // is in the log, the page is not in the file
+        log.logWrite(t.getId(), page.getBeforeImage(), page);
+        log.logCommit(t.getId());
+
+        // later transactions and checkpoints truncate the log
+        for (int i = 2; i < 6; i++) {
+            Transaction later = new Transaction();
+            later.start();
+            later.commit();
+            log.logCheckpoint();
+        }
+        assertEquals(0, rowsOnDisk());
+
+        crash();
+        assertEquals(1, count(1));
+    }
+
+    /**
+     * Takes a checkpoint while a running transaction keeps a long stretch
+     * of log alive; truncation must keep all of it, so that the
+     * transaction's changes are redone once it commits.
+     */
+    @Test public void testCheckpointWithLongLiveLog() throws Exception {
+        setup();
+        LogFile log = Database.getLogFile();
+        Transaction t = new Transaction();
+        t.start();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage full = new HeapPage(pid, HeapPage.createEmptyPageData());
+        while (full.getNumEmptySlots() > 0) {
+            full.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        }
+        // full-page deltas, since the before image is empty
+        for (int i = 0; i < 200; i++) {
+            log.logWrite(t.getId(), empty, full);
+        }
+        log.logCheckpoint();
+        t.commit();
+        assertEquals(0, rowsOnDisk());
+
+        crash();
+        assertEquals(full.getNumSlots(), count(1));
+    }
+
+    /**
+     * Commits from several threads while a transaction with many dirty
+     * pages is open and checkpoints are taken in a loop.
+     */
+    @Test public void testCommitsDuringCheckpoints() throws Exception {
+        setup();
+        final int threads = 4;
+        final int commitsPerThread = 25;
+        final int bigPages = 100;
+        Database.resetBufferPool(bigPages + 200);
+
+        // a long transaction that dirties many pages and stays open
+        Transaction big = new Transaction();
+        big.start();
+        int rowsPerPage = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0))).getNumEmptySlots();
+        assertEquals(0, rowsOnDisk());
+        ArrayList<Tuple> rows = new ArrayList<>();
+        for (int i = 0; i < bigPages * rowsPerPage; i++) {
+            rows.add(Utility.getHeapTuple(new int[]{-1, i}));
+        }
+        Database.getBufferPool().insertTuples(big.getId(), hf.getId(), rows.iterator());
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        int[] checkpoints = new int[1];
+        Thread checkpointer = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    Database.getLogFile().logCheckpoint();
+                    checkpoints[0]++;
+                }
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            }
+        });
+        checkpointer.start();
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < commitsPerThread; n++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        t.commit();
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        done.set(true);
+        checkpointer.join();
+        assertNull(String.valueOf(error.get()), error.get());
+        assertTrue(checkpoints[0] > 0);
+
+        // the pages of the open transaction were not written by the checkpoints
+        assertEquals(0, rowsOnDisk());
+        big.commit();
+        assertEquals(bigPages * rowsPerPage, count(-1));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CheckpointTest.class);
+    }
+}
@@ -0,0 +1,41 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+/**
+ * Kills the workload of {@link CrashRecoveryTest} and prints how long
+ * recovery takes: once with checkpoints, and once without them, redoing
+ * the whole log with one thread and with one per processor. Not part of
+ * the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.CrashRecoveryBenchmark [transactions before the kill]
+ * </pre>
+ */
+public class CrashRecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int killAfter = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+
+        File dir = Files.createTempDirectory("crash").toFile();
+        HashMap<Integer, Character> outcomes = CrashRecoveryTest.runUntilKilled(dir, killAfter, true);
+        CrashRecoveryTest.Recovery r = CrashRecoveryTest.recover(dir, 0);
+        System.out.printf("checkpoints: killed after %d transactions, %d log bytes, recovered in %d ms%n",
+                outcomes.size(), r.logBytes, r.millis);
+        CrashRecoveryTest.deleteAll(dir);
+
+        dir = Files.createTempDirectory("crash").toFile();
+        CrashRecoveryTest.runUntilKilled(dir, killAfter, false);
+        File backup = Files.createTempDirectory("crash").toFile();
+        CrashRecoveryTest.copyAll(dir, backup);
+        int threads = Runtime.getRuntime().availableProcessors();
+        CrashRecoveryTest.Recovery serial = CrashRecoveryTest.recover(dir, 1);
+        CrashRecoveryTest.copyAll(backup, dir);
+        CrashRecoveryTest.Recovery parallel = CrashRecoveryTest.recover(dir, threads);
+        System.out.printf("no checkpoints: %d log bytes, redo with 1 thread %d ms, with %d threads %d ms%n",
+                serial.logBytes, serial.millis, threads, parallel.millis);
+        CrashRecoveryTest.deleteAll(dir);
+        CrashRecoveryTest.deleteAll(backup);
+    }
+}
@@ -0,0 +1,260 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Kills a database process at random points of its log and checks what
+ * recovery makes of it.
+ * <p>
+ * A child JVM runs transactions that each insert a few rows tagged with the
+ * transaction's number; some of them write their pages before they finish
+ * and some abort. It reports every commit and abort on stdout. Once its log
+ * has grown past a randomly chosen size it is killed with SIGKILL, so
+ * whatever it had written survives but nothing else. A second child runs
+ * LogFile.recover() on the files and reports the rows per transaction and
+ * how long recovery took. Every transaction must be all or nothing, every
+ * reported commit must be there and every reported abort must not.
+ */
+public class CrashRecoveryTest extends SimpleDbTestBase {
+    private static final int TRIALS = 4;
+    private static final int ROWS_PER_TRANSACTION = 3;
+
+    @Test(timeout = 300000) public void testRandomCrashes() throws Exception {
+        Random rand = new Random(0);
+        for (int trial = 0; trial < TRIALS; trial++) {
+            File dir = Files.createTempDirectory("crash").toFile();
+            int killAfter = 100 + rand.nextInt(1000);
+            HashMap<Integer, Character> outcomes = runUntilKilled(dir, killAfter, true);
+            Recovery r = recover(dir, 0);
+            check(outcomes, r);
+            deleteAll(dir);
+        }
+    }
+
+    /**
+     * Recovers a long log without checkpoints with one and with many redo
+     * threads. Table ids come from file paths, so the second run restores
+     * the crashed files in place instead of recovering a copy elsewhere.
+     */
+    @Test(timeout = 300000) public void testParallelRedo() throws Exception {
+        File dir = Files.createTempDirectory("crash").toFile();
+        HashMap<Integer, Character> outcomes = runUntilKilled(dir, 1000, false);
+        File backup = Files.createTempDirectory("crash").toFile();
+        copyAll(dir, backup);
+        int threads = Runtime.getRuntime().availableProcessors();
+        Recovery serial = recover(dir, 1);
+        check(outcomes, serial);
+        copyAll(backup, dir);
+        Recovery parallel = recover(dir, threads);
+        check(outcomes, parallel);
+        deleteAll(dir);
+        deleteAll(backup);
+    }
+
+    private static void check(HashMap<Integer, Character> outcomes, Recovery r) {
+        for (int txn : r.rows.keySet()) {
+            assertEquals("rows of transaction " + txn, ROWS_PER_TRANSACTION, (int) r.rows.get(txn));
+            assertTrue("transaction " + txn + " aborted but its rows are there",
+                    outcomes.get(txn) == null || outcomes.get(txn) == 'C');
+        }
+        for (int txn : outcomes.keySet()) {
+            if (outcomes.get(txn) == 'C') {
+                assertTrue("committed transaction " + txn + " is missing", r.rows.containsKey(txn));
+            }
+        }
+    }
+
+    private static Process start(File dir, String... args) throws IOException {
+        ArrayList<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Workload.class.getName());
+        for (String arg : args) {
+            command.add(arg);
+        }
+        return new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+    }
+
+    /**
+     * Runs the workload in dir until it has finished killAfter transactions,
+     * then kills it. Checkpoints truncate the log, so its length is no
+     * measure of progress.
+     *
+     * @return the outcome of every transaction the workload reported, 'C'
+     *         for commit and 'A' for abort
+     */
+    static HashMap<Integer, Character> runUntilKilled(File dir, int killAfter, boolean checkpoints)
+            throws Exception {
+        Process p = start(dir, "load", String.valueOf(checkpoints));
+        HashMap<Integer, Character> outcomes = new HashMap<>();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("C ") || line.startsWith("A ")) {
+                        synchronized (outcomes) {
+                            outcomes.put(Integer.parseInt(line.substring(2)), line.charAt(0));
+                        }
+                    } else {
+                        System.out.println("workload: " + line);
+                    }
+                }
+            } catch (IOException e) {
+                // the process was killed
+            }
+        });
+        reader.start();
+        while (p.isAlive()) {
+            synchronized (outcomes) {
+                if (outcomes.size() >= killAfter) {
+                    break;
+                }
+            }
+            Thread.sleep(1);
+        }
+        assertTrue("the workload exited by itself", p.isAlive());
+        p.destroyForcibly().waitFor();
+        reader.join();
+        synchronized (outcomes) {
+            return new HashMap<>(outcomes);
+        }
+    }
+
+    static class Recovery {
+        long logBytes;
+        long millis;
+        HashMap<Integer, Integer> rows = new HashMap<>();
+    }
+
+    static Recovery recover(File dir, int threads) throws Exception {
+        Process p = start(dir, "recover", String.valueOf(threads));
+        Recovery r = new Recovery();
+        String result = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts[0].equals("R")) {
+                    result = line;
+                    r.logBytes = Long.parseLong(parts[1]);
+                    r.millis = Long.parseLong(parts[2]);
+                } else if (parts[0].equals("V")) {
+                    r.rows.put(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                } else {
+                    System.out.println("recovery: " + line);
+                }
+            }
+        }
+        assertEquals(0, p.waitFor());
+        assertNotNull("recovery did not finish", result);
+        return r;
+    }
+
+    static void copyAll(File from, File to) throws IOException {
+        for (File f : from.listFiles()) {
+            Files.copy(f.toPath(), new File(to, f.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static void deleteAll(File dir) {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /** The child process: "load checkpoints" or "recover threads". */
+    public static class Workload {
+        public static void main(String[] args) throws Exception {
+            PrintStream out = System.out;
+            File file = new File("table.dat").getAbsoluteFile();
+            if (args[0].equals("load")) {
+                boolean checkpoints = Boolean.parseBoolean(args[1]);
+                HeapFile hf = Utility.createEmptyHeapFile(file.getPath(), 2);
+                Random rand = new Random();
+                for (int i = 0; ; i++) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    for (int j = 0; j < ROWS_PER_TRANSACTION; j++) {
+                        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[]{i, j}));
+                    }
+                    if (rand.nextInt(4) == 0) {
+                        // write the pages early, so there is something to undo
+                        Database.getBufferPool().flushAllPages();
+                    }
+                    if (rand.nextInt(10) == 0) {
+                        t.abort();
+                        out.println("A " + i);
+                    } else {
+                        t.commit();
+                        out.println("C " + i);
+                    }
+                    out.flush();
+                    if (checkpoints && i % 200 == 199) {
+                        Database.getLogFile().logCheckpoint();
+                    }
+                }
+            }
+
+            HeapFile hf = Utility.openHeapFile(2, file);
+            long logBytes = 0;
+            for (File f : file.getParentFile().listFiles()) {
+                if (f.getName().startsWith("log.")) {
+                    logBytes += f.length();
+                }
+            }
+            Database.getLogFile().setRedoThreads(Integer.parseInt(args[1]));
+            long start = System.nanoTime();
+            Database.getLogFile().recover();
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            HashMap<Integer, Integer> rows = new HashMap<>();
+            HashSet<String> seen = new HashSet<>();
+            Transaction t = new Transaction();
+            t.start();
+            SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+            scan.open();
+            while (scan.hasNext()) {
+                Tuple tup = scan.next();
+                int txn = ((IntField) tup.getField(0)).getValue();
+                if (!seen.add(txn + "/" + tup.getField(1))) {
+                    out.println("duplicate row " + tup);
+                    rows.merge(txn, 1000, Integer::sum);
+                }
+                rows.merge(txn, 1, Integer::sum);
+            }
+            scan.close();
+            t.commit();
+            out.println("R " + logBytes + " " + millis);
+            for (int txn : rows.keySet()) {
+                out.println("V " + txn + " " + rows.get(txn));
+            }
+            out.flush();
+            System.exit(0);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CrashRecoveryTest.class);
+    }
+}
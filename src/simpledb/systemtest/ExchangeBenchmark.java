@@ -0,0 +1,44 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Times the QueryTest-style queries of {@link ExchangeTest}, each dominated
+ * by one kind of operator, on 1 to 8 threads and prints the speedup over
+ * the serial plan. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.ExchangeBenchmark [emp rows]
+ * </pre>
+ */
+public class ExchangeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int empRows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        ExchangeTest.createTables(empRows);
+        Database.resetBufferPool(2000);
+        ExchangeTest.Query[] queries = {ExchangeTest.FILTER, ExchangeTest.PROJECT,
+                ExchangeTest.EQUI_JOIN, ExchangeTest.GROUP_BY};
+        String[] names = {"Filter", "Project", "Join", "Aggregate"};
+        TransactionId tid = new TransactionId();
+        System.out.printf("%d cores%n", Runtime.getRuntime().availableProcessors());
+        for (int q = 0; q < queries.length; q++) {
+            // warm up the pool and the JIT
+            int rows = ExchangeTest.run(ExchangeTest.plan(tid, queries[q], 1)).size();
+            ExchangeTest.run(ExchangeTest.plan(tid, queries[q], 2));
+            double serial = 0;
+            StringBuilder line = new StringBuilder(String.format("%s, %d rows:", names[q], rows));
+            for (int threads : new int[]{1, 2, 4, 8}) {
+                long start = System.nanoTime();
+                ExchangeTest.run(ExchangeTest.plan(tid, queries[q], threads));
+                double seconds = (System.nanoTime() - start) / 1e9;
+                if (threads == 1) {
+                    serial = seconds;
+                }
+                line.append(String.format(" %d threads %.3f s (%.2fx);", threads, seconds, serial / seconds));
+            }
+            System.out.println(line);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().stopCleaner();
+    }
+}
@@ -0,0 +1,220 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests the Exchange variants, and checks that QueryTest-style queries, each
+ * dominated by one kind of operator, return the same tuples when
+ * ExchangePlanner parallelizes them as when they run serially.
+ */
+public class ExchangeTest extends SimpleDbTestBase {
+
+    private static final int IO_COST = 71;
+
+    private static OpIterator[] scans(TransactionId tid, HeapFile f, int partitions) {
+        OpIterator[] scans = new OpIterator[partitions];
+        for (int i = 0; i < partitions; i++) {
+            scans[i] = new SeqScan(tid, f.getId(), "t", i, partitions);
+        }
+        return scans;
+    }
+
+    static List<String> run(OpIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test public void testGather() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (int partitions : new int[]{1, 3, 40}) {
+            SystemTestUtil.matchTuples(Exchange.gather(scans(tid, f, partitions)), tuples);
+        }
+
+        OpIterator gather = Exchange.gather(scans(tid, f, 4));
+        gather.open();
+        int count = 0;
+        while (gather.hasNext()) {
+            gather.next();
+            count++;
+        }
+        gather.rewind();
+        while (gather.hasNext()) {
+            gather.next();
+            count++;
+        }
+        gather.close();
+        assertEquals(2 * tuples.size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRepartition() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+        Operator[] outputs = Exchange.repartition(scans(tid, f, 3), 0, 4);
+        HashMap<Integer, Integer> outputOf = new HashMap<>();
+        int count = 0;
+        for (Operator out : outputs) {
+            out.open();
+        }
+        for (int i = 0; i < outputs.length; i++) {
+            int returned = 0;
+            while (outputs[i].hasNext()) {
+                int value = ((IntField) outputs[i].next().getField(0)).getValue();
+                Integer previous = outputOf.put(value, i);
+                assertTrue(previous == null || previous == i);
+                returned++;
+            }
+            outputs[i].rewind();
+            while (outputs[i].hasNext()) {
+                outputs[i].next();
+                returned--;
+            }
+            assertEquals(0, returned);
+            count += outputs[i].hasNext() ? 0 : 1;
+        }
+        for (Operator out : outputs) {
+            out.close();
+        }
+        assertEquals(outputs.length, count);
+        assertEquals(100, outputOf.size());
+        assertTrue(new HashSet<>(outputOf.values()).size() > 1);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBroadcast() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+        TransactionId tid = new TransactionId();
+        Operator[] outputs = Exchange.broadcast(scans(tid, f, 2), 3);
+        for (Operator out : outputs) {
+            out.open();
+        }
+        for (Operator out : outputs) {
+            int count = 0;
+            while (out.hasNext()) {
+                out.next();
+                count++;
+            }
+            assertEquals(tuples.size(), count);
+        }
+        for (Operator out : outputs) {
+            out.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    static void createTables(int empRows) throws Exception {
+        HeapFile emp = SystemTestUtil.createRandomHeapFile(6, empRows, 1000, null, null, "c");
+        Database.getCatalog().addTable(emp, "emp");
+        HeapFile dept = SystemTestUtil.createRandomHeapFile(3, 200, 1000, null, null, "c");
+        Database.getCatalog().addTable(dept, "dept");
+        TableStats.setTableStats("emp", new TableStats(emp.getId(), IO_COST));
+        TableStats.setTableStats("dept", new TableStats(dept.getId(), IO_COST));
+    }
+
+    /** Adds the scans, filters, joins and select list of a query to a plan. */
+    interface Query {
+        void build(LogicalPlan lp) throws ParsingException;
+    }
+
+    static OpIterator plan(TransactionId tid, Query query, int parallelism) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        query.build(lp);
+        lp.setParallelism(parallelism);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    private static void scan(LogicalPlan lp, String... tables) {
+        for (String table : tables) {
+            lp.addScan(Database.getCatalog().getTableId(table), table);
+        }
+    }
+
+    // SELECT * FROM emp WHERE emp.c3 < 500
+    static final Query FILTER = lp -> {
+        scan(lp, "emp");
+        lp.addFilter("emp.c3", Predicate.Op.LESS_THAN, "500");
+        lp.addProjectField("null.*", null);
+    };
+    // SELECT emp.c0, emp.c1 FROM emp
+    static final Query PROJECT = lp -> {
+        scan(lp, "emp");
+        lp.addProjectField("emp.c0", null);
+        lp.addProjectField("emp.c1", null);
+    };
+    // SELECT * FROM emp, dept WHERE emp.c1 = dept.c0 AND emp.c3 < 200
+    static final Query EQUI_JOIN = lp -> {
+        scan(lp, "emp", "dept");
+        lp.addFilter("emp.c3", Predicate.Op.LESS_THAN, "200");
+        lp.addJoin("emp.c1", "dept.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("null.*", null);
+    };
+    // SELECT * FROM emp, dept WHERE emp.c1 < dept.c0 AND emp.c3 < 10
+    private static final Query RANGE_JOIN = lp -> {
+        scan(lp, "emp", "dept");
+        lp.addFilter("emp.c3", Predicate.Op.LESS_THAN, "10");
+        lp.addJoin("emp.c1", "dept.c0", Predicate.Op.LESS_THAN);
+        lp.addProjectField("null.*", null);
+    };
+    // SELECT emp.c1, SUM(emp.c2) FROM emp GROUP BY emp.c1
+    static final Query GROUP_BY = lp -> {
+        scan(lp, "emp");
+        lp.addProjectField("emp.c1", null);
+        lp.addProjectField("emp.c2", "sum");
+        lp.addAggregate("sum", "emp.c2", "emp.c1");
+    };
+    // SELECT COUNT(emp.c0) FROM emp WHERE emp.c4 > 300
+    private static final Query COUNT = lp -> {
+        scan(lp, "emp");
+        lp.addFilter("emp.c4", Predicate.Op.GREATER_THAN, "300");
+        lp.addProjectField("emp.c0", "count");
+        lp.addAggregate("count", "emp.c0", null);
+    };
+    // SELECT emp.c0, emp.c5 FROM emp WHERE emp.c2 < 100 ORDER BY emp.c5
+    private static final Query ORDER_BY = lp -> {
+        scan(lp, "emp");
+        lp.addFilter("emp.c2", Predicate.Op.LESS_THAN, "100");
+        lp.addProjectField("emp.c0", null);
+        lp.addProjectField("emp.c5", null);
+        lp.addOrderBy("emp.c5", true);
+    };
+
+    @Test public void testParallelPlansMatchSerial() throws Exception {
+        createTables(5000);
+        TransactionId tid = new TransactionId();
+        assertTrue(plan(tid, FILTER, 2) instanceof Exchange.Output);
+        for (Query query : new Query[]{FILTER, PROJECT, EQUI_JOIN, RANGE_JOIN, GROUP_BY, COUNT, ORDER_BY}) {
+            List<String> serial = run(plan(tid, query, 1));
+            assertTrue(!serial.isEmpty());
+            for (int parallelism : new int[]{2, 4, 8}) {
+                assertEquals(serial, run(plan(tid, query, parallelism)));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,33 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Prints the cost of single-tuple insert transactions into a table whose
+ * pages are almost all full, so every insert has to find one of the few
+ * free slots. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.FreeSpaceMapBenchmark [pages] [inserts]
+ * </pre>
+ */
+public class FreeSpaceMapBenchmark {
+    // 504 two-column tuples fit on a page
+    private static final int TUPLES_PER_PAGE = 504;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int inserts = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, pages * TUPLES_PER_PAGE - inserts, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long start = System.nanoTime();
+        for (int i = 0; i < inserts; i++) {
+            TransactionId tid = new TransactionId();
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(i, 2));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        double micros = (System.nanoTime() - start) / 1e3 / inserts;
+        System.out.printf("%.0f us per insert transaction into a %d page table (%d pages after)%n",
+                micros, pages, f.numPages());
+        Database.getBufferPool().stopCleaner();
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that the free space map of a HeapFile follows inserts, deletes and
+ * aborts, that the entries of flushed pages survive reopening the table, and
+ * that a map left over from a different version of the table is dropped.
+ */
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    // 504 two-column tuples fit on a page
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private static void assertMapMatches(HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < f.numPages(); pgNo++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+            int recorded = f.getFreeSpaceMap().get(pgNo);
+            if (recorded != FreeSpaceMap.UNKNOWN) {
+                assertEquals("page " + pgNo, page.getNumEmptySlots(), recorded);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testInsertLocksOnePage() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10 * TUPLES_PER_PAGE - 1, null, null);
+        assertEquals(10, f.numPages());
+
+        // the first insert learns that the full pages are full
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(1, Database.getBufferPool().getLockManager().lockedPages(tid).size());
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, f.getFreeSpaceMap().get(9));
+
+        // the next one goes to a new page without touching the others
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(2, 2));
+        assertEquals(1, Database.getBufferPool().getLockManager().lockedPages(tid).size());
+        assertEquals(11, f.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+        assertMapMatches(f);
+    }
+
+    @Test public void testDeleteFreesSlot() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3 * TUPLES_PER_PAGE, null, tuples);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        it.hasNext();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        assertEquals(1, f.getFreeSpaceMap().get(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(3, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, f.numPages());
+        assertMapMatches(f);
+    }
+
+    @Test public void testAbortRestoresMap() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE + 10, null, null);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 20; i++) {
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(TUPLES_PER_PAGE - 30, f.getFreeSpaceMap().get(1));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(TUPLES_PER_PAGE - 10, f.getFreeSpaceMap().get(1));
+        assertMapMatches(f);
+    }
+
+    @Test public void testMapPersists() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2 * TUPLES_PER_PAGE + 100, null, null);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 50; i++) {
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        // commits leave the pages to the cleaner
+        Database.getBufferPool().flushCommittedPages();
+
+        HeapFile reopened = Utility.openHeapFile(2, f.getFile());
+        assertEquals(TUPLES_PER_PAGE - 150, reopened.getFreeSpaceMap().get(2));
+        assertMapMatches(reopened);
+    }
+
+    @Test public void testStaleMapDropped() throws Exception {
+        File file = File.createTempFile("fsm", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sideFile(file).deleteOnExit();
+        HeapFile f = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2 * TUPLES_PER_PAGE; i++) {
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushCommittedPages();
+        assertEquals(0, Utility.openHeapFile(2, file).getFreeSpaceMap().get(1));
+
+        // a page appended behind the map's back makes its entries stale
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(HeapPage.createEmptyPageData());
+        }
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile grown = Utility.openHeapFile(2, file);
+        assertEquals(FreeSpaceMap.UNKNOWN, grown.getFreeSpaceMap().get(1));
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, grown.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, grown.numPages());
+        assertMapMatches(grown);
+
+        // a recreated table starts with an empty map
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile recreated = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        assertEquals(TUPLES_PER_PAGE, recreated.getFreeSpaceMap().get(0));
+        assertEquals(FreeSpaceMap.UNKNOWN, recreated.getFreeSpaceMap().get(1));
+    }
+
+    private static void deleteFirstTupleOf(HeapFile f, int pgNo) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple victim = null;
+        while (victim == null && it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().getPageNumber() == pgNo) {
+                victim = t;
+            }
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushCommittedPages();
+    }
+
+    @Test public void testInvalidatedMapHasNoHoles() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3 * TUPLES_PER_PAGE, null, null);
+        deleteFirstTupleOf(f, 0);
+        f.getFreeSpaceMap().invalidate();
+        // only page 2 is written after the map is emptied; the entries
+        // before it must not read back as full pages
+        deleteFirstTupleOf(f, 2);
+
+        HeapFile reopened = Utility.openHeapFile(2, f.getFile());
+        assertEquals(FreeSpaceMap.UNKNOWN, reopened.getFreeSpaceMap().get(0));
+        assertEquals(FreeSpaceMap.UNKNOWN, reopened.getFreeSpaceMap().get(1));
+        assertEquals(1, reopened.getFreeSpaceMap().get(2));
+        assertMapMatches(reopened);
+    }
+
+    @Test public void testAppendKeepsMapValid() throws Exception {
+        File file = File.createTempFile("fsm", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sideFile(file).deleteOnExit();
+        HeapFile f = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2 * TUPLES_PER_PAGE; i++) {
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushCommittedPages();
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(3, f.numPages());
+        // the appended page is never written, yet the map still matches the table
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        HeapFile reopened = Utility.openHeapFile(2, file);
+        assertEquals(0, reopened.getFreeSpaceMap().get(0));
+        assertEquals(0, reopened.getFreeSpaceMap().get(1));
+        assertEquals(FreeSpaceMap.UNKNOWN, reopened.getFreeSpaceMap().get(2));
+    }
+
+    @Test public void testInsertsFillLastFreeSlots() throws Exception {
+        int pages = 100;
+        int inserts = 200;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, pages * TUPLES_PER_PAGE - inserts, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int i = 0; i < inserts; i++) {
+            TransactionId tid = new TransactionId();
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(i, 2));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertEquals(pages, f.numPages());
+        assertMapMatches(f);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
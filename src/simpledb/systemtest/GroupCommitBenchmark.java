@@ -0,0 +1,70 @@
+package simpledb.systemtest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import simpledb.*;
+
+/**
+ * Commits empty transactions from many threads at once and prints the
+ * commit throughput and the 99th percentile commit latency, with the
+ * default group commit settings and with a short group commit delay. Not
+ * part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.GroupCommitBenchmark [commits per thread]
+ * </pre>
+ */
+public class GroupCommitBenchmark {
+    private static final int THREADS = 16;
+
+    public static void main(String[] args) throws Exception {
+        int commitsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        LogFile log = Database.getLogFile();
+        run("no delay", commitsPerThread);
+
+        log.setGroupCommitDelay(500);
+        log.setGroupCommitBatch(THREADS);
+        run("500 us delay, batch " + THREADS, commitsPerThread);
+        Database.getBufferPool().stopCleaner();
+    }
+
+    private static void run(String name, int commitsPerThread) throws Exception {
+        long[][] latencies = new long[THREADS][commitsPerThread];
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] workers = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            final long[] mine = latencies[i];
+            workers[i] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < commitsPerThread; n++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        long begin = System.nanoTime();
+                        t.commit();
+                        mine[n] = System.nanoTime() - begin;
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+
+        int commits = THREADS * commitsPerThread;
+        long[] all = new long[commits];
+        for (int i = 0; i < THREADS; i++) {
+            System.arraycopy(latencies[i], 0, all, i * commitsPerThread, commitsPerThread);
+        }
+        Arrays.sort(all);
+        System.out.printf("%s: %.0f commits/s, p99 commit latency %.2f ms%n",
+                name, commits / seconds, all[commits * 99 / 100] / 1e6);
+    }
+}
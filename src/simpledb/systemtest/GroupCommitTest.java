@@ -0,0 +1,62 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Commits empty transactions from many threads at once, with the default
+ * group commit settings and with a short group commit delay, and checks
+ * that every commit returns and is in the log.
+ */
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 16;
+    private static final int COMMITS_PER_THREAD = 50;
+
+    @Test public void testConcurrentCommits() throws Exception {
+        LogFile log = Database.getLogFile();
+        run();
+
+        log.setGroupCommitDelay(500);
+        log.setGroupCommitBatch(THREADS);
+        run();
+    }
+
+    private static void run() throws Exception {
+        int records = Database.getLogFile().getTotalRecords();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] workers = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < COMMITS_PER_THREAD; n++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        t.commit();
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertNull(String.valueOf(error.get()), error.get());
+
+        int commits = THREADS * COMMITS_PER_THREAD;
+        // a BEGIN and a COMMIT record per transaction
+        assertEquals(records + 2 * commits, Database.getLogFile().getTotalRecords());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
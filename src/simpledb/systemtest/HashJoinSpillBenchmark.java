@@ -0,0 +1,44 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Runs the same HashEquiJoin with an unlimited memory budget and with a
+ * budget a fraction the size of its build side, and prints the time of
+ * each, how many partitions spilled and the peak memory held. Not part of
+ * the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.HashJoinSpillBenchmark [build rows] [probe rows] [budget in KB]
+ * </pre>
+ */
+public class HashJoinSpillBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int buildRows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int probeRows = args.length > 1 ? Integer.parseInt(args[1]) : 300000;
+        long budget = (args.length > 2 ? Long.parseLong(args[2]) : 400) << 10;
+        HeapFile build = SystemTestUtil.createRandomHeapFile(3, buildRows, buildRows / 4, null, null);
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, probeRows, buildRows / 4, null, null);
+        Database.resetBufferPool(build.numPages() + probe.numPages() + 100);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        for (long b : new long[]{Long.MAX_VALUE, budget, Long.MAX_VALUE, budget}) {
+            HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, build.getId(), "a"),
+                    new SeqScan(tid, probe.getId(), "b"), b);
+            long start = System.nanoTime();
+            join.open();
+            int rows = 0;
+            while (join.hasNext()) {
+                join.next();
+                rows++;
+            }
+            double millis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%s: %d rows in %.0f ms; %d of %d partitions spilled, peak %d bytes%n",
+                    b == Long.MAX_VALUE ? "no budget" : b + " byte budget", rows, millis,
+                    join.getSpilledPartitions(), HashEquiJoin.PARTITIONS, join.getPeakMemory());
+            join.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().stopCleaner();
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests HashEquiJoin with build sides that do not fit in its memory
+ * budget: the results match an in-memory join, each child is read once,
+ * and the tuples held in memory stay within the budget.
+ */
+public class HashJoinSpillTest extends SimpleDbTestBase {
+
+    /** Counts the tuples read from its child. */
+    private static class Counting extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final OpIterator child;
+        int read;
+
+        Counting(OpIterator child) {
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext()) {
+                return null;
+            }
+            read++;
+            return child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[]{child};
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    private static List<String> run(OpIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test public void testSpilledJoinMatchesInMemory() throws Exception {
+        HeapFile build = SystemTestUtil.createRandomHeapFile(3, 20000, 5000, null, null);
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 30000, 5000, null, null);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<String> expected = run(new HashEquiJoin(p, new SeqScan(tid, build.getId(), "a"),
+                new SeqScan(tid, probe.getId(), "b"), Long.MAX_VALUE));
+        assertTrue(expected.size() > 20000);
+
+        // 20000 build tuples of 12 bytes in a 40 KB budget
+        long budget = 40 << 10;
+        Counting c1 = new Counting(new SeqScan(tid, build.getId(), "a"));
+        Counting c2 = new Counting(new SeqScan(tid, probe.getId(), "b"));
+        HashEquiJoin join = new HashEquiJoin(p, c1, c2, budget);
+        join.open();
+        ArrayList<String> rows = new ArrayList<>();
+        while (join.hasNext()) {
+            rows.add(join.next().toString());
+        }
+        Collections.sort(rows);
+        assertEquals(expected, rows);
+        assertEquals(20000, c1.read);
+        assertEquals(30000, c2.read);
+        assertTrue(join.getSpilledPartitions() > 0);
+        assertTrue(join.getPeakMemory() > 0 && join.getPeakMemory() <= budget);
+
+        // rewinding runs the join again from its children
+        join.rewind();
+        int again = 0;
+        while (join.hasNext()) {
+            join.next();
+            again++;
+        }
+        assertEquals(expected.size(), again);
+        assertEquals(40000, c1.read);
+        assertEquals(60000, c2.read);
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testInMemoryJoinReadsEachChildOnce() throws Exception {
+        HeapFile build = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null);
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        Counting c1 = new Counting(new SeqScan(tid, build.getId(), "a"));
+        Counting c2 = new Counting(new SeqScan(tid, probe.getId(), "b"));
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), c1, c2);
+        List<String> rows = run(join);
+        assertTrue(!rows.isEmpty());
+        assertEquals(5000, c1.read);
+        assertEquals(5000, c2.read);
+        assertEquals(0, join.getSpilledPartitions());
+        assertEquals(5000L * 8, join.getPeakMemory());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSkewedKey() throws Exception {
+        // every build tuple has the same key, so partitioning cannot split
+        // them and the join falls back to loading a budget at a time
+        HashMap<Integer, Integer> spec = new HashMap<>();
+        spec.put(0, 7);
+        HeapFile build = SystemTestUtil.createRandomHeapFile(2, 3000, spec, null);
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 200, 10, null, null);
+        TransactionId tid = new TransactionId();
+        int matching = 0;
+        OpIterator scan = new SeqScan(tid, probe.getId(), "b");
+        scan.open();
+        while (scan.hasNext()) {
+            if (((IntField) scan.next().getField(0)).getValue() == 7) {
+                matching++;
+            }
+        }
+        scan.close();
+        assertTrue(matching > 0);
+
+        long budget = 8 << 10;
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, build.getId(), "a"), new SeqScan(tid, probe.getId(), "b"), budget);
+        assertEquals(3000 * matching, run(join).size());
+        assertTrue(join.getPeakMemory() <= budget);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashJoinSpillTest.class);
+    }
+}
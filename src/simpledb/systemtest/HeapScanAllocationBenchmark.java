@@ -0,0 +1,75 @@
+package simpledb.systemtest;
+
+import java.lang.management.ManagementFactory;
+
+import simpledb.*;
+
+/**
+ * Scans a wide table and prints time and heap allocation per tuple, first
+ * through HeapFile.iterator (every tuple is materialized), then by checking
+ * one field per slot with HeapPage.getField, as a selective filter would,
+ * without materializing any tuple. Every round starts from cold pages. Not
+ * part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.HeapScanAllocationBenchmark [rows]
+ * </pre>
+ */
+public class HeapScanAllocationBenchmark {
+    private static final int COLUMNS = 16;
+    private static final int ROUNDS = 5;
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, null, null);
+        Database.resetBufferPool(f.numPages());
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = f.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+            report("iterator", rows, start, bytes);
+            Database.resetBufferPool(f.numPages());
+        }
+
+        // random values are below 1 << 16, so about 1% of the rows pass
+        Field threshold = new IntField(655);
+        for (int round = 0; round < ROUNDS; round++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            TransactionId tid = new TransactionId();
+            int count = 0;
+            for (int pgNo = 0; pgNo < f.numPages(); pgNo++) {
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+                for (int slot = 0; slot < page.getNumSlots(); slot++) {
+                    if (page.isSlotUsed(slot)
+                            && page.getField(slot, 0).compare(Predicate.Op.LESS_THAN, threshold)) {
+                        count++;
+                    }
+                }
+            }
+            Database.getBufferPool().transactionComplete(tid);
+            report("getField filter, " + count + " rows pass", rows, start, bytes);
+            Database.resetBufferPool(f.numPages());
+        }
+        Database.getBufferPool().stopCleaner();
+    }
+
+    private static void report(String name, int rows, long start, long bytes) {
+        double nanos = System.nanoTime() - start;
+        System.out.printf("%s: %.0f ns/tuple, %d bytes allocated/tuple%n",
+                name, nanos / rows, (allocatedBytes() - bytes) / rows);
+    }
+}
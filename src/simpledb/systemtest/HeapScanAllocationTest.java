@@ -0,0 +1,59 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans a wide table through HeapFile.iterator, which materializes every
+ * tuple, and by checking one field per slot with HeapPage.getField, as a
+ * selective filter would, without materializing any tuple; both must find
+ * the same rows.
+ */
+public class HeapScanAllocationTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 16;
+    private static final int ROWS = 10000;
+
+    @Test public void testWideScan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, null);
+        // random values are below 1 << 16, so about 1% of the rows pass
+        Field threshold = new IntField(655);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        int expected = 0;
+        while (it.hasNext()) {
+            if (it.next().getField(0).compare(Predicate.Op.LESS_THAN, threshold)) {
+                expected++;
+            }
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+        assertTrue(expected > 0);
+
+        int passed = 0;
+        for (int pgNo = 0; pgNo < f.numPages(); pgNo++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+            for (int slot = 0; slot < page.getNumSlots(); slot++) {
+                if (page.isSlotUsed(slot)
+                        && page.getField(slot, 0).compare(Predicate.Op.LESS_THAN, threshold)) {
+                    passed++;
+                }
+            }
+        }
+        assertEquals(expected, passed);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HeapScanAllocationTest.class);
+    }
+}
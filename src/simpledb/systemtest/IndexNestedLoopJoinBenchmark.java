@@ -0,0 +1,48 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Joins a few outer rows to a large table keyed on the join field, once
+ * with a hash join over a scan of the table and once by probing its
+ * B+ tree with IndexNestedLoopJoin, and prints the pages each read and the
+ * time each took. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.IndexNestedLoopJoinBenchmark [indexed rows] [probes]
+ * </pre>
+ */
+public class IndexNestedLoopJoinBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int probes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        IndexNestedLoopJoinTest.InstrumentedBTreeFile dim = IndexNestedLoopJoinTest.createDimension(rows);
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(2, probes, rows, null, null);
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+
+        TransactionId tid = new TransactionId();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        dim.readCount = 0;
+        long start = System.nanoTime();
+        int scanRows = IndexNestedLoopJoinTest.run(new HashEquiJoin(p, new SeqScan(tid, fact.getId(), "f"),
+                new BTreeScan(tid, dim.getId(), "dim", null))).size();
+        double scanSeconds = (System.nanoTime() - start) / 1e9;
+        int scanReads = dim.readCount;
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        dim.readCount = 0;
+        start = System.nanoTime();
+        int indexRows = IndexNestedLoopJoinTest.run(new IndexNestedLoopJoin(tid, p,
+                new SeqScan(tid, fact.getId(), "f"), dim.getId(), "dim")).size();
+        double indexSeconds = (System.nanoTime() - start) / 1e9;
+        int indexReads = dim.readCount;
+        Database.getBufferPool().transactionComplete(tid);
+
+        System.out.printf("%d probes of %d pages read %d pages in %.3f s (%d rows);"
+                        + " hash join over a scan read %d pages in %.3f s (%d rows)%n",
+                probes, dim.numPages(), indexReads, indexSeconds, indexRows, scanReads, scanSeconds, scanRows);
+        Database.getBufferPool().stopCleaner();
+    }
+}
@@ -0,0 +1,215 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests IndexNestedLoopJoin against the nested-loop Join for each predicate
+ * it supports, counts the pages a point join reads from a large indexed
+ * table against a scan of it, and checks that the planner looks up
+ * joins with few outer tuples in the index.
+ */
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+    private static final int IO_COST = 71;
+
+    /** Counts the number of readPage operations. */
+    static class InstrumentedBTreeFile extends BTreeFile {
+        public InstrumentedBTreeFile(File f, int keyField, TupleDesc td) {
+            super(f, keyField, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
+    static List<String> run(OpIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * @return a table of rows (i, 2i) for i from 1 to rows, keyed on the
+     *         first field, whose fields are named d0 and d1
+     */
+    static InstrumentedBTreeFile createDimension(int rows) throws Exception {
+        BTreeFile f = BTreeUtility.createBTreeFile(2, rows, null, null, 0);
+        InstrumentedBTreeFile dim = new InstrumentedBTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "d"));
+        Database.getCatalog().addTable(dim, "dim", "d0");
+        return dim;
+    }
+
+    @Test public void testMatchesNestedLoops() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 40, 600, null, null);
+        BTreeFile inner = BTreeUtility.createRandomBTreeFile(3, 2000, 500, null, null, 1);
+        Database.getCatalog().addTable(inner, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : OPS) {
+            JoinPredicate p = new JoinPredicate(1, op, 1);
+            List<String> expected = run(new Join(p, new SeqScan(tid, outer.getId(), "a"),
+                    new BTreeScan(tid, inner.getId(), "b", null)));
+            assertTrue(!expected.isEmpty());
+            IndexNestedLoopJoin join = new IndexNestedLoopJoin(tid, p, new SeqScan(tid, outer.getId(), "a"),
+                    inner.getId(), "b");
+            assertEquals(op.toString(), expected, run(join));
+
+            join.open();
+            int count = 0;
+            while (join.hasNext()) {
+                join.next();
+                count++;
+            }
+            join.rewind();
+            while (join.hasNext()) {
+                join.next();
+                count--;
+            }
+            assertEquals(0, count);
+            assertEquals(40, join.getProbes());
+            join.close();
+        }
+        assertFalse(IndexNestedLoopJoin.supports(Predicate.Op.NOT_EQUALS));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPointJoinPageReads() throws Exception {
+        int rows = 200000;
+        InstrumentedBTreeFile dim = createDimension(rows);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(2, 10, rows, null, tuples);
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        TransactionId tid = new TransactionId();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        dim.readCount = 0;
+        List<String> expected = run(new HashEquiJoin(p, new SeqScan(tid, fact.getId(), "f"),
+                new BTreeScan(tid, dim.getId(), "dim", null)));
+        int scanReads = dim.readCount;
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        dim.readCount = 0;
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(tid, p, new SeqScan(tid, fact.getId(), "f"),
+                dim.getId(), "dim");
+        assertEquals(expected, run(join));
+        int indexReads = dim.readCount;
+
+        int matches = 0;
+        for (ArrayList<Integer> t : tuples) {
+            matches += t.get(1) >= 1 && t.get(1) <= rows ? 1 : 0;
+        }
+        assertEquals(matches, expected.size());
+        // the scan reads every page; each lookup reads at most the root,
+        // the internal page above the leaf, the leaf and the next leaf,
+        // and the root pointer page is read once
+        assertTrue(scanReads >= dim.numPages() - 1);
+        assertTrue(indexReads <= 1 + 4 * tuples.size());
+        assertTrue(indexReads * 10 < scanReads);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean containsIndexJoin(OpIterator op) {
+        if (op instanceof IndexNestedLoopJoin) {
+            return true;
+        }
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                if (containsIndexJoin(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static LogicalPlan factDimJoin(HeapFile fact, BTreeFile dim) throws Exception {
+        // SELECT * FROM fact, dim WHERE fact.c1 = dim.d0
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(fact.getId(), "fact");
+        lp.addScan(dim.getId(), "dim");
+        lp.addJoin("fact.c1", "dim.d0", Predicate.Op.EQUALS);
+        lp.addProjectField("null.*", null);
+        return lp;
+    }
+
+    @Test public void testPlanChoosesIndexJoin() throws Exception {
+        InstrumentedBTreeFile dim = createDimension(20000);
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, 20000, null, null, "c");
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(2, 2000, 20000, null, null, "c");
+        TableStats.setTableStats("dim", new TableStats(dim.getId(), IO_COST));
+        TransactionId tid = new TransactionId();
+
+        // a few outer tuples are looked up in the index
+        Database.getCatalog().addTable(small, "fact");
+        TableStats.setTableStats("fact", new TableStats(small.getId(), IO_COST));
+        OpIterator plan = factDimJoin(small, dim).physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(containsIndexJoin(plan));
+        List<String> expected = run(new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, small.getId(), "fact"), new BTreeScan(tid, dim.getId(), "dim", null)));
+        assertEquals(expected, run(plan));
+
+        // many are cheaper to join with a scan
+        Database.getCatalog().addTable(fact, "fact");
+        TableStats.setTableStats("fact", new TableStats(fact.getId(), IO_COST));
+        assertFalse(containsIndexJoin(factDimJoin(fact, dim).physicalPlan(tid, TableStats.getStatsMap(), false)));
+
+        // without statistics the outer cardinality is unknown, so is the
+        // cost of the lookups, and the join scans
+        TableStats.getStatsMap().remove("fact");
+        assertFalse(containsIndexJoin(factDimJoin(fact, dim).physicalPlan(tid, TableStats.getStatsMap(), false)));
+        TableStats.setTableStats("fact", new TableStats(fact.getId(), IO_COST));
+
+        // a filter on the indexed table leaves nothing to look up
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(fact.getId(), "fact");
+        lp.addScan(dim.getId(), "dim");
+        lp.addFilter("dim.d1", Predicate.Op.LESS_THAN, "100");
+        lp.addJoin("fact.c1", "dim.d0", Predicate.Op.EQUALS);
+        lp.addProjectField("null.*", null);
+        assertFalse(containsIndexJoin(lp.physicalPlan(tid, TableStats.getStatsMap(), false)));
+
+        // the lookups are worth it for a selective outer input only
+        lp = new LogicalPlan();
+        lp.addScan(fact.getId(), "fact");
+        lp.addScan(dim.getId(), "dim");
+        JoinOptimizer jo = new JoinOptimizer(lp, new java.util.Vector<LogicalJoinNode>());
+        LogicalJoinNode lj = new LogicalJoinNode("fact", "dim", "fact.c1", "dim.d0", Predicate.Op.EQUALS);
+        double scanCost = dim.numPages() * IO_COST;
+        assertTrue(jo.prefersIndexJoin(lj, 10, 20000, scanCost));
+        assertFalse(jo.prefersIndexJoin(lj, 20000, 20000, scanCost));
+        assertFalse(jo.prefersIndexJoin(lj, 0, 20000, scanCost));
+        assertTrue(jo.estimateJoinCost(lj, 10, 20000, 10, scanCost) < 10 + scanCost);
+        assertFalse(jo.prefersIndexJoin(lj.swapInnerOuter(), 10, 2000, scanCost));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -68,6 +68,13 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(1, 1, 1);
     }
 
+    /** More tuples than one batch of the Insert operator, over many pages. */
+    @Test public void testManyToSome()
+            throws IOException, DbException, TransactionAbortedException {
+        Database.resetBufferPool(100);
+        validateInsert(2, 10000, 600);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);
@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 import simpledb.*;
@@ -69,6 +72,44 @@ public class JoinTest extends SimpleDbTestBase {
         validateJoin(1, 3, 1, 3);
     }
 
+    @Test public void testBlockNestedLoop()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, 1000, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 200, 1000, null, t2Tuples);
+
+        int expected = 0;
+        for (ArrayList<Integer> t1 : t1Tuples) {
+            for (ArrayList<Integer> t2 : t2Tuples) {
+                if (t1.get(1) < t2.get(0)) {
+                    expected++;
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.LESS_THAN, 0);
+        int tuplesPerPage = BufferPool.getPageSize() / table1.getTupleDesc().getSize();
+        for (int blockPages : new int[]{1, 4, 16}) {
+            Join joinOp = new Join(p, new SeqScan(tid, table1.getId(), ""),
+                    new SeqScan(tid, table2.getId(), ""), blockPages);
+            joinOp.open();
+            int count = 0;
+            while (joinOp.hasNext()) {
+                Tuple t = joinOp.next();
+                assertTrue(((IntField) t.getField(1)).getValue() < ((IntField) t.getField(2)).getValue());
+                count++;
+            }
+            joinOp.close();
+            assertEquals(expected, count);
+            // one scan of the inner table per block of outer tuples
+            int blockTuples = blockPages * tuplesPerPage;
+            assertEquals((3000 + blockTuples - 1) / blockTuples, joinOp.getInnerScans());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(JoinTest.class);
@@ -0,0 +1,98 @@
+package simpledb.systemtest;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import simpledb.*;
+
+/**
+ * Runs short write transactions against a handful of hot pages from many
+ * threads and prints how many of them were aborted, first with every
+ * transaction locking its pages in ascending order (every abort is a false
+ * one) and then in random order (the price of the deadlocks that really
+ * occur). Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.LockContentionBenchmark [transactions per thread]
+ * </pre>
+ */
+public class LockContentionBenchmark {
+    private static final int HOT_PAGES = 4;
+    private static final int THREADS = 8;
+    private static final int PAGES_PER_TRANSACTION = 2;
+    private static final int HOLD_MILLIS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int transactionsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 25;
+        // 504 two-column tuples fit on a page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        for (boolean ordered : new boolean[]{true, false}) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            long start = System.nanoTime();
+            int aborts = run(f, ordered, transactionsPerThread);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            int total = THREADS * transactionsPerThread;
+            System.out.printf("%s: %d aborts for %d commits (%.1f%% of attempts), %d deadlocks detected, %.1f s%n",
+                    ordered ? "ordered" : "random order", aborts, total, 100.0 * aborts / (aborts + total),
+                    Database.getBufferPool().getLockManager().getDeadlockCount(), seconds);
+        }
+        Database.getBufferPool().stopCleaner();
+    }
+
+    /**
+     * @return the number of aborted transaction attempts; every transaction
+     *   is retried until it commits
+     */
+    private static int run(HeapFile f, boolean ordered, int transactionsPerThread) throws Exception {
+        AtomicInteger aborts = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] workers = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final long seed = i;
+            workers[i] = new Thread(() -> {
+                Random rand = new Random(seed);
+                try {
+                    for (int n = 0; n < transactionsPerThread; n++) {
+                        int[] pages = new int[PAGES_PER_TRANSACTION];
+                        for (int j = 0; j < pages.length; j++) {
+                            pages[j] = rand.nextInt(HOT_PAGES);
+                        }
+                        if (ordered) {
+                            Arrays.sort(pages);
+                        }
+                        while (!runTransaction(f, pages)) {
+                            aborts.incrementAndGet();
+                            Thread.sleep(rand.nextInt(HOLD_MILLIS));
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+        return aborts.get();
+    }
+
+    private static boolean runTransaction(HeapFile f, int[] pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        try {
+            for (int pgNo : pages) {
+                Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_WRITE);
+            }
+            Thread.sleep(HOLD_MILLIS);
+            Database.getBufferPool().transactionComplete(tid);
+            return true;
+        } catch (TransactionAbortedException e) {
+            Database.getBufferPool().transactionComplete(tid, false);
+            return false;
+        }
+    }
+}
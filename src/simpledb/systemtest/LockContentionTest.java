@@ -0,0 +1,102 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs short write transactions against a handful of hot pages from many
+ * threads.
+ * <p>
+ * In the first run every transaction locks its pages in ascending page
+ * order, so no deadlock is possible and every abort is a false one; waiting
+ * behind a holder for a while must not abort anybody. In the second run the
+ * pages are locked in random order; the deadlocks that really occur abort a
+ * transaction each, and every transaction still commits once retried.
+ */
+public class LockContentionTest extends SimpleDbTestBase {
+    private static final int HOT_PAGES = 4;
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS_PER_THREAD = 25;
+    private static final int PAGES_PER_TRANSACTION = 2;
+    private static final int HOLD_MILLIS = 10;
+
+    @Test public void testContention() throws Exception {
+        // 504 two-column tuples fit on a page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        assertEquals(HOT_PAGES, f.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals("transactions locking in a fixed order cannot deadlock", 0, run(f, true));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        run(f, false);
+    }
+
+    /**
+     * @return the number of aborted transaction attempts; every transaction
+     *   is retried until it commits
+     */
+    private static int run(HeapFile f, boolean ordered) throws Exception {
+        AtomicInteger aborts = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] workers = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final long seed = i;
+            workers[i] = new Thread(() -> {
+                Random rand = new Random(seed);
+                try {
+                    for (int n = 0; n < TRANSACTIONS_PER_THREAD; n++) {
+                        int[] pages = new int[PAGES_PER_TRANSACTION];
+                        for (int j = 0; j < pages.length; j++) {
+                            pages[j] = rand.nextInt(HOT_PAGES);
+                        }
+                        if (ordered) {
+                            Arrays.sort(pages);
+                        }
+                        while (!runTransaction(f, pages)) {
+                            aborts.incrementAndGet();
+                            Thread.sleep(rand.nextInt(HOLD_MILLIS));
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertNull(String.valueOf(error.get()), error.get());
+        return aborts.get();
+    }
+
+    private static boolean runTransaction(HeapFile f, int[] pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        try {
+            for (int pgNo : pages) {
+                Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_WRITE);
+            }
+            Thread.sleep(HOLD_MILLIS);
+            Database.getBufferPool().transactionComplete(tid);
+            return true;
+        } catch (TransactionAbortedException e) {
+            Database.getBufferPool().transactionComplete(tid, false);
+            return false;
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LockContentionTest.class);
+    }
+}
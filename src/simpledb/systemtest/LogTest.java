@@ -120,8 +120,10 @@ public class LogTest extends SimpleDbTestBase {
         // adds to the catalog.
         file1 = new File("simple1.db");
         file1.delete();
+        FreeSpaceMap.sideFile(file1).delete();
         file2 = new File("simple2.db");
         file2.delete();
+        FreeSpaceMap.sideFile(file2).delete();
         hf1 = Utility.createEmptyHeapFile(file1.getAbsolutePath(), 2);
         hf2 = Utility.createEmptyHeapFile(file2.getAbsolutePath(), 2);
     }
@@ -427,6 +429,29 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestBufferPoolCommitCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        // a transaction that began in the log and one that did not, both
+        // committed through the BufferPool rather than Transaction.commit
+        setup();
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 31, 0);
+        Database.getBufferPool().transactionComplete(t1.getId(), true);
+
+        TransactionId t2 = new TransactionId();
+        Database.getBufferPool().insertTuple(t2, hf2.getId(), Utility.getHeapTuple(new int[]{32, 0}));
+        Database.getBufferPool().transactionComplete(t2);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 31, true);
+        look(hf2, t, 32, true);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);
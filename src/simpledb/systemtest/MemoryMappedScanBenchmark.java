@@ -0,0 +1,73 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import simpledb.*;
+
+/**
+ * Compares the sequential scan throughput of the memory-mapped and the
+ * FileChannel read paths of HeapFile on a table that is in the OS page
+ * cache. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.MemoryMappedScanBenchmark [table size in MB]
+ * </pre>
+ */
+public class MemoryMappedScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int pages = (int) ((long) megabytes * 1024 * 1024 / BufferPool.getPageSize());
+
+        // copy one full page of random tuples over the whole table
+        HeapFile onePage = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        byte[] page = Files.readAllBytes(onePage.getFile().toPath());
+        File file = File.createTempFile("scanbench", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sideFile(file).deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < pages; i++) {
+                out.write(page);
+            }
+        }
+
+        HeapFile channelFile = Utility.openHeapFile(2, file);
+        HeapFile mappedFile = new HeapFile(file, channelFile.getTupleDesc(), true);
+        // warm up both paths and bring the file into the OS page cache
+        report("channel", channelFile, megabytes, false);
+        report("mmap", mappedFile, megabytes, false);
+        report("channel", channelFile, megabytes, true);
+        report("mmap", mappedFile, megabytes, true);
+        Database.getBufferPool().stopCleaner();
+    }
+
+    private static void report(String name, HeapFile f, int megabytes, boolean print)
+            throws IOException, DbException, TransactionAbortedException {
+        // the catalog maps the file's id to whichever HeapFile was added last
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        long start = System.nanoTime();
+        int count = scan(f);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (print) {
+            System.out.printf("%s: %d tuples, %d MB in %.2f s, %.0f MB/s%n",
+                    name, count, megabytes, seconds, megabytes / seconds);
+        }
+    }
+
+    private static int scan(HeapFile f) throws IOException, DbException, TransactionAbortedException {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+}
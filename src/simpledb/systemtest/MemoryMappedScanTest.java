@@ -0,0 +1,56 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans heap files opened in memory-mapped mode, and reads the pages they
+ * grow by.
+ */
+public class MemoryMappedScanTest extends SimpleDbTestBase {
+
+    private static HeapFile openMapped(HeapFile f) {
+        HeapFile mapped = new HeapFile(f.getFile(), f.getTupleDesc(), true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        return mapped;
+    }
+
+    @Test public void testScanMatches() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = openMapped(SystemTestUtil.createRandomHeapFile(3, 5000, null, tuples));
+        assertTrue(f.isMemoryMapped());
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /** Pages appended by insertTuple are read from a new mapping. */
+    @Test public void testRemapOnGrowth() throws Exception {
+        HeapFile f = openMapped(SystemTestUtil.createRandomHeapFile(2, 504, null, null));
+        assertEquals(1, f.numPages());
+        // map the first page before the file grows
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(7, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, f.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPage page = (HeapPage) f.readPage(new HeapPageId(f.getId(), 1));
+        assertEquals(503, page.getNumEmptySlots());
+        Iterator<Tuple> it = page.iterator();
+        assertTrue(it.hasNext());
+        assertEquals(new IntField(7), it.next().getField(0));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(MemoryMappedScanTest.class);
+    }
+}
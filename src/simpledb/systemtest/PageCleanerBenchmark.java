@@ -0,0 +1,75 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import simpledb.*;
+
+/**
+ * Several threads commit transactions that each fill a new page of their
+ * own table, on a pool a fraction the size of what they write. Prints the
+ * commit rate, the pages the cleaner wrote, its largest backlog and how
+ * often a miss had to write pages itself. Not part of the unit tests; run
+ * it with
+ * <pre>
+ * java simpledb.systemtest.PageCleanerBenchmark [commits per thread]
+ * </pre>
+ */
+public class PageCleanerBenchmark {
+    private static final int THREADS = 4;
+    private static final int POOL_PAGES = 32;
+
+    public static void main(String[] args) throws Exception {
+        int commitsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 150;
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        HeapFile[] tables = new HeapFile[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            File file = File.createTempFile("cleaner", ".db");
+            file.deleteOnExit();
+            FreeSpaceMap.sideFile(file).deleteOnExit();
+            tables[i] = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        }
+        final int rowsPerCommit = HeapPage.createEmptyPageData().length * 8
+                / (tables[0].getTupleDesc().getSize() * 8 + 1);
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] workers = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            final HeapFile hf = tables[i];
+            workers[i] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < commitsPerThread; n++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        ArrayList<Tuple> rows = new ArrayList<>();
+                        for (int r = 0; r < rowsPerCommit; r++) {
+                            rows.add(Utility.getHeapTuple(new int[]{n * rowsPerCommit + r, 0}));
+                        }
+                        Database.getBufferPool().insertTuples(t.getId(), hf.getId(), rows.iterator());
+                        t.commit();
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            workers[i].start();
+        }
+        int maxBacklog = 0;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                maxBacklog = Math.max(maxBacklog, bp.getCleanerBacklog());
+                worker.join(1);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+        System.out.printf("%d commits in %.0f ms (%.0f/s); %d pages cleaned, max backlog %d, %d synchronous cleans%n",
+                THREADS * commitsPerThread, nanos / 1e6, THREADS * commitsPerThread / (nanos / 1e9),
+                bp.getPagesCleaned(), maxBacklog, bp.getSynchronousCleans());
+        bp.stopCleaner();
+    }
+}
@@ -0,0 +1,220 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests the page cleaner of BufferPool: commits leave their pages in the
+ * pool, the cleaner writes them behind, a crash before it does is
+ * recovered from the log, a write-heavy load on a small pool does not
+ * run out of clean frames, and a failed write is reported to the next
+ * commit instead of retried.
+ */
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    /** Fails every page write while failing is set, and counts the attempts. */
+    private static class FailingHeapFile extends HeapFile {
+        volatile boolean failing = true;
+        final AtomicInteger attempts = new AtomicInteger();
+
+        FailingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            if (failing) {
+                attempts.incrementAndGet();
+                throw new IOException("disk full");
+            }
+            super.writePage(page);
+        }
+    }
+
+    private static HeapFile createTable(String name) throws IOException {
+        File file = new File(name);
+        file.delete();
+        FreeSpaceMap.sideFile(file).delete();
+        return Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    private static int rowsPerPage(HeapFile hf) {
+        return HeapPage.createEmptyPageData().length * 8 / (hf.getTupleDesc().getSize() * 8 + 1);
+    }
+
+    /** Counts the rows in a table's file, bypassing the buffer pool. */
+    private static int rowsOnDisk(HeapFile hf) {
+        int rows = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            rows += page.getNumSlots() - page.getNumEmptySlots();
+        }
+        return rows;
+    }
+
+    private static void insertRows(TransactionId tid, HeapFile hf, int first, int n) throws Exception {
+        ArrayList<Tuple> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            rows.add(Utility.getHeapTuple(new int[]{first + i, 0}));
+        }
+        Database.getBufferPool().insertTuples(tid, hf.getId(), rows.iterator());
+    }
+
+    private static void awaitCleaned(BufferPool bp) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getCleanerBacklog() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, bp.getCleanerBacklog());
+    }
+
+    /**
+     * A commit logs its pages without writing them; the cleaner writes
+     * them shortly after.
+     */
+    @Test public void testCommittedPagesAreWrittenBehind() throws Exception {
+        Database.reset();
+        HeapFile hf = createTable("cleaner.db");
+        BufferPool bp = Database.getBufferPool();
+        int rows = 3 * rowsPerPage(hf);
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(t.getId(), hf, 0, rows);
+        t.commit();
+
+        awaitCleaned(bp);
+        assertEquals(rows, rowsOnDisk(hf));
+        assertTrue(bp.getPagesCleaned() >= 3);
+    }
+
+    /**
+     * Committed pages that were not written when the database crashed are
+     * redone from the log.
+     */
+    @Test public void testUnwrittenCommitsAreRecovered() throws Exception {
+        Database.reset();
+        File file = new File("cleaner.db");
+        HeapFile hf = createTable(file.getName());
+        int rows = 2 * rowsPerPage(hf);
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(t.getId(), hf, 0, rows);
+        t.commit();
+
+        // crash, most likely before the cleaner ran
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(rows, rowsOnDisk(hf));
+    }
+
+    /**
+     * Several threads commit transactions that each fill a new page of
+     * their own table, on a pool a fraction the size of what they write.
+     * Without writing committed pages the pool would run out of clean
+     * frames after a few commits.
+     */
+    @Test public void testWriteHeavyLoadOnSmallPool() throws Exception {
+        Database.reset();
+        final int threads = 4;
+        final int commitsPerThread = 50;
+        BufferPool bp = Database.resetBufferPool(32);
+        HeapFile[] tables = new HeapFile[threads];
+        for (int i = 0; i < threads; i++) {
+            tables[i] = createTable("cleaner" + i + ".db");
+        }
+        final int rowsPerCommit = rowsPerPage(tables[0]);
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final HeapFile hf = tables[i];
+            workers[i] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < commitsPerThread; n++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        insertRows(t.getId(), hf, n * rowsPerCommit, rowsPerCommit);
+                        t.commit();
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertNull(String.valueOf(error.get()), error.get());
+
+        awaitCleaned(bp);
+        for (HeapFile hf : tables) {
+            assertEquals(commitsPerThread * rowsPerCommit, rowsOnDisk(hf));
+        }
+        // every commit filled a page of its own, and only the cleaner wrote them
+        assertTrue(bp.getPagesCleaned() >= threads * commitsPerThread);
+    }
+
+    /**
+     * The cleaner stops at a page it cannot write rather than retry it
+     * right away; the next commit fails with the error, before it logs
+     * anything, and the commits after it start the cleaner again.
+     */
+    @Test public void testWriteErrorIsReportedToNextCommit() throws Exception {
+        Database.reset();
+        HeapFile created = createTable("cleaner.db");
+        FailingHeapFile hf = new FailingHeapFile(created.getFile(), created.getTupleDesc());
+        Database.getCatalog().addTable(hf, "failing");
+        BufferPool bp = Database.getBufferPool();
+        int rows = rowsPerPage(hf);
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(t.getId(), hf, 0, rows);
+        t.commit();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (hf.attempts.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // several write-behind delays go by without another attempt
+        Thread.sleep(300);
+        assertEquals(1, hf.attempts.get());
+        assertEquals(1, bp.getCleanerBacklog());
+        hf.failing = false;
+
+        t = new Transaction();
+        t.start();
+        insertRows(t.getId(), hf, rows, 1);
+        try {
+            t.commit();
+            fail("the commit should report the cleaner's error");
+        } catch (IOException expected) {
+        }
+        t.abort();
+
+        t = new Transaction();
+        t.start();
+        insertRows(t.getId(), hf, rows, 1);
+        t.commit();
+        awaitCleaned(bp);
+        assertEquals(rows + 1, rowsOnDisk(hf));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
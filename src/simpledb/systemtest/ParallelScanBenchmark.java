@@ -0,0 +1,73 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Compares scans with a CPU-bound predicate on 1 to 8 ParallelSeqScan
+ * workers with a SeqScan under a Filter, and prints the time and speedup of
+ * each. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.ParallelScanBenchmark [table pages]
+ * </pre>
+ */
+public class ParallelScanBenchmark {
+
+    /** Spends some CPU on every tuple before comparing it. */
+    private static class CostlyPredicate extends Predicate {
+        private static final long serialVersionUID = 1L;
+        static volatile int sink;
+
+        CostlyPredicate(Op op, Field operand) {
+            super(0, op, operand);
+        }
+
+        @Override
+        public boolean filter(Tuple t) {
+            int x = ((IntField) t.getField(1)).getValue();
+            for (int i = 0; i < 2000; i++) {
+                x = x * 31 + i;
+            }
+            sink = x;
+            return super.filter(t);
+        }
+    }
+
+    private static int count(OpIterator it) throws Exception {
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, pages * 504, null, null);
+        Predicate p = new CostlyPredicate(Predicate.Op.LESS_THAN, new IntField(1 << 15));
+        TransactionId tid = new TransactionId();
+        Database.resetBufferPool(2 * pages);
+        // warm up the pool and the JIT
+        int expected = count(new Filter(p, new SeqScan(tid, f.getId(), "t")));
+        count(new ParallelSeqScan(tid, f.getId(), "t", p, 2));
+
+        long start = System.nanoTime();
+        count(new Filter(p, new SeqScan(tid, f.getId(), "t")));
+        double serial = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d cores, %d rows pass; SeqScan + Filter %.3f s%n",
+                Runtime.getRuntime().availableProcessors(), expected, serial);
+        for (int workers : new int[]{1, 2, 4, 8}) {
+            start = System.nanoTime();
+            int count = count(new ParallelSeqScan(tid, f.getId(), "t", p, workers));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (count != expected) {
+                throw new IllegalStateException(workers + " workers returned " + count + " rows");
+            }
+            System.out.printf("%d workers: %.3f s, speedup %.2f%n", workers, seconds, serial / seconds);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().stopCleaner();
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests ParallelSeqScan against SeqScan, with and without a predicate.
+ */
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    private static int count(OpIterator it) throws Exception {
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    @Test public void testReturnsEveryTuple() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20 * 504 + 17, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (int workers : new int[]{1, 3, 8}) {
+            SystemTestUtil.matchTuples(new ParallelSeqScan(tid, f.getId(), "t", workers), tuples);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testFilters() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, tuples);
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            expected += t.get(0) < 1000 ? 1 : 0;
+        }
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1000));
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", p, 4);
+        assertEquals(expected, count(scan));
+
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(expected, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Closing a scan early stops its workers before they lock more pages. */
+    @Test public void testCloseEarly() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 200 * 504, null, null);
+        BufferPool bp = Database.resetBufferPool(50);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", 4);
+        scan.open();
+        for (int i = 0; i < 10; i++) {
+            scan.next();
+        }
+        scan.close();
+        int locked = bp.getLockManager().lockedPages(tid).size();
+        assertTrue(locked < f.numPages());
+        Thread.sleep(100);
+        assertEquals(locked, bp.getLockManager().lockedPages(tid).size());
+        bp.transactionComplete(tid);
+        assertTrue(bp.getLockManager().lockedPages(tid).isEmpty());
+    }
+
+    /** A worker's failure reaches the thread reading the scan. */
+    @Test public void testWorkerFailure() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        Predicate failing = new Predicate(0, Predicate.Op.EQUALS, new IntField(0)) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean filter(Tuple t) {
+                throw new IllegalStateException("broken predicate");
+            }
+        };
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", failing, 2);
+        scan.open();
+        try {
+            scan.hasNext();
+            fail("expected DbException");
+        } catch (DbException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+
+import simpledb.*;
+
+/**
+ * Compares the sequential scan throughput of a heap file with and without
+ * read-ahead. The table's file is written just before it is scanned, so it
+ * is most likely in the OS page cache: the benchmark measures how much of
+ * the read cost read-ahead hides, not the disk; drop the OS page cache
+ * between runs to measure that. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.ReadAheadBenchmark [table size in MB]
+ * </pre>
+ */
+public class ReadAheadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int pages = (int) ((long) megabytes * 1024 * 1024 / BufferPool.getPageSize());
+
+        // copy one full page of random tuples over the whole table
+        HeapFile onePage = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        byte[] page = Files.readAllBytes(onePage.getFile().toPath());
+        File file = File.createTempFile("readahead", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sideFile(file).deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < pages; i++) {
+                out.write(page);
+            }
+        }
+        HeapFile f = Utility.openHeapFile(2, file);
+
+        for (int readAhead : new int[]{0, BufferPool.DEFAULT_READ_AHEAD, 0, BufferPool.DEFAULT_READ_AHEAD}) {
+            BufferPool bp = Database.resetBufferPool(200);
+            bp.setReadAhead(readAhead);
+            long start = System.nanoTime();
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = f.iterator(tid);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+            bp.transactionComplete(tid);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("read-ahead %d: %d tuples, %d MB in %.2f s, %.0f MB/s, %d pages prefetched%n",
+                    readAhead, count, megabytes, seconds, megabytes / seconds, bp.getPagesPrefetched());
+        }
+        Database.getBufferPool().stopCleaner();
+    }
+}
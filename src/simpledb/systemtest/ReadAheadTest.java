@@ -0,0 +1,69 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans heap files and B+ trees with and without read-ahead.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static int count(DbFileIterator it) throws DbException, TransactionAbortedException {
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    @Test public void testHeapScanReadsAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 200 * 504, null, tuples);
+        BufferPool bp = Database.resetBufferPool(100);
+        SystemTestUtil.matchTuples(f, tuples);
+        // how many pages the prefetches read before the scan caught up with
+        // them depends on timing; that the scan asked for them does not
+        assertTrue(bp.getPrefetchRequests() > 0);
+
+        bp = Database.resetBufferPool(100);
+        bp.setReadAhead(0);
+        assertEquals(tuples.size(), count(f.iterator(new TransactionId())));
+        assertEquals(0, bp.getPrefetchRequests());
+        assertEquals(0, bp.getPagesPrefetched());
+    }
+
+    /**
+     * Leaves are read ahead along their right sibling pointers. One leaf
+     * has to be read before the next one is known, so the scan often
+     * catches up with the read-ahead and reads a leaf itself; the test
+     * checks that read-ahead was asked for, not how many leaves it read.
+     */
+    @Test public void testBTreeScanReadsAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 100000, null, tuples, 0);
+        BufferPool bp = Database.resetBufferPool(400);
+        TransactionId tid = new TransactionId();
+        assertEquals(tuples.size(), count(f.iterator(tid)));
+        assertTrue(bp.getPrefetchRequests() > 0);
+
+        bp = Database.resetBufferPool(400);
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+        assertEquals(tuples.size(), count(f.indexIterator(tid, ipred)));
+        assertTrue(bp.getPrefetchRequests() > 0);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
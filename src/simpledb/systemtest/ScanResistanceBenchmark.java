@@ -0,0 +1,104 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import simpledb.*;
+
+/**
+ * Looks up random keys of a B+ tree in one thread while another scans a
+ * table larger than the buffer pool, once through the whole pool and once
+ * through a ring, and prints the lookup latencies and how many index pages
+ * the scan evicted. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.ScanResistanceBenchmark [big table pages]
+ * </pre>
+ */
+public class ScanResistanceBenchmark {
+    private static final int POOL_PAGES = 200;
+
+    public static void main(String[] args) throws Exception {
+        int bigTablePages = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+
+        // a heap file of full pages of two-int tuples
+        HeapFile onePage = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        byte[] page = Files.readAllBytes(onePage.getFile().toPath());
+        File file = File.createTempFile("bigtable", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sideFile(file).deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < bigTablePages; i++) {
+                out.write(page);
+            }
+        }
+        HeapFile big = Utility.openHeapFile(2, file);
+
+        for (boolean useRing : new boolean[]{false, true, false, true}) {
+            BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+            // warm up the index
+            TransactionId warm = new TransactionId();
+            scan(index.iterator(warm));
+            ArrayList<PageId> indexPages = new ArrayList<>(bp.getLockManager().lockedPages(warm));
+            bp.transactionComplete(warm);
+
+            AtomicBoolean done = new AtomicBoolean();
+            Thread scanner = new Thread(() -> {
+                try {
+                    TransactionId tid = new TransactionId();
+                    BufferRing ring = useRing ? bp.ringFor(big.numPages()) : null;
+                    scan(big.iterator(tid, ring));
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    done.set(true);
+                }
+            });
+            scanner.start();
+
+            Random rand = new Random(0);
+            long[] latencies = new long[1 << 20];
+            int lookups = 0;
+            while (!done.get() && lookups < latencies.length) {
+                ArrayList<Integer> row = tuples.get(rand.nextInt(tuples.size()));
+                TransactionId tid = new TransactionId();
+                long start = System.nanoTime();
+                IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(row.get(0)));
+                DbFileIterator it = index.indexIterator(tid, ipred);
+                it.open();
+                it.hasNext();
+                it.close();
+                latencies[lookups++] = System.nanoTime() - start;
+                bp.transactionComplete(tid);
+            }
+            scanner.join();
+            int evicted = 0;
+            for (PageId pid : indexPages) {
+                evicted += bp.isCached(pid) ? 0 : 1;
+            }
+
+            long[] sorted = Arrays.copyOf(latencies, lookups);
+            Arrays.sort(sorted);
+            System.out.printf("%s: %d lookups during the scan, p50 %.1f us, p99 %.1f us, "
+                            + "%d of %d index pages evicted%n",
+                    useRing ? "ring" : "no ring", lookups, sorted[lookups / 2] / 1e3,
+                    sorted[lookups * 99 / 100] / 1e3, evicted, indexPages.size());
+        }
+        Database.getBufferPool().stopCleaner();
+    }
+
+    private static void scan(DbFileIterator it) throws Exception {
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+    }
+}
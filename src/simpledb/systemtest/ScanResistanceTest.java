@@ -0,0 +1,148 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests that a sequential scan of a table larger than the buffer pool runs
+ * through a ring of frames and leaves the pages of other queries cached,
+ * including those of B+ tree point lookups that run while it scans.
+ */
+public class ScanResistanceTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 200;
+    private static final int BIG_TABLE_PAGES = 1000;
+
+    /** Writes a heap file of full pages of two-int tuples. */
+    private static HeapFile createBigTable(int pages) throws Exception {
+        HeapFile onePage = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        byte[] page = Files.readAllBytes(onePage.getFile().toPath());
+        File file = File.createTempFile("bigtable", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sideFile(file).deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < pages; i++) {
+                out.write(page);
+            }
+        }
+        return Utility.openHeapFile(2, file);
+    }
+
+    private static int scan(DbFileIterator it) throws Exception {
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    @Test public void testRingOnlyForLargeTables() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        assertNull(bp.ringFor(POOL_PAGES));
+        BufferRing ring = bp.ringFor(POOL_PAGES + 1);
+        assertNotNull(ring);
+        assertTrue(ring.capacity() < POOL_PAGES / 4);
+    }
+
+    /** A SeqScan of a big table does not evict the pages of a small one. */
+    @Test public void testSeqScanKeepsHotPages() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 20 * 504, null, null);
+        HeapFile big = createBigTable(BIG_TABLE_PAGES);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        assertEquals(20 * 504, scan(small.iterator(tid)));
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "big");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(BIG_TABLE_PAGES * 504, count);
+        for (int i = 0; i < small.numPages(); i++) {
+            assertTrue("page " + i + " of the small table was evicted",
+                    bp.isCached(new HeapPageId(small.getId(), i)));
+        }
+
+        // the same scan without a ring goes through the whole pool
+        assertEquals(BIG_TABLE_PAGES * 504, scan(big.iterator(tid, null)));
+        int cached = 0;
+        for (int i = 0; i < small.numPages(); i++) {
+            cached += bp.isCached(new HeapPageId(small.getId(), i)) ? 1 : 0;
+        }
+        assertTrue(cached < small.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Looks up random keys of a B+ tree in one thread while another scans
+     * a big table through a ring; the scan must not evict any index page.
+     */
+    @Test public void testLookupsDuringScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+        HeapFile big = createBigTable(BIG_TABLE_PAGES);
+
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        // warm up the index
+        TransactionId warm = new TransactionId();
+        assertEquals(tuples.size(), scan(index.iterator(warm)));
+        ArrayList<PageId> indexPages = new ArrayList<>(bp.getLockManager().lockedPages(warm));
+        bp.transactionComplete(warm);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread scanner = new Thread(() -> {
+            try {
+                TransactionId tid = new TransactionId();
+                assertEquals(BIG_TABLE_PAGES * 504, scan(big.iterator(tid, bp.ringFor(big.numPages()))));
+                bp.transactionComplete(tid);
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            } finally {
+                done.set(true);
+            }
+        });
+        scanner.start();
+
+        Random rand = new Random(0);
+        do {
+            ArrayList<Integer> row = tuples.get(rand.nextInt(tuples.size()));
+            TransactionId tid = new TransactionId();
+            IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(row.get(0)));
+            DbFileIterator it = index.indexIterator(tid, ipred);
+            it.open();
+            assertTrue(it.hasNext());
+            it.close();
+            bp.transactionComplete(tid);
+        } while (!done.get());
+        scanner.join();
+        assertNull(String.valueOf(error.get()), error.get());
+        for (PageId pid : indexPages) {
+            assertTrue(pid + " was evicted", bp.isCached(pid));
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanResistanceTest.class);
+    }
+}
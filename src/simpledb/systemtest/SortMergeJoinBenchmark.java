@@ -0,0 +1,46 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Times the nested-loop Join and SortMergeJoin on the same two tables, for
+ * an equality and a range predicate, and prints the best of three runs of
+ * each. Not part of the unit tests; run it with
+ * <pre>
+ * java simpledb.systemtest.SortMergeJoinBenchmark [rows per side]
+ * </pre>
+ */
+public class SortMergeJoinBenchmark {
+
+    private static long time(OpIterator it) throws Exception {
+        long start = System.nanoTime();
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, rows, 100000, null, null);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, rows, 100000, null, null);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN}) {
+            JoinPredicate p = new JoinPredicate(1, op, 1);
+            long nested = Long.MAX_VALUE;
+            long merge = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                nested = Math.min(nested, time(new Join(p, new SeqScan(tid, f1.getId(), "a"),
+                        new SeqScan(tid, f2.getId(), "b"))));
+                merge = Math.min(merge, time(new SortMergeJoin(p, new SeqScan(tid, f1.getId(), "a"),
+                        new SeqScan(tid, f2.getId(), "b"))));
+            }
+            System.out.printf("%d x %d rows, %s: nested loops %.1f ms, sort-merge %.1f ms (%.2fx)%n",
+                    rows, rows, op, nested / 1e6, merge / 1e6, (double) nested / merge);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().stopCleaner();
+    }
+}
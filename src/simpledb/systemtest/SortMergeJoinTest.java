@@ -0,0 +1,130 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests ExternalSort, and SortMergeJoin against the nested-loop Join for
+ * each predicate it supports, with budgets small enough to spill.
+ */
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+
+    private static List<String> run(OpIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test public void testExternalSort() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        ArrayList<Integer> expected = new ArrayList<>();
+        for (ArrayList<Integer> t : tuples) {
+            expected.add(t.get(1));
+        }
+        Collections.sort(expected);
+
+        // in memory, a few runs, and more runs than one merge takes
+        for (long budget : new long[]{Long.MAX_VALUE, 40000, 1000}) {
+            ExternalSort sort = new ExternalSort(new SeqScan(tid, f.getId(), "t"), 1, budget);
+            sort.open();
+            for (int pass = 0; pass < 2; pass++) {
+                ArrayList<Integer> sorted = new ArrayList<>();
+                while (sort.hasNext()) {
+                    sorted.add(((IntField) sort.next().getField(1)).getValue());
+                }
+                assertEquals(expected, sorted);
+                sort.rewind();
+            }
+            assertEquals(budget == Long.MAX_VALUE, sort.getSpilledRuns() == 0);
+            assertTrue(budget != 1000 || sort.getSpilledRuns() > ExternalSort.MAX_MERGE);
+            sort.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testMatchesNestedLoops() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 400, 300, null, null);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, 500, 300, null, null);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : OPS) {
+            JoinPredicate p = new JoinPredicate(1, op, 2);
+            List<String> expected = run(new Join(p, new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")));
+            assertTrue(!expected.isEmpty());
+            // held in memory, and spilled both in the sorts and the prefix
+            for (long budget : new long[]{Long.MAX_VALUE, 1000}) {
+                SortMergeJoin join = new SortMergeJoin(p, new SeqScan(tid, f1.getId(), "a"),
+                        new SeqScan(tid, f2.getId(), "b"), budget);
+                assertEquals(op.toString(), expected, run(join));
+            }
+        }
+        assertFalse(SortMergeJoin.supports(Predicate.Op.NOT_EQUALS));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRewind() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, null);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, null);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : OPS) {
+            SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 0),
+                    new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"), 2000);
+            join.open();
+            int count = 0;
+            while (join.hasNext()) {
+                join.next();
+                count++;
+            }
+            join.rewind();
+            while (join.hasNext()) {
+                join.next();
+                count--;
+            }
+            join.close();
+            assertEquals(0, count);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSortedInputs() throws Exception {
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 3000, 500, null, null, 0);
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, null);
+        TransactionId tid = new TransactionId();
+        BTreeScan scan = new BTreeScan(tid, btree.getId(), "a", null);
+        assertTrue(SortMergeJoin.isSortedOn(scan, 0));
+        assertFalse(SortMergeJoin.isSortedOn(scan, 1));
+        assertTrue(SortMergeJoin.isSortedOn(new Filter(new Predicate(1, Predicate.Op.GREATER_THAN,
+                new IntField(100)), scan), 0));
+        assertTrue(SortMergeJoin.isSortedOn(new ExternalSort(new SeqScan(tid, heap.getId(), "b"), 1), 1));
+        assertFalse(SortMergeJoin.isSortedOn(new SeqScan(tid, heap.getId(), "b"), 0));
+
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        assertEquals(run(new HashEquiJoin(p, new BTreeScan(tid, btree.getId(), "a", null), new SeqScan(tid, heap.getId(), "b"))),
+                run(new SortMergeJoin(p, new BTreeScan(tid, btree.getId(), "a", null),
+                        new ExternalSort(new SeqScan(tid, heap.getId(), "b"), 1))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}